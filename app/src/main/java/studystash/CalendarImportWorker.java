@@ -0,0 +1,26 @@
+package studystash;
+
+import javax.swing.*;
+
+// Runs a PdfCalendarImporter off the EDT. Each page is published as it lands and the share of pages done is the
+// worker's progress; cancel(true) interrupts the import, which stops the pages still rendering.
+public class CalendarImportWorker extends SwingWorker<Integer, Integer> {
+    private final PdfCalendarImporter importer;
+
+    public CalendarImportWorker(PdfCalendarImporter importer) {
+        this.importer = importer;
+        importer.setPageListener(page -> {
+            publish(page);
+            setProgress(importer.getPagesDone() * 100 / Math.max(importer.getPageCount(), 1));
+        });
+    }
+
+    public PdfCalendarImporter getImporter() {
+        return importer;
+    }
+
+    @Override
+    protected Integer doInBackground() throws Exception {
+        return importer.call();
+    }
+}
@@ -0,0 +1,156 @@
+package studystash;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Loads a file into a document off the EDT. Unless it is told the format, it first sniffs the charset, BOM and line
+// separator from the start of the file. The file is then mapped and decoded straight from the mapping, one chunk at a
+// time, with its BOM skipped and CRLF or CR line breaks turned into '\n'; each chunk becomes one String for the
+// document, and chunks are inserted on the EDT in batches.
+public class ChunkedFileLoader extends SwingWorker<Long, String> {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // Upper bound on how much text a single process() call inserts, so the EDT stays responsive
+    private static final int MAX_BATCH_CHARS = 1024 * 1024;
+    // Files are mapped a window at a time so a big one does not need one huge mapping
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+    private final File file;
+    private final Document document;
+    private final Charset fallback;
+    private volatile TextFormat format;
+
+    public ChunkedFileLoader(File file, Document document) {
+        this(file, document, null, Charset.defaultCharset());
+    }
+
+    public ChunkedFileLoader(File file, Document document, Charset charset) {
+        this(file, document, TextFormat.of(charset));
+    }
+
+    public ChunkedFileLoader(File file, Document document, TextFormat format) {
+        this(file, document, format, format.getCharset());
+    }
+
+    // A null format is detected from the file, with fallback as the charset of text that gives no hint
+    public ChunkedFileLoader(File file, Document document, TextFormat format, Charset fallback) {
+        this.file = file;
+        this.document = document;
+        this.format = format;
+        this.fallback = fallback;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // The format the file was read with; known once the load has started
+    public TextFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    protected Long doInBackground() throws IOException {
+        if (format == null) {
+            format = TextFormat.detect(file, fallback);
+        }
+        CharsetDecoder decoder = format.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+        char[] chunk = new char[CHUNK_SIZE + 1];
+        boolean pendingCarriageReturn = false;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long total = channel.size();
+            long position = Math.min(format.getByteOrderMarkLength(), total);
+            while (!isCancelled()) {
+                long windowStart = position;
+                long windowSize = Math.min(MAP_WINDOW, total - windowStart);
+                boolean endOfInput = windowStart + windowSize == total;
+                ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+                while (!isCancelled()) {
+                    CoderResult result = decoder.decode(bytes, chars, endOfInput);
+                    if (endOfInput && result.isUnderflow()) {
+                        decoder.flush(chars);
+                    }
+                    chars.flip();
+                    int count = 0;
+                    // Turn CRLF and lone CR into LF, including pairs split across chunks
+                    if (pendingCarriageReturn && (chars.hasRemaining() || !bytes.hasRemaining() && endOfInput)) {
+                        if (!chars.hasRemaining() || chars.get(chars.position()) != '\n') {
+                            chunk[count++] = '\n';
+                        }
+                        pendingCarriageReturn = false;
+                    }
+                    while (chars.hasRemaining()) {
+                        char c = chars.get();
+                        if (c == '\r') {
+                            if (!chars.hasRemaining()) {
+                                pendingCarriageReturn = !endOfInput || bytes.hasRemaining();
+                                if (!pendingCarriageReturn) {
+                                    chunk[count++] = '\n';
+                                }
+                            } else if (chars.get(chars.position()) != '\n') {
+                                chunk[count++] = '\n';
+                            }
+                        } else {
+                            chunk[count++] = c;
+                        }
+                    }
+                    chars.clear();
+                    if (count > 0) {
+                        publish(new String(chunk, 0, count));
+                    }
+                    position = windowStart + bytes.position();
+                    setProgress(total == 0 ? 100 : (int) Math.min(100, position * 100 / total));
+                    if (result.isUnderflow()) {
+                        break;
+                    }
+                }
+                if (endOfInput) {
+                    return total;
+                }
+                // A character split by the end of the window is left undecoded; the next window starts with it
+            }
+            return position;
+        }
+    }
+
+    @Override
+    protected void process(List<String> chunks) {
+        if (isCancelled()) {
+            return;
+        }
+        StringBuilder batch = new StringBuilder();
+        for (String chunk : chunks) {
+            batch.append(chunk);
+            if (batch.length() >= MAX_BATCH_CHARS) {
+                append(batch);
+                batch.setLength(0);
+            }
+        }
+        if (batch.length() > 0) {
+            append(batch);
+        }
+    }
+
+    private void append(CharSequence text) {
+        try {
+            document.insertString(document.getLength(), text.toString(), null);
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+}
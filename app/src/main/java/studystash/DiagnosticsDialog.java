@@ -0,0 +1,185 @@
+package studystash;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.List;
+
+// Help > Diagnostics. Shows the Metrics histograms, the recent EDT stalls and the freezes FreezeWatchdog caught, worst
+// blocking path first, refreshed once a second while open.
+// The numbers can be exported as a plain text metrics file, or a JFR recording can be started here and saved later;
+// it uses the JDK's default settings plus the studystash.Operation and studystash.EdtStall events.
+public class DiagnosticsDialog extends JDialog {
+    private static final String[] COLUMNS = {"Operation", "Count", "Failed", "p50 ms", "p95 ms", "p99 ms", "Max ms", "MB/s"};
+
+    private final EventDispatchMonitor monitor;
+    private final FreezeWatchdog watchdog;
+    private final DefaultTableModel model = new DefaultTableModel(COLUMNS, 0) {
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return false;
+        }
+    };
+    private final DefaultListModel<String> stalls = new DefaultListModel<>();
+    private final JLabel stallLabel = new JLabel(" ");
+    private final DefaultListModel<FreezeWatchdog.BlockingPath> freezes = new DefaultListModel<>();
+    private final JLabel freezeLabel = new JLabel(" ");
+    private final JButton recordButton = new JButton("Start JFR Recording");
+    private final Timer refreshTimer;
+    private Recording recording;
+
+    public DiagnosticsDialog(Frame owner, EventDispatchMonitor monitor, FreezeWatchdog watchdog) {
+        super(owner, "Diagnostics", false);
+        this.monitor = monitor;
+        this.watchdog = watchdog;
+
+        JTable table = new JTable(model);
+        table.setFillsViewportHeight(true);
+        JButton resetButton = new JButton("Reset");
+        JButton exportButton = new JButton("Export Metrics...");
+        resetButton.addActionListener(e -> {
+            Metrics.reset();
+            monitor.reset();
+            watchdog.reset();
+            refresh();
+        });
+        exportButton.addActionListener(e -> exportMetrics());
+        recordButton.addActionListener(e -> toggleRecording());
+        refreshTimer = new Timer(1000, e -> refresh());
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                refreshTimer.start();
+            }
+
+            @Override
+            public void windowActivated(WindowEvent e) {
+                refreshTimer.start();
+            }
+
+            @Override
+            public void windowClosing(WindowEvent e) {
+                refreshTimer.stop();
+            }
+        });
+
+        JPanel stallPanel = new JPanel(new BorderLayout());
+        stallPanel.add(stallLabel, BorderLayout.NORTH);
+        stallPanel.add(new JScrollPane(new JList<>(stalls)), BorderLayout.CENTER);
+        JPanel freezePanel = new JPanel(new BorderLayout());
+        freezePanel.add(freezeLabel, BorderLayout.NORTH);
+        freezePanel.add(new JScrollPane(new JList<>(freezes)), BorderLayout.CENTER);
+        JTabbedPane events = new JTabbedPane();
+        events.addTab("Freezes", freezePanel);
+        events.addTab("Stalls", stallPanel);
+        JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(table), events);
+        split.setResizeWeight(0.6);
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(resetButton);
+        buttons.add(recordButton);
+        buttons.add(exportButton);
+        add(split, BorderLayout.CENTER);
+        add(buttons, BorderLayout.SOUTH);
+        setDefaultCloseOperation(HIDE_ON_CLOSE);
+        setSize(760, 480);
+        refresh();
+    }
+
+    private void refresh() {
+        model.setRowCount(0);
+        for (Metrics.Operation operation : Metrics.Operation.values()) {
+            Metrics.Histogram histogram = Metrics.get(operation);
+            if (histogram.getCount() == 0 && histogram.getFailures() == 0) {
+                continue;
+            }
+            model.addRow(new Object[]{
+                    operation.getLabel(),
+                    histogram.getCount(),
+                    histogram.getFailures(),
+                    format(histogram.getPercentile(50)),
+                    format(histogram.getPercentile(95)),
+                    format(histogram.getPercentile(99)),
+                    format(histogram.getMaxNanos()),
+                    histogram.getBytes() > 0 ? String.format("%.1f", histogram.getMegabytesPerSecond()) : ""
+            });
+        }
+        stallLabel.setText(monitor.getStallCount() + " event dispatches took over " + EventDispatchMonitor.STALL_MILLIS + " ms; the latest:");
+        stalls.clear();
+        for (String stall : monitor.getRecentStalls()) {
+            stalls.addElement(stall);
+        }
+        List<FreezeWatchdog.BlockingPath> paths = watchdog.getBlockingPaths();
+        freezeLabel.setText("Freezes over " + FreezeWatchdog.FREEZE_MILLIS + " ms by where the EDT was stuck, worst first; stacks are in "
+                + watchdog.getLogFile().getAbsolutePath());
+        freezes.clear();
+        for (FreezeWatchdog.BlockingPath path : paths) {
+            freezes.addElement(path);
+        }
+        if (!isShowing()) {
+            refreshTimer.stop();
+        }
+    }
+
+    private static String format(long nanos) {
+        return String.format("%.2f", Metrics.millis(nanos));
+    }
+
+    private void exportMetrics() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setSelectedFile(new File("studystash-metrics.txt"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try {
+            StringBuilder extra = new StringBuilder(monitor.describeStalls());
+            extra.append(System.lineSeparator()).append("Freezes by blocking path").append(System.lineSeparator());
+            for (FreezeWatchdog.BlockingPath path : watchdog.getBlockingPaths()) {
+                extra.append("    ").append(path).append(System.lineSeparator());
+            }
+            Metrics.writeReport(fileChooser.getSelectedFile(), extra.toString());
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Error writing " + fileChooser.getSelectedFile().getName(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void toggleRecording() {
+        if (recording == null) {
+            try {
+                recording = new Recording(Configuration.getConfiguration("default"));
+                recording.setName("StudyStash");
+                recording.start();
+                recordButton.setText("Stop and Save Recording...");
+            } catch (IOException | ParseException | IllegalStateException | SecurityException e) {
+                e.printStackTrace();
+                recording = null;
+                JOptionPane.showMessageDialog(this, "Could not start a flight recording: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+            return;
+        }
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setSelectedFile(new File("studystash.jfr"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try {
+            recording.stop();
+            recording.dump(fileChooser.getSelectedFile().toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Error writing " + fileChooser.getSelectedFile().getName(), "Error", JOptionPane.ERROR_MESSAGE);
+        } finally {
+            recording.close();
+            recording = null;
+            recordButton.setText("Start JFR Recording");
+        }
+    }
+}
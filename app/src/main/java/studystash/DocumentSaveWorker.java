@@ -0,0 +1,23 @@
+package studystash;
+
+import javax.swing.*;
+
+// Runs a DocumentSaver off the EDT, with its percentage as the worker's progress. cancel(true) interrupts the save,
+// which then stops with the temp file deleted and the old note left in place.
+public class DocumentSaveWorker extends SwingWorker<Long, Void> {
+    private final DocumentSaver saver;
+
+    public DocumentSaveWorker(DocumentSaver saver) {
+        this.saver = saver;
+        saver.setProgressListener(this::setProgress);
+    }
+
+    public DocumentSaver getSaver() {
+        return saver;
+    }
+
+    @Override
+    protected Long doInBackground() throws Exception {
+        return saver.call();
+    }
+}
@@ -0,0 +1,321 @@
+package studystash;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Append-only log of the edits made since the open note was last loaded or saved.
+// The DocumentListener only queues records; a background thread group-commits them every few hundred ms,
+// so typing never waits on the disk. Replaying the log on top of the base file recovers unsaved work after a crash.
+// Every open note has its own journal; they all share one writer thread.
+public class EditJournal {
+    private static final int COMMIT_INTERVAL_MS = 300;
+    private static final byte RESET = 0;
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "edit-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File journalFile;
+    private final ConcurrentLinkedQueue<Record> pending = new ConcurrentLinkedQueue<>();
+    private final ScheduledFuture<?> committer;
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private volatile boolean recording;
+
+    public EditJournal(File journalFile) {
+        this.journalFile = journalFile;
+        committer = WRITER.scheduleWithFixedDelay(this::commit, COMMIT_INTERVAL_MS, COMMIT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    // Stops recording, e.g. while a file is being loaded into the document
+    public void suspend() {
+        recording = false;
+    }
+
+    // Starts a fresh journal whose edits apply on top of base (null for a new, empty note)
+    public void reset(File base) {
+        reset(base, false);
+    }
+
+    // baseUnsaved marks a base that itself holds unsaved work, such as a hibernated tab's swap file, so the journal
+    // is worth recovering even before any edit is made on top of it
+    public void reset(File base, boolean baseUnsaved) {
+        pending.add(Record.reset(base, baseUnsaved));
+        recording = true;
+    }
+
+    public void recordInsert(DocumentEvent e) {
+        if (!recording) {
+            return;
+        }
+        try {
+            pending.add(Record.insert(e.getOffset(), e.getDocument().getText(e.getOffset(), e.getLength())));
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    public void recordRemove(DocumentEvent e) {
+        if (recording) {
+            pending.add(Record.remove(e.getOffset(), e.getLength()));
+        }
+    }
+
+    // Commits what is queued on the writer thread and, once it is forced to disk, runs afterCommit there too.
+    // afterCommit is skipped if the write fails.
+    public void commitThen(Runnable afterCommit) {
+        WRITER.execute(() -> {
+            if (commit()) {
+                afterCommit.run();
+            }
+        });
+    }
+
+    // Flushes what is queued; the journal file is deleted when there is no unsaved work left to recover
+    public void close(boolean deleteJournal) {
+        recording = false;
+        // A commit already running on the writer holds the lock, so this last one waits for it
+        committer.cancel(false);
+        commit();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (deleteJournal) {
+                Files.deleteIfExists(journalFile.toPath());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Returns false if the queued records could not be written
+    private synchronized boolean commit() {
+        if (pending.isEmpty()) {
+            return true;
+        }
+        try {
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            Record record;
+            while ((record = pending.poll()) != null) {
+                if (record.type == RESET) {
+                    // Edits before a reset describe a state that no longer matters, so the file starts over
+                    batch.reset();
+                    openChannel().truncate(0);
+                }
+                writeRecord(batch, record);
+            }
+            FileChannel out = openChannel();
+            ByteBuffer bytes = ByteBuffer.wrap(batch.toByteArray());
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            out.force(false);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    // Each record is framed as [length][crc32][payload], so a write torn by a crash is detected and dropped on replay
+    private void writeRecord(ByteArrayOutputStream batch, Record record) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(payload);
+        data.writeByte(record.type);
+        if (record.type == RESET) {
+            data.writeUTF(record.basePath);
+            data.writeLong(record.baseLength);
+            data.writeLong(record.baseModified);
+            data.writeBoolean(record.baseUnsaved);
+        } else if (record.type == INSERT) {
+            byte[] text = record.text.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(record.offset);
+            data.writeInt(text.length);
+            data.write(text);
+        } else {
+            data.writeInt(record.offset);
+            data.writeInt(record.length);
+        }
+        data.flush();
+        byte[] bytes = payload.toByteArray();
+        crc.reset();
+        crc.update(bytes);
+        DataOutputStream frame = new DataOutputStream(batch);
+        frame.writeInt(bytes.length);
+        frame.writeInt((int) crc.getValue());
+        frame.write(bytes);
+        frame.flush();
+    }
+
+    // Reads a journal left behind by a previous run. Returns null when there is nothing to recover.
+    public static Recovery read(File journalFile) {
+        if (!journalFile.exists()) {
+            return null;
+        }
+        Recovery recovery = null;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(journalFile.toPath()))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > journalFile.length()) {
+                    break;
+                }
+                int checksum = in.readInt();
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                crc.reset();
+                crc.update(bytes);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                DataInputStream data = new DataInputStream(new java.io.ByteArrayInputStream(bytes));
+                byte type = data.readByte();
+                if (type == RESET) {
+                    String path = data.readUTF();
+                    recovery = new Recovery(journalFile, path.isEmpty() ? null : new File(path), data.readLong(), data.readLong());
+                    // journals written before the flag existed end here
+                    recovery.baseUnsaved = data.available() > 0 && data.readBoolean();
+                } else if (recovery != null && type == INSERT) {
+                    int offset = data.readInt();
+                    byte[] text = new byte[data.readInt()];
+                    data.readFully(text);
+                    recovery.edits.add(Record.insert(offset, new String(text, StandardCharsets.UTF_8)));
+                } else if (recovery != null && type == REMOVE) {
+                    recovery.edits.add(Record.remove(data.readInt(), data.readInt()));
+                }
+            }
+        } catch (EOFException e) {
+            // torn final record, keep what was read before it
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return recovery != null && (!recovery.edits.isEmpty() || recovery.baseUnsaved) ? recovery : null;
+    }
+
+    public static class Recovery {
+        private final File journalFile;
+        private final File base;
+        private final long baseLength;
+        private final long baseModified;
+        private final List<Record> edits = new ArrayList<>();
+        private boolean baseUnsaved;
+
+        Recovery(File journalFile, File base, long baseLength, long baseModified) {
+            this.journalFile = journalFile;
+            this.base = base;
+            this.baseLength = baseLength;
+            this.baseModified = baseModified;
+        }
+
+        // The journal the edits were read from, to be deleted once they are safe elsewhere
+        public File getJournalFile() {
+            return journalFile;
+        }
+
+        public File getBase() {
+            return base;
+        }
+
+        // True when the base is a swap file of unsaved text rather than a saved note
+        public boolean isBaseUnsaved() {
+            return baseUnsaved;
+        }
+
+        public int getEditCount() {
+            return edits.size();
+        }
+
+        // The edits are offsets into the base as it was, so they only make sense if the file has not changed since
+        public boolean isBaseUnchanged() {
+            return base == null || (base.length() == baseLength && base.lastModified() == baseModified);
+        }
+
+        public void replay(Document document) throws BadLocationException {
+            for (Record edit : edits) {
+                if (edit.type == INSERT) {
+                    document.insertString(edit.offset, edit.text, null);
+                } else {
+                    document.remove(edit.offset, edit.length);
+                }
+            }
+        }
+    }
+
+    private static class Record {
+        final byte type;
+        int offset;
+        int length;
+        String text;
+        String basePath;
+        long baseLength;
+        long baseModified;
+        boolean baseUnsaved;
+
+        Record(byte type) {
+            this.type = type;
+        }
+
+        static Record reset(File base, boolean baseUnsaved) {
+            Record record = new Record(RESET);
+            record.baseUnsaved = baseUnsaved;
+            record.basePath = base == null ? "" : base.getAbsolutePath();
+            record.baseLength = base == null ? 0 : base.length();
+            record.baseModified = base == null ? 0 : base.lastModified();
+            return record;
+        }
+
+        static Record insert(int offset, String text) {
+            Record record = new Record(INSERT);
+            record.offset = offset;
+            record.text = text;
+            return record;
+        }
+
+        static Record remove(int offset, int length) {
+            Record record = new Record(REMOVE);
+            record.offset = offset;
+            record.length = length;
+            return record;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package studystash;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import javax.swing.AbstractButton;
+import java.awt.*;
+import java.awt.event.InputEvent;
+import java.awt.event.InvocationEvent;
+import java.awt.event.KeyEvent;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Times every event the EDT dispatches. All of them go into the Event dispatch histogram; those over STALL_MILLIS
+// are counted, kept in a short list for the Diagnostics panel, and become studystash.EdtStall JFR events while the
+// flight recorder is up. Pushed on top of the system event queue once at startup; the cost is two nanoTime() calls
+// per event.
+public class EventDispatchMonitor extends EventQueue {
+    public static final long STALL_MILLIS = 50;
+    private static final long STALL_NANOS = STALL_MILLIS * 1_000_000;
+    private static final int RECENT_STALLS = 50;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private static EventDispatchMonitor installed;
+
+    private final ArrayDeque<String> recentStalls = new ArrayDeque<>();
+    private long stalls;
+    // The innermost event being dispatched, for FreezeWatchdog
+    private volatile AWTEvent current;
+
+    public static synchronized EventDispatchMonitor install() {
+        if (installed == null) {
+            installed = new EventDispatchMonitor();
+            Toolkit.getDefaultToolkit().getSystemEventQueue().push(installed);
+        }
+        return installed;
+    }
+
+    public AWTEvent getDispatchingEvent() {
+        return current;
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        if (event.getSource() instanceof FreezeWatchdog) {
+            // Heartbeats would only water down the histogram
+            super.dispatchEvent(event);
+            return;
+        }
+        AWTEvent outer = current;
+        current = event;
+        StallEvent stall = Metrics.isFlightRecorderUp() ? new StallEvent() : null;
+        if (stall != null) {
+            stall.begin();
+        }
+        long start = System.nanoTime();
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            current = outer;
+            long nanos = System.nanoTime() - start;
+            if (stall != null) {
+                stall.end();
+            }
+            Metrics.record(Metrics.Operation.EDT_DISPATCH, nanos, 0);
+            if (nanos >= STALL_NANOS) {
+                String description = describe(event);
+                addStall(nanos, description);
+                if (stall != null && stall.shouldCommit()) {
+                    stall.eventType = description;
+                    stall.commit();
+                }
+            }
+        }
+    }
+
+    // Runnables from invokeLater are named after their class, which usually points at the code that ran; input events
+    // after the button or key that caused them, which is how the user would name the operation
+    static String describe(AWTEvent event) {
+        if (event instanceof InvocationEvent) {
+            String text = event.paramString();
+            int runnable = text.indexOf("runnable=");
+            if (runnable >= 0) {
+                String name = text.substring(runnable + "runnable=".length());
+                int end = name.indexOf(',');
+                name = end >= 0 ? name.substring(0, end) : name;
+                int hash = name.lastIndexOf('@');
+                return "invocation " + (hash > 0 ? name.substring(0, hash) : name);
+            }
+        }
+        String kind = event.paramString();
+        int comma = kind.indexOf(',');
+        kind = comma >= 0 ? kind.substring(0, comma) : kind;
+        if (event instanceof KeyEvent) {
+            KeyEvent key = (KeyEvent) event;
+            String modifiers = InputEvent.getModifiersExText(key.getModifiersEx());
+            kind += " " + (modifiers.isEmpty() ? "" : modifiers + "+") + KeyEvent.getKeyText(key.getKeyCode());
+        }
+        Object source = event.getSource();
+        if (source == null) {
+            return kind;
+        }
+        String name = source.getClass().getSimpleName().isEmpty() ? source.getClass().getName() : source.getClass().getSimpleName();
+        if (source instanceof AbstractButton && ((AbstractButton) source).getText() != null) {
+            name += " '" + ((AbstractButton) source).getText() + "'";
+        }
+        return kind + " on " + name;
+    }
+
+    private synchronized void addStall(long nanos, String description) {
+        stalls++;
+        if (recentStalls.size() == RECENT_STALLS) {
+            recentStalls.removeFirst();
+        }
+        recentStalls.addLast(String.format("%s  %6.0f ms  %s", LocalTime.now().format(TIME), Metrics.millis(nanos), description));
+    }
+
+    public synchronized long getStallCount() {
+        return stalls;
+    }
+
+    // Newest first
+    public synchronized List<String> getRecentStalls() {
+        List<String> list = new ArrayList<>(recentStalls);
+        Collections.reverse(list);
+        return list;
+    }
+
+    public synchronized void reset() {
+        stalls = 0;
+        recentStalls.clear();
+    }
+
+    public String describeStalls() {
+        StringBuilder text = new StringBuilder();
+        text.append(System.lineSeparator()).append(getStallCount()).append(" event dispatches over ")
+                .append(STALL_MILLIS).append(" ms").append(System.lineSeparator());
+        for (String stall : getRecentStalls()) {
+            text.append("    ").append(stall).append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+
+    @Name("studystash.EdtStall")
+    @Label("StudyStash EDT Stall")
+    @Description("An event that kept the event dispatch thread busy for too long")
+    @Category("StudyStash")
+    @Threshold("50 ms")
+    @StackTrace(false)
+    public static class StallEvent extends Event {
+        @Label("Event")
+        String eventType;
+    }
+}
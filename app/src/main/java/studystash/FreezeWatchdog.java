@@ -0,0 +1,248 @@
+package studystash;
+
+import java.awt.*;
+import java.awt.event.InvocationEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Heartbeats the EDT from a daemon thread. A heartbeat is posted every HEARTBEAT_MILLIS; if it has not run after the
+// threshold, the EDT is frozen, and the watchdog captures its stack and the event being dispatched into a rolling freeze
+// log, again every RESAMPLE_MILLIS while the stack keeps changing, and once more when the EDT recovers. A modal dialog
+// keeps dispatching, heartbeats included, so waiting on one never counts. Freezes are also totalled by the studystash
+// frame the EDT was stuck in, so the worst blocking paths can be ranked under Help > Diagnostics.
+public class FreezeWatchdog {
+    public static final long FREEZE_MILLIS = 250;
+    private static final long HEARTBEAT_MILLIS = 100;
+    private static final long RESAMPLE_MILLIS = 1000;
+    private static final long MAX_LOG_BYTES = 1024 * 1024;
+    private static final int MAX_LOGGED_FRAMES = 40;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static FreezeWatchdog installed;
+
+    private final EventDispatchMonitor monitor;
+    private final File logFile;
+    private final long freezeNanos;
+    private final Map<String, BlockingPath> paths = new HashMap<>();
+    // When the outstanding heartbeat was posted, 0 once it has run
+    private volatile long heartbeatPosted;
+    private volatile long heartbeatLatency;
+    private volatile Thread eventThread;
+
+    // The freeze in progress, touched by the watchdog thread only
+    private long freezeStart;
+    private long lastSample;
+    private String lastBlockedIn;
+    private String operation;
+
+    private FreezeWatchdog(EventDispatchMonitor monitor, File logFile, long freezeMillis) {
+        this.monitor = monitor;
+        this.logFile = logFile;
+        this.freezeNanos = freezeMillis * 1_000_000;
+    }
+
+    public static synchronized FreezeWatchdog install(EventDispatchMonitor monitor, File logFile) {
+        if (installed == null) {
+            installed = new FreezeWatchdog(monitor, logFile, FREEZE_MILLIS);
+            Thread thread = new Thread(installed::watch, "edt-watchdog");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return installed;
+    }
+
+    public File getLogFile() {
+        return logFile;
+    }
+
+    private void watch() {
+        while (true) {
+            try {
+                Thread.sleep(HEARTBEAT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long posted = heartbeatPosted;
+            long now = System.nanoTime();
+            if (posted == 0) {
+                if (freezeStart != 0) {
+                    endFreeze(heartbeatLatency);
+                }
+                heartbeatPosted = now;
+                Toolkit.getDefaultToolkit().getSystemEventQueue().postEvent(new InvocationEvent(this, this::beat));
+            } else if (now - posted >= freezeNanos) {
+                Thread thread = eventThread;
+                if (thread == null) {
+                    // Frozen before the first heartbeat ever ran; nothing to sample yet
+                    continue;
+                }
+                if (freezeStart == 0) {
+                    startFreeze(posted, now, thread);
+                } else if (now - lastSample >= RESAMPLE_MILLIS * 1_000_000) {
+                    resample(now, thread);
+                }
+            }
+        }
+    }
+
+    // Runs on the EDT
+    private void beat() {
+        eventThread = Thread.currentThread();
+        heartbeatLatency = System.nanoTime() - heartbeatPosted;
+        heartbeatPosted = 0;
+    }
+
+    private void startFreeze(long posted, long now, Thread thread) {
+        freezeStart = posted;
+        lastSample = now;
+        StackTraceElement[] stack = thread.getStackTrace();
+        AWTEvent event = monitor.getDispatchingEvent();
+        operation = event == null ? "no event (EDT busy outside dispatch)" : EventDispatchMonitor.describe(event);
+        lastBlockedIn = blockedIn(stack);
+        StringBuilder entry = new StringBuilder();
+        entry.append(LocalDateTime.now().format(TIME)).append("  EDT frozen for ").append((now - posted) / 1_000_000)
+                .append(" ms in ").append(operation).append(System.lineSeparator());
+        appendStack(entry, stack);
+        log(entry);
+    }
+
+    // Logs the stack again only when the EDT has moved on to a different place
+    private void resample(long now, Thread thread) {
+        lastSample = now;
+        StackTraceElement[] stack = thread.getStackTrace();
+        String blockedIn = blockedIn(stack);
+        StringBuilder entry = new StringBuilder();
+        entry.append("  still frozen after ").append((now - freezeStart) / 1_000_000).append(" ms");
+        if (blockedIn.equals(lastBlockedIn)) {
+            entry.append(", same place").append(System.lineSeparator());
+        } else {
+            entry.append(System.lineSeparator());
+            appendStack(entry, stack);
+            lastBlockedIn = blockedIn;
+        }
+        log(entry);
+    }
+
+    private void endFreeze(long nanos) {
+        log(new StringBuilder().append(LocalDateTime.now().format(TIME)).append("  EDT recovered after ")
+                .append(nanos / 1_000_000).append(" ms").append(System.lineSeparator()).append(System.lineSeparator()));
+        Metrics.record(Metrics.Operation.UI_FREEZE, nanos, 0);
+        synchronized (this) {
+            paths.computeIfAbsent(lastBlockedIn, BlockingPath::new).add(nanos, operation);
+        }
+        freezeStart = 0;
+    }
+
+    // The innermost StudyStash frame, which is where a fix would go; the top frame if there is none
+    private static String blockedIn(StackTraceElement[] stack) {
+        for (StackTraceElement frame : stack) {
+            String className = frame.getClassName();
+            if (className.startsWith("studystash.") && !className.startsWith(EventDispatchMonitor.class.getName())) {
+                return frame.toString();
+            }
+        }
+        return stack.length > 0 ? stack[0].toString() : "unknown";
+    }
+
+    private static void appendStack(StringBuilder entry, StackTraceElement[] stack) {
+        entry.append("  blocked in ").append(blockedIn(stack)).append(System.lineSeparator());
+        for (int i = 0; i < stack.length && i < MAX_LOGGED_FRAMES; i++) {
+            entry.append("    at ").append(stack[i]).append(System.lineSeparator());
+        }
+        if (stack.length > MAX_LOGGED_FRAMES) {
+            entry.append("    ... ").append(stack.length - MAX_LOGGED_FRAMES).append(" more").append(System.lineSeparator());
+        }
+    }
+
+    // Appends to the log, which rolls over to a single .1 file once it reaches MAX_LOG_BYTES
+    private void log(CharSequence entry) {
+        try {
+            if (logFile.length() >= MAX_LOG_BYTES) {
+                File old = new File(logFile.getPath() + ".1");
+                Files.move(logFile.toPath(), old.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.writeString(logFile.toPath(), entry, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Worst first: the most time frozen in total
+    public synchronized List<BlockingPath> getBlockingPaths() {
+        List<BlockingPath> list = new ArrayList<>();
+        for (BlockingPath path : paths.values()) {
+            list.add(path.copy());
+        }
+        list.sort((a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+        return list;
+    }
+
+    public synchronized void reset() {
+        paths.clear();
+    }
+
+    // Every freeze that was stuck in the same frame
+    public static class BlockingPath {
+        private final String frame;
+        private int count;
+        private long totalNanos;
+        private long maxNanos;
+        private String lastOperation;
+
+        BlockingPath(String frame) {
+            this.frame = frame;
+        }
+
+        void add(long nanos, String operation) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            lastOperation = operation;
+        }
+
+        BlockingPath copy() {
+            BlockingPath copy = new BlockingPath(frame);
+            copy.count = count;
+            copy.totalNanos = totalNanos;
+            copy.maxNanos = maxNanos;
+            copy.lastOperation = lastOperation;
+            return copy;
+        }
+
+        public String getFrame() {
+            return frame;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public String getLastOperation() {
+            return lastOperation;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d x, %.0f ms total, %.0f ms max  %s  (%s)", count, Metrics.millis(totalNanos),
+                    Metrics.millis(maxNanos), frame, lastOperation);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package studystash;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+import java.awt.*;
+
+// Large file view: unlike PlainView it never walks the whole document to find the longest line.
+// Only the lines in the clip plus a few lines of overscan are measured and painted, using the
+// document's line elements to go from a y coordinate to an offset, so the cost of a scroll does not depend on the line count.
+public class LineWindowView extends View implements TabExpander {
+    private static final int OVERSCAN_LINES = 8;
+
+    private final Segment segment = new Segment();
+    private Font font;
+    private FontMetrics metrics;
+    private int lineHeight = 1;
+    private int tabSize;
+    private int tabBase;
+    // Widest line measured so far; it only grows as more of the document is scrolled into view
+    private int widestLine;
+
+    public LineWindowView(Element elem) {
+        super(elem);
+    }
+
+    private void updateMetrics() {
+        Component host = getContainer();
+        Font f = host.getFont();
+        if (font != f) {
+            font = f;
+            metrics = host.getFontMetrics(f);
+            lineHeight = Math.max(1, metrics.getHeight());
+            Object size = getDocument().getProperty(PlainDocument.tabSizeAttribute);
+            tabSize = (size instanceof Integer ? (Integer) size : 8) * metrics.charWidth('m');
+            widestLine = 0;
+        }
+    }
+
+    private int lineCount() {
+        return getElement().getElementCount();
+    }
+
+    private void loadLine(Element line) throws BadLocationException {
+        int start = line.getStartOffset();
+        int end = Math.min(line.getEndOffset(), getDocument().getLength() + 1) - 1;
+        getDocument().getText(start, Math.max(0, end - start), segment);
+    }
+
+    @Override
+    public float getPreferredSpan(int axis) {
+        updateMetrics();
+        if (axis == X_AXIS) {
+            return widestLine + metrics.charWidth('m');
+        }
+        return (float) lineCount() * lineHeight;
+    }
+
+    @Override
+    public void paint(Graphics g, Shape a) {
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = alloc;
+        }
+        tabBase = alloc.x;
+        JTextComponent host = (JTextComponent) getContainer();
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setFont(font);
+        g2.setColor(host.isEnabled() ? host.getForeground() : host.getDisabledTextColor());
+
+        Element map = getElement();
+        int count = lineCount();
+        int first = Math.max(0, (clip.y - alloc.y) / lineHeight - OVERSCAN_LINES);
+        int last = Math.min(count - 1, (clip.y + clip.height - alloc.y) / lineHeight + OVERSCAN_LINES);
+        int widest = widestLine;
+        int y = alloc.y + first * lineHeight + metrics.getAscent();
+        for (int i = first; i <= last; i++) {
+            Element line = map.getElement(i);
+            try {
+                loadLine(line);
+                float end = Utilities.drawTabbedText(segment, (float) alloc.x, (float) y, g2, this, line.getStartOffset());
+                widest = Math.max(widest, (int) Math.ceil(end) - alloc.x);
+            } catch (BadLocationException e) {
+                break;
+            }
+            y += lineHeight;
+        }
+        if (widest > widestLine) {
+            widestLine = widest;
+            preferenceChanged(null, true, false);
+        }
+    }
+
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        updateMetrics();
+        Document doc = getDocument();
+        if (pos < 0 || pos > doc.getLength()) {
+            throw new BadLocationException("Invalid position", pos);
+        }
+        Rectangle alloc = a.getBounds();
+        tabBase = alloc.x;
+        Element map = getElement();
+        int lineIndex = map.getElementIndex(pos);
+        Element line = map.getElement(lineIndex);
+        int start = line.getStartOffset();
+        doc.getText(start, pos - start, segment);
+        int x = alloc.x + (int) Utilities.getTabbedTextWidth(segment, metrics, (float) alloc.x, this, start);
+        return new Rectangle(x, alloc.y + lineIndex * lineHeight, 1, lineHeight);
+    }
+
+    @Override
+    public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+        updateMetrics();
+        bias[0] = Position.Bias.Forward;
+        Rectangle alloc = a.getBounds();
+        tabBase = alloc.x;
+        Element map = getElement();
+        if (fy < alloc.y) {
+            return getStartOffset();
+        }
+        int lineIndex = (int) ((fy - alloc.y) / lineHeight);
+        if (lineIndex >= lineCount()) {
+            return getDocument().getLength();
+        }
+        Element line = map.getElement(lineIndex);
+        int start = line.getStartOffset();
+        if (fx < alloc.x) {
+            return start;
+        }
+        try {
+            loadLine(line);
+        } catch (BadLocationException e) {
+            return start;
+        }
+        int offset = Utilities.getTabbedTextOffset(segment, metrics, (float) alloc.x, fx, this, start, true);
+        return Math.min(start + offset, Math.max(start, line.getEndOffset() - 1));
+    }
+
+    public float nextTabStop(float x, int tabOffset) {
+        if (tabSize == 0) {
+            return x;
+        }
+        int tabs = (int) ((x - tabBase) / tabSize);
+        return tabBase + (tabs + 1) * tabSize;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        updateDamage(e, a);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        updateDamage(e, a);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        updateDamage(e, a);
+    }
+
+    private void updateDamage(DocumentEvent e, Shape a) {
+        Component host = getContainer();
+        if (host == null) {
+            return;
+        }
+        if (e.getChange(getElement()) != null) {
+            // Lines were added or removed: only the vertical extent changes, widths are measured lazily on paint
+            preferenceChanged(null, false, true);
+            host.repaint();
+        } else if (a != null) {
+            updateMetrics();
+            Rectangle alloc = a.getBounds();
+            int lineIndex = getElement().getElementIndex(e.getOffset());
+            host.repaint(alloc.x, alloc.y + lineIndex * lineHeight, alloc.width, lineHeight);
+        }
+    }
+
+    // Text area UI that renders the whole document with a single LineWindowView
+    public static class TextAreaUI extends BasicTextAreaUI {
+        @Override
+        public View create(Element elem) {
+            return new LineWindowView(elem);
+        }
+    }
+}
@@ -0,0 +1,635 @@
+package studystash;
+
+import javax.swing.text.Segment;
+import java.util.Arrays;
+import java.util.Locale;
+
+// Line-at-a-time lexer for Markdown notes with fenced code blocks. Everything a line needs from the lines above it
+// fits in the int state lexLine() takes and returns: whether a fence is open, its char, length and language, and
+// whether a block comment or triple-quoted string runs on. So a line can be lexed again on its own, and re-lexing
+// after an edit can stop as soon as a line ends in the same state as before. Inline Markdown (emphasis, code spans,
+// links) does not carry over line breaks.
+// Tokens are packed one int each, start within the line << TYPE_BITS | type, and a token runs to the next one.
+// Not thread-safe: one lexer per thread.
+public class MarkdownLexer {
+    public static final int PLAIN = 0;
+    public static final int HEADING = 1;
+    public static final int EMPHASIS = 2;
+    public static final int STRONG = 3;
+    public static final int CODE = 4;
+    public static final int FENCE = 5;
+    public static final int LINK = 6;
+    public static final int QUOTE = 7;
+    public static final int MARKUP = 8;
+    public static final int KEYWORD = 9;
+    public static final int STRING = 10;
+    public static final int COMMENT = 11;
+    public static final int NUMBER = 12;
+    public static final int TYPE_BITS = 4;
+    public static final int TYPE_MASK = (1 << TYPE_BITS) - 1;
+    public static final int[] NO_TOKENS = new int[0];
+
+    // The state of a line outside any fence is 0
+    private static final int IN_FENCE = 1;
+    private static final int TILDE_FENCE = 1 << 1;
+    private static final int FENCE_LENGTH_SHIFT = 2;
+    private static final int FENCE_LENGTH_MASK = 0x1f;
+    private static final int LANGUAGE_SHIFT = 7;
+    private static final int LANGUAGE_MASK = 0x3f;
+    private static final int OPEN_SHIFT = 13;
+    private static final int OPEN_MASK = 0x3;
+    private static final int OPEN_COMMENT = 1;
+    private static final int OPEN_TRIPLE_DOUBLE = 2;
+    private static final int OPEN_TRIPLE_SINGLE = 3;
+    // Tokens past this column are not tracked; the rest of such a line keeps the type it had there
+    private static final int MAX_TOKEN_START = (1 << (31 - TYPE_BITS)) - 1;
+
+    private int[] tokens = new int[32];
+    private int tokenCount;
+    private char[] text;
+    private int offset;
+    private int length;
+
+    // Lexes one line, without its '\n', that starts in the given state. Returns the state the next line starts in;
+    // getTokens() then has the line's tokens.
+    public int lexLine(Segment line, int state) {
+        text = line.array;
+        offset = line.offset;
+        length = line.count;
+        tokenCount = 0;
+        if ((state & IN_FENCE) != 0) {
+            return lexFenced(state);
+        }
+        return lexMarkdown();
+    }
+
+    // A copy of the tokens of the last line, shared and empty for a line that is plain throughout
+    public int[] getTokens() {
+        if (tokenCount == 0 || tokenCount == 1 && tokens[0] == PLAIN) {
+            return NO_TOKENS;
+        }
+        return Arrays.copyOf(tokens, tokenCount);
+    }
+
+    private char charAt(int i) {
+        return text[offset + i];
+    }
+
+    private void token(int start, int type) {
+        if (start >= length || start > MAX_TOKEN_START) {
+            return;
+        }
+        if (tokenCount > 0) {
+            int last = tokens[tokenCount - 1];
+            if ((last & TYPE_MASK) == type) {
+                return;
+            }
+            if (last >>> TYPE_BITS == start) {
+                // An empty token: the new one takes its place
+                tokenCount--;
+                if (tokenCount > 0 && (tokens[tokenCount - 1] & TYPE_MASK) == type) {
+                    return;
+                }
+            }
+        }
+        if (tokenCount == tokens.length) {
+            tokens = Arrays.copyOf(tokens, tokenCount * 2);
+        }
+        tokens[tokenCount++] = start << TYPE_BITS | type;
+    }
+
+    private int indent() {
+        int i = 0;
+        while (i < length && i < 3 && charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private int run(int i, char c) {
+        int end = i;
+        while (end < length && charAt(end) == c) {
+            end++;
+        }
+        return end - i;
+    }
+
+    private boolean blankFrom(int i) {
+        for (; i < length; i++) {
+            if (!Character.isWhitespace(charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int lexMarkdown() {
+        int i = indent();
+        if (i == length) {
+            return 0;
+        }
+        char c = charAt(i);
+        if (c == '`' || c == '~') {
+            int fence = run(i, c);
+            if (fence >= 3 && (c == '~' || infoHasNoBacktick(i + fence))) {
+                token(0, FENCE);
+                return IN_FENCE | (c == '~' ? TILDE_FENCE : 0)
+                        | Math.min(fence, FENCE_LENGTH_MASK) << FENCE_LENGTH_SHIFT
+                        | Language.lookup(text, offset + i + fence, length - i - fence) << LANGUAGE_SHIFT;
+            }
+        }
+        if (c == '#') {
+            int level = run(i, '#');
+            if (level <= 6 && (i + level == length || charAt(i + level) == ' ' || charAt(i + level) == '\t')) {
+                token(0, HEADING);
+                return 0;
+            }
+        }
+        if (c == '>') {
+            token(0, QUOTE);
+            return 0;
+        }
+        if ((c == '-' || c == '*' || c == '_') && isRule(i, c)) {
+            token(0, MARKUP);
+            return 0;
+        }
+        int marker = listMarker(i);
+        if (marker > i) {
+            token(i, MARKUP);
+            token(marker, PLAIN);
+            i = marker;
+        }
+        lexInline(i);
+        return 0;
+    }
+
+    private boolean infoHasNoBacktick(int i) {
+        for (; i < length; i++) {
+            if (charAt(i) == '`') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ---, *** or ___, with spaces allowed between
+    private boolean isRule(int i, char c) {
+        int count = 0;
+        for (; i < length; i++) {
+            char d = charAt(i);
+            if (d == c) {
+                count++;
+            } else if (d != ' ' && d != '\t') {
+                return false;
+            }
+        }
+        return count >= 3;
+    }
+
+    // The end of a "- ", "* ", "+ " or "12. " list marker, or i if there is none
+    private int listMarker(int i) {
+        char c = charAt(i);
+        int end = i;
+        if (c == '-' || c == '*' || c == '+') {
+            end = i + 1;
+        } else if (c >= '0' && c <= '9') {
+            while (end < length && end - i < 9 && charAt(end) >= '0' && charAt(end) <= '9') {
+                end++;
+            }
+            if (end == length || charAt(end) != '.' && charAt(end) != ')') {
+                return i;
+            }
+            end++;
+        } else {
+            return i;
+        }
+        if (end < length && charAt(end) != ' ' && charAt(end) != '\t') {
+            return i;
+        }
+        return end;
+    }
+
+    private void lexInline(int i) {
+        while (i < length) {
+            char c = charAt(i);
+            int end = -1;
+            int type = PLAIN;
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '`') {
+                end = codeSpan(i);
+                type = CODE;
+            } else if (c == '*' || c == '_') {
+                end = emphasis(i, c);
+                type = end >= 0 && run(i, c) >= 2 ? STRONG : EMPHASIS;
+            } else if (c == '[' || c == '!' && i + 1 < length && charAt(i + 1) == '[') {
+                end = link(c == '!' ? i + 1 : i);
+                type = LINK;
+            } else if (c == '<' || c == 'h') {
+                end = autolink(i);
+                type = LINK;
+            }
+            if (end < 0) {
+                // Skip the whole run, so the middle of "***" never opens emphasis of its own
+                i += c == '`' || c == '*' || c == '_' ? run(i, c) : 1;
+                continue;
+            }
+            token(i, type);
+            token(end, PLAIN);
+            i = end;
+        }
+    }
+
+    // `code` or ``co`de``: the closing run must be just as long
+    private int codeSpan(int i) {
+        int open = run(i, '`');
+        int j = i + open;
+        while (j < length) {
+            if (charAt(j) == '`') {
+                int close = run(j, '`');
+                if (close == open) {
+                    return j + close;
+                }
+                j += close;
+            } else {
+                j++;
+            }
+        }
+        return -1;
+    }
+
+    // *em*, **strong**, _em_ or __strong__ within the line; underscores only count at word boundaries, so
+    // snake_case_names stay plain
+    private int emphasis(int i, char c) {
+        int open = Math.min(run(i, c), 3);
+        int start = i + open;
+        if (start >= length || Character.isWhitespace(charAt(start))) {
+            return -1;
+        }
+        if (c == '_' && i > 0 && Character.isLetterOrDigit(charAt(i - 1))) {
+            return -1;
+        }
+        for (int j = start + 1; j < length; j++) {
+            char d = charAt(j);
+            if (d == '\\') {
+                j++;
+            } else if (d == '`') {
+                int code = codeSpan(j);
+                if (code > 0) {
+                    j = code - 1;
+                }
+            } else if (d == c && !Character.isWhitespace(charAt(j - 1))) {
+                int close = run(j, c);
+                int end = j + close;
+                if (close >= open && (c != '_' || end == length || !Character.isLetterOrDigit(charAt(end)))) {
+                    return j + open;
+                }
+                j = end - 1;
+            }
+        }
+        return -1;
+    }
+
+    // [text](target) or [text][ref], from the '['
+    private int link(int i) {
+        int depth = 0;
+        int j = i;
+        for (; j < length; j++) {
+            char d = charAt(j);
+            if (d == '\\') {
+                j++;
+            } else if (d == '[') {
+                depth++;
+            } else if (d == ']' && --depth == 0) {
+                break;
+            }
+        }
+        if (j + 1 >= length) {
+            return -1;
+        }
+        char close = charAt(j + 1) == '(' ? ')' : charAt(j + 1) == '[' ? ']' : 0;
+        if (close == 0) {
+            return -1;
+        }
+        for (int k = j + 2; k < length; k++) {
+            if (charAt(k) == close) {
+                return k + 1;
+            }
+        }
+        return -1;
+    }
+
+    // <https://...> or a bare http:// or https:// address up to the next whitespace
+    private int autolink(int i) {
+        int start = charAt(i) == '<' ? i + 1 : i;
+        if (start > i && start < length && charAt(start) != 'h') {
+            return -1;
+        }
+        if (start == i && i > 0 && Character.isLetterOrDigit(charAt(i - 1))) {
+            return -1;
+        }
+        int scheme = startsWith(start, "https://") ? 8 : startsWith(start, "http://") ? 7 : 0;
+        if (scheme == 0) {
+            return -1;
+        }
+        int j = start + scheme;
+        while (j < length && !Character.isWhitespace(charAt(j)) && charAt(j) != '>') {
+            j++;
+        }
+        if (start > i) {
+            return j < length && charAt(j) == '>' ? j + 1 : -1;
+        }
+        // Trailing punctuation belongs to the sentence
+        while (j > start + scheme && ".,;:!?)".indexOf(charAt(j - 1)) >= 0) {
+            j--;
+        }
+        return j;
+    }
+
+    private boolean startsWith(int i, String prefix) {
+        if (i + prefix.length() > length) {
+            return false;
+        }
+        for (int k = 0; k < prefix.length(); k++) {
+            if (charAt(i + k) != prefix.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int lexFenced(int state) {
+        char fenceChar = (state & TILDE_FENCE) != 0 ? '~' : '`';
+        int i = indent();
+        if (i < length && charAt(i) == fenceChar) {
+            int fence = run(i, fenceChar);
+            if (fence >= 3 && fence >= (state >>> FENCE_LENGTH_SHIFT & FENCE_LENGTH_MASK) && blankFrom(i + fence)) {
+                token(0, FENCE);
+                return 0;
+            }
+        }
+        Language language = Language.get(state >>> LANGUAGE_SHIFT & LANGUAGE_MASK);
+        int open = state >>> OPEN_SHIFT & OPEN_MASK;
+        open = lexCode(language, open);
+        return state & ~(OPEN_MASK << OPEN_SHIFT) | open << OPEN_SHIFT;
+    }
+
+    // Returns what is left open at the end of the line: a block comment, a triple-quoted string or nothing
+    private int lexCode(Language language, int open) {
+        token(0, CODE);
+        if (language == null) {
+            return 0;
+        }
+        int i = 0;
+        while (i < length) {
+            if (open == OPEN_COMMENT) {
+                int end = indexOf(language.blockEnd, i);
+                token(i, COMMENT);
+                if (end < 0) {
+                    return open;
+                }
+                i = end + language.blockEnd.length();
+                open = 0;
+                token(i, CODE);
+                continue;
+            }
+            if (open != 0) {
+                int end = indexOf(open == OPEN_TRIPLE_DOUBLE ? "\"\"\"" : "'''", i);
+                token(i, STRING);
+                if (end < 0) {
+                    return open;
+                }
+                i = end + 3;
+                open = 0;
+                token(i, CODE);
+                continue;
+            }
+            char c = charAt(i);
+            if (language.startsLineComment(this, i)) {
+                token(i, COMMENT);
+                return 0;
+            }
+            if (language.blockStart != null && startsWith(i, language.blockStart)) {
+                open = OPEN_COMMENT;
+                i += language.blockStart.length();
+                // blockEnd is searched from here, so "/*/" does not close itself
+                token(i - language.blockStart.length(), COMMENT);
+                continue;
+            }
+            if (language.tripleQuotes && (startsWith(i, "\"\"\"") || startsWith(i, "'''"))) {
+                open = c == '"' ? OPEN_TRIPLE_DOUBLE : OPEN_TRIPLE_SINGLE;
+                token(i, STRING);
+                i += 3;
+                continue;
+            }
+            if (language.quotes.indexOf(c) >= 0) {
+                int end = i + 1;
+                while (end < length && charAt(end) != c) {
+                    end += charAt(end) == '\\' && language.escapes ? 2 : 1;
+                }
+                end = Math.min(end + 1, length);
+                token(i, STRING);
+                token(end, CODE);
+                i = end;
+                continue;
+            }
+            if (c >= '0' && c <= '9') {
+                int end = i + 1;
+                while (end < length && (Character.isLetterOrDigit(charAt(end)) || charAt(end) == '.' || charAt(end) == '_')) {
+                    end++;
+                }
+                token(i, NUMBER);
+                token(end, CODE);
+                i = end;
+                continue;
+            }
+            if (Character.isLetter(c) || c == '_' || c == '$') {
+                int end = i + 1;
+                while (end < length && (Character.isLetterOrDigit(charAt(end)) || charAt(end) == '_' || charAt(end) == '$')) {
+                    end++;
+                }
+                if (language.isKeyword(text, offset + i, end - i)) {
+                    token(i, KEYWORD);
+                    token(end, CODE);
+                }
+                i = end;
+                continue;
+            }
+            i++;
+        }
+        return open;
+    }
+
+    private int indexOf(String s, int from) {
+        for (int i = from; i + s.length() <= length; i++) {
+            if (startsWith(i, s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // The languages a fence can name. Keywords are looked up straight from the text, without making a String per word.
+    private static final class Language {
+        private static final Language[] LANGUAGES = {
+                null,
+                new Language("java", "//", "/*", "*/", "\"'", false,
+                        "abstract assert boolean break byte case catch char class const continue default do double else enum extends final finally float for if implements import instanceof int interface long native new null package private protected public record return short static super switch synchronized this throw throws transient true false try var void volatile while yield",
+                        "java"),
+                new Language("c", "//", "/*", "*/", "\"'", false,
+                        "auto bool break case catch char class const constexpr continue default delete do double else enum explicit extern false float for friend goto if inline int long namespace new nullptr operator private protected public register return short signed sizeof static struct switch template this throw true try typedef typename union unsigned using virtual void volatile while",
+                        "c", "h", "cpp", "c++", "cc", "hpp", "cxx", "objc", "objective-c"),
+                new Language("csharp", "//", "/*", "*/", "\"'", false,
+                        "abstract as async await base bool break byte case catch char class const continue decimal default delegate do double else enum event false finally float for foreach get if in int interface internal is let long namespace new null object out override params private protected public readonly ref return sealed set short static string struct switch this throw true try using var virtual void while yield",
+                        "csharp", "cs", "c#"),
+                new Language("javascript", "//", "/*", "*/", "\"'`", false,
+                        "async await break case catch class const continue debugger default delete do else export extends false finally for from function if import in instanceof interface let new null of return static super switch this throw true try type typeof undefined var void while yield",
+                        "javascript", "js", "jsx", "mjs", "typescript", "ts", "tsx", "json", "jsonc"),
+                new Language("go", "//", "/*", "*/", "\"'`", false,
+                        "break case chan const continue default defer else fallthrough false for func go goto if import interface map nil package range return select struct switch true type var",
+                        "go", "golang"),
+                new Language("rust", "//", "/*", "*/", "\"", false,
+                        "as async await break const continue crate dyn else enum extern false fn for if impl in let loop match mod move mut pub ref return self Self static struct super trait true type unsafe use where while",
+                        "rust", "rs"),
+                new Language("kotlin", "//", "/*", "*/", "\"'", false,
+                        "as break class continue do else false for fun if in interface is null object package return super this throw true try typealias val var when while override open data sealed companion import private public internal protected",
+                        "kotlin", "kt", "kts", "scala"),
+                new Language("swift", "//", "/*", "*/", "\"", false,
+                        "as break case catch class continue default defer do else enum extension false for func guard if import in init let nil protocol return self struct switch throw throws true try var where while",
+                        "swift"),
+                new Language("python", "#", null, null, "\"'", true,
+                        "False None True and as assert async await break class continue def del elif else except finally for from global if import in is lambda nonlocal not or pass raise return try while with yield self",
+                        "python", "py", "python3"),
+                new Language("ruby", "#", null, null, "\"'", false,
+                        "BEGIN END alias and begin break case class def defined do else elsif end ensure false for if in module next nil not or redo rescue retry return self super then true undef unless until when while yield",
+                        "ruby", "rb"),
+                new Language("shell", "#", null, null, "\"'", false,
+                        "case do done elif else esac export fi for function if in local return then until while echo cd exit set unset source",
+                        "shell", "sh", "bash", "zsh", "console", "shell-session"),
+                new Language("sql", "--", "/*", "*/", "'\"", false,
+                        "add all alter and as asc between by case create delete desc distinct drop else end exists from group having in index inner insert into is join key left like limit not null on or order outer primary references right select set table then union update values view when where with",
+                        "sql", "mysql", "postgresql", "sqlite"),
+                new Language("yaml", "#", null, null, "\"'", false,
+                        "true false null yes no on off",
+                        "yaml", "yml", "toml", "ini"),
+                new Language("html", null, "<!--", "-->", "\"'", false,
+                        "",
+                        "html", "xml", "svg", "xhtml"),
+                new Language("haskell", "--", "{-", "-}", "\"", false,
+                        "case class data deriving do else if import in infix instance let module newtype of then type where",
+                        "haskell", "hs"),
+                new Language("latex", "%", null, null, "", false,
+                        "",
+                        "latex", "tex"),
+        };
+
+        final String lineComment;
+        final String blockStart;
+        final String blockEnd;
+        final String quotes;
+        final boolean tripleQuotes;
+        final boolean escapes;
+        final boolean ignoreCase;
+        private final char[][] keywords;
+        private final int mask;
+        private final String[] names;
+
+        private Language(String name, String lineComment, String blockStart, String blockEnd, String quotes,
+                         boolean tripleQuotes, String keywordList, String... names) {
+            this.lineComment = lineComment;
+            this.blockStart = blockStart;
+            this.blockEnd = blockEnd;
+            this.quotes = quotes;
+            this.tripleQuotes = tripleQuotes;
+            this.escapes = !name.equals("sql");
+            this.ignoreCase = name.equals("sql");
+            this.names = names;
+            String[] words = keywordList.isEmpty() ? new String[0] : keywordList.split(" ");
+            int size = Integer.highestOneBit(Math.max(words.length, 1) * 4);
+            keywords = new char[size][];
+            mask = size - 1;
+            for (String word : words) {
+                char[] chars = word.toCharArray();
+                int slot = hash(chars, 0, chars.length) & mask;
+                while (keywords[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keywords[slot] = chars;
+            }
+        }
+
+        static Language get(int index) {
+            return index < LANGUAGES.length ? LANGUAGES[index] : null;
+        }
+
+        // The language named by a fence's info string, e.g. "```java title=Main.java"; 0 if it is unknown
+        static int lookup(char[] text, int start, int count) {
+            int i = start;
+            int end = start + count;
+            while (i < end && Character.isWhitespace(text[i])) {
+                i++;
+            }
+            if (i < end && text[i] == '{') {
+                // {.python} attribute style
+                i++;
+                if (i < end && text[i] == '.') {
+                    i++;
+                }
+            }
+            int wordEnd = i;
+            while (wordEnd < end && !Character.isWhitespace(text[wordEnd]) && text[wordEnd] != '}' && text[wordEnd] != ',') {
+                wordEnd++;
+            }
+            if (wordEnd == i) {
+                return 0;
+            }
+            String word = new String(text, i, wordEnd - i).toLowerCase(Locale.ROOT);
+            for (int index = 1; index < LANGUAGES.length; index++) {
+                for (String name : LANGUAGES[index].names) {
+                    if (name.equals(word)) {
+                        return index;
+                    }
+                }
+            }
+            return 0;
+        }
+
+        private int hash(char[] chars, int start, int count) {
+            int h = 0;
+            for (int i = start; i < start + count; i++) {
+                char c = chars[i];
+                h = 31 * h + (ignoreCase ? Character.toLowerCase(c) : c);
+            }
+            return h ^ h >>> 16;
+        }
+
+        boolean isKeyword(char[] chars, int start, int count) {
+            int slot = hash(chars, start, count) & mask;
+            for (char[] keyword; (keyword = keywords[slot]) != null; slot = (slot + 1) & mask) {
+                if (keyword.length == count && matches(keyword, chars, start)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean matches(char[] keyword, char[] chars, int start) {
+            for (int k = 0; k < keyword.length; k++) {
+                char c = chars[start + k];
+                if ((ignoreCase ? Character.toLowerCase(c) : c) != keyword[k]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean startsLineComment(MarkdownLexer lexer, int i) {
+            if (lineComment == null || !lexer.startsWith(i, lineComment)) {
+                return false;
+            }
+            // "#" starts a comment only at the start of a word in shell and the like, not in ${#x} or a#b
+            return lineComment.charAt(0) != '#' || i == 0 || Character.isWhitespace(lexer.charAt(i - 1));
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package studystash;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+// Saved Notes window. One JList over the catalog with a fixed cell size, so only the visible rows are ever
+// rendered or measured and opening it costs the same with ten notes or a hundred thousand. The window is kept and
+// reused; refresh() re-reads the catalog. Selecting a note shows a preview and prefetches its neighbours.
+public class NoteBrowser extends JFrame {
+    private static final String[] SORT_ORDERS = {"Recently opened", "Largest first", "Name", "Date added"};
+    private static final int PREFETCH_NEIGHBOURS = 2;
+
+    private final NoteCatalog catalog;
+    private final NotePreviewCache previewCache;
+    private final JTextArea previewArea = new JTextArea();
+    private final NoteListModel model = new NoteListModel();
+    private final JList<NoteCatalog.Entry> list = new JList<>(model);
+    private final JTextField filterField = new JTextField();
+    private final JComboBox<String> sortBox = new JComboBox<>(SORT_ORDERS);
+    private final JLabel countLabel = new JLabel(" ");
+    private final Timer filterTimer;
+    private List<NoteCatalog.Entry> allEntries = new ArrayList<>();
+
+    public NoteBrowser(NoteCatalog catalog, NotePreviewCache previewCache, Consumer<String> onOpen, Consumer<List<String>> onDelete) {
+        super("Saved Notes");
+        this.catalog = catalog;
+        this.previewCache = previewCache;
+
+        list.setCellRenderer(new EntryRenderer());
+        list.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        // With a prototype the list never has to render every row to find the row size
+        list.setPrototypeCellValue(new NoteCatalog.Entry(File.separator + "notes" + File.separator + "a-fairly-long-note-name.txt", 999_999_999L, 0, 0, 0));
+        ToolTipManager.sharedInstance().registerComponent(list);
+        list.addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                showPreview();
+            }
+        });
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                NoteCatalog.Entry entry = list.getSelectedValue();
+                if (e.getClickCount() == 2 && entry != null) {
+                    onOpen.accept(entry.getPath());
+                }
+            }
+        });
+        list.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "openNote");
+        list.getActionMap().put("openNote", new AbstractAction() {
+            public void actionPerformed(java.awt.event.ActionEvent e) {
+                NoteCatalog.Entry entry = list.getSelectedValue();
+                if (entry != null) {
+                    onOpen.accept(entry.getPath());
+                }
+            }
+        });
+        Action delete = new AbstractAction("Delete") {
+            public void actionPerformed(java.awt.event.ActionEvent e) {
+                List<String> paths = new ArrayList<>();
+                for (NoteCatalog.Entry entry : list.getSelectedValuesList()) {
+                    paths.add(entry.getPath());
+                }
+                if (!paths.isEmpty()) {
+                    onDelete.accept(paths);
+                }
+            }
+        };
+        list.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0), "deleteNotes");
+        list.getActionMap().put("deleteNotes", delete);
+
+        // Filtering runs shortly after the last keystroke rather than on every one
+        filterTimer = new Timer(150, e -> applyFilter());
+        filterTimer.setRepeats(false);
+        filterField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                filterTimer.restart();
+            }
+        });
+        filterField.addActionListener(e -> list.requestFocusInWindow());
+        sortBox.addActionListener(e -> applyFilter());
+
+        JPanel top = new JPanel(new BorderLayout(4, 0));
+        top.add(new JLabel("Filter:"), BorderLayout.WEST);
+        top.add(filterField, BorderLayout.CENTER);
+        top.add(sortBox, BorderLayout.EAST);
+        JPanel bottom = new JPanel(new BorderLayout());
+        bottom.add(countLabel, BorderLayout.WEST);
+        bottom.add(new JButton(delete), BorderLayout.EAST);
+        add(top, BorderLayout.NORTH);
+        previewArea.setEditable(false);
+        previewArea.setLineWrap(true);
+        previewArea.setWrapStyleWord(true);
+        JSplitPane split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, new JScrollPane(list), new JScrollPane(previewArea));
+        split.setResizeWeight(0.4);
+        add(split, BorderLayout.CENTER);
+        add(bottom, BorderLayout.SOUTH);
+        setDefaultCloseOperation(HIDE_ON_CLOSE);
+        setSize(900, 550);
+    }
+
+    public void refresh() {
+        allEntries = catalog.getEntries();
+        applyFilter();
+    }
+
+    public JList<NoteCatalog.Entry> getList() {
+        return list;
+    }
+
+    private void showPreview() {
+        int index = list.getSelectedIndex();
+        if (index < 0 || list.getSelectedIndices().length > 1) {
+            previewArea.setText("");
+            return;
+        }
+        NoteCatalog.Entry selected = model.getElementAt(index);
+        previewCache.request(new File(selected.getPath()), preview -> {
+            // Ignore a preview that arrives after the selection has moved on
+            if (list.getSelectedValue() == selected) {
+                previewArea.setText(preview);
+                previewArea.setCaretPosition(0);
+            }
+        });
+        for (int offset = 1; offset <= PREFETCH_NEIGHBOURS; offset++) {
+            if (index + offset < model.getSize()) {
+                previewCache.prefetch(new File(model.getElementAt(index + offset).getPath()));
+            }
+            if (index - offset >= 0) {
+                previewCache.prefetch(new File(model.getElementAt(index - offset).getPath()));
+            }
+        }
+    }
+
+    private void applyFilter() {
+        String filter = filterField.getText().trim().toLowerCase(Locale.ROOT);
+        List<NoteCatalog.Entry> shown;
+        if (filter.isEmpty()) {
+            shown = new ArrayList<>(allEntries);
+        } else {
+            shown = new ArrayList<>();
+            for (NoteCatalog.Entry entry : allEntries) {
+                if (entry.getPath().toLowerCase(Locale.ROOT).contains(filter)) {
+                    shown.add(entry);
+                }
+            }
+        }
+        Comparator<NoteCatalog.Entry> order = comparator();
+        if (order != null) {
+            shown.sort(order);
+        }
+        model.setEntries(shown);
+        countLabel.setText(shown.size() == allEntries.size() ? shown.size() + " notes" : shown.size() + " of " + allEntries.size() + " notes");
+    }
+
+    private Comparator<NoteCatalog.Entry> comparator() {
+        switch (sortBox.getSelectedIndex()) {
+            case 0:
+                return Comparator.comparingLong(NoteCatalog.Entry::getLastOpened).reversed();
+            case 1:
+                return Comparator.comparingLong(NoteCatalog.Entry::getSize).reversed();
+            case 2:
+                return Comparator.comparing(entry -> new File(entry.getPath()).getName().toLowerCase(Locale.ROOT));
+            default:
+                // the catalog already lists notes in the order they were added
+                return null;
+        }
+    }
+
+    private static class NoteListModel extends AbstractListModel<NoteCatalog.Entry> {
+        private List<NoteCatalog.Entry> entries = new ArrayList<>();
+
+        void setEntries(List<NoteCatalog.Entry> entries) {
+            int oldSize = this.entries.size();
+            this.entries = entries;
+            if (oldSize > 0) {
+                fireIntervalRemoved(this, 0, oldSize - 1);
+            }
+            if (!entries.isEmpty()) {
+                fireIntervalAdded(this, 0, entries.size() - 1);
+            }
+        }
+
+        public int getSize() {
+            return entries.size();
+        }
+
+        public NoteCatalog.Entry getElementAt(int index) {
+            return entries.get(index);
+        }
+    }
+
+    // Renders name, size and last-opened time; only ever called for the rows on screen
+    private static class EntryRenderer extends DefaultListCellRenderer {
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        private final Date date = new Date();
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+            NoteCatalog.Entry entry = (NoteCatalog.Entry) value;
+            String opened = "never opened";
+            if (entry.getLastOpened() > 0) {
+                date.setTime(entry.getLastOpened());
+                opened = dateFormat.format(date);
+            }
+            String text = new File(entry.getPath()).getName() + "    " + formatSize(entry.getSize()) + "    " + opened;
+            super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            setToolTipText(entry.getPath());
+            return this;
+        }
+
+        private static String formatSize(long bytes) {
+            if (bytes < 1024) {
+                return bytes + " B";
+            }
+            if (bytes < 1024 * 1024) {
+                return String.format("%.1f KB", bytes / 1024.0);
+            }
+            return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+        }
+    }
+}
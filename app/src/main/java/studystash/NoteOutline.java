@@ -0,0 +1,321 @@
+package studystash;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// The headings of one note: Markdown "#" headings, "===" and "---" underlined ones, and the code fences that hide
+// any "#" lines between them. Every entry holds a Position at the start of its line, so the document keeps the
+// offsets right through edits and the entries stay in order. An edit only rescans the lines it touched, plus one on
+// either side for underlines; the index is never rebuilt from the whole document after the first scan.
+// Kept in a document property and updated by the editor's document listener. EDT only.
+public class NoteOutline {
+    private static final int MAX_TITLE = 200;
+
+    private final Document document;
+    private final List<Marker> markers = new ArrayList<>();
+    private final Segment line = new Segment();
+    private Runnable listener;
+    // Headings outside code fences, built again only after a change to the markers
+    private List<Heading> headings;
+
+    private NoteOutline(Document document) {
+        this.document = document;
+    }
+
+    // Scans the document once and keeps its outline from then on
+    public static NoteOutline attach(Document document) {
+        NoteOutline outline = of(document);
+        if (outline == null) {
+            outline = new NoteOutline(document);
+            document.putProperty(NoteOutline.class, outline);
+            Element root = document.getDefaultRootElement();
+            outline.scan(0, root.getElementCount() - 1);
+        }
+        return outline;
+    }
+
+    public static NoteOutline of(Document document) {
+        return (NoteOutline) document.getProperty(NoteOutline.class);
+    }
+
+    // Told on every change to the headings, and only then
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    public void insertUpdate(DocumentEvent e) {
+        Element root = document.getDefaultRootElement();
+        update(root.getElementIndex(e.getOffset()), root.getElementIndex(e.getOffset() + e.getLength()));
+    }
+
+    public void removeUpdate(DocumentEvent e) {
+        int line = document.getDefaultRootElement().getElementIndex(e.getOffset());
+        update(line, line);
+    }
+
+    private void update(int first, int last) {
+        Element root = document.getDefaultRootElement();
+        first = Math.max(first - 1, 0);
+        last = Math.min(last + 1, root.getElementCount() - 1);
+        // Markers on removed lines have collapsed onto the edit, so they are in the range too
+        int from = indexOf(root.getElement(first).getStartOffset());
+        int to = indexOf(root.getElement(last).getEndOffset());
+        List<Marker> old = new ArrayList<>(markers.subList(from, to));
+        markers.subList(from, to).clear();
+        int added = scan(first, last, from);
+        if (!old.equals(markers.subList(from, from + added))) {
+            headings = null;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+    }
+
+    // The index of the first marker at or after offset, by binary search
+    private int indexOf(int offset) {
+        int low = 0;
+        int high = markers.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (markers.get(mid).position.getOffset() < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void scan(int first, int last) {
+        scan(first, last, indexOf(document.getDefaultRootElement().getElement(first).getStartOffset()));
+        headings = null;
+    }
+
+    // Adds the markers of lines first to last at index and returns how many there were. The line after last is read
+    // too, in case it underlines the last one.
+    private int scan(int first, int last, int index) {
+        Element root = document.getDefaultRootElement();
+        int lookahead = Math.min(last + 1, root.getElementCount() - 1);
+        int added = 0;
+        String previous = null;
+        int previousStart = 0;
+        try {
+            for (int i = first; i <= lookahead; i++) {
+                Element element = root.getElement(i);
+                int start = element.getStartOffset();
+                int end = Math.min(element.getEndOffset(), document.getLength() + 1) - 1;
+                document.getText(start, end - start, line);
+                int underline = underlineLevel();
+                if (i > last) {
+                    if (underline > 0 && previous != null) {
+                        markers.add(index + added++, new Marker(document.createPosition(previousStart), underline, previous));
+                    }
+                    break;
+                }
+                Marker marker = null;
+                if (underline > 0 && previous != null) {
+                    marker = new Marker(document.createPosition(previousStart), underline, previous);
+                } else if (isFence()) {
+                    marker = new Marker(document.createPosition(start), 0, null);
+                } else {
+                    int level = headingLevel();
+                    if (level > 0) {
+                        marker = new Marker(document.createPosition(start), level, headingTitle(level));
+                    }
+                }
+                if (marker != null) {
+                    markers.add(index + added++, marker);
+                }
+                previous = marker == null ? paragraphText() : null;
+                previousStart = start;
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+        return added;
+    }
+
+    private int indent() {
+        int i = 0;
+        while (i < line.count && i < 3 && line.array[line.offset + i] == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private int run(int i, char c) {
+        int end = i;
+        while (end < line.count && line.array[line.offset + end] == c) {
+            end++;
+        }
+        return end - i;
+    }
+
+    private int headingLevel() {
+        int i = indent();
+        int level = run(i, '#');
+        if (level == 0 || level > 6) {
+            return 0;
+        }
+        int next = i + level;
+        return next == line.count || line.array[line.offset + next] == ' ' || line.array[line.offset + next] == '\t' ? level : 0;
+    }
+
+    private String headingTitle(int level) {
+        String title = line.toString().trim().substring(level).trim();
+        // A closing run of '#' is not part of the title
+        int end = title.length();
+        while (end > 0 && title.charAt(end - 1) == '#') {
+            end--;
+        }
+        if (end < title.length() && (end == 0 || title.charAt(end - 1) == ' ')) {
+            title = title.substring(0, end).trim();
+        }
+        return shorten(title);
+    }
+
+    private boolean isFence() {
+        int i = indent();
+        if (i == line.count) {
+            return false;
+        }
+        char c = line.array[line.offset + i];
+        return (c == '`' || c == '~') && run(i, c) >= 3;
+    }
+
+    // 1 for a line of '=', 2 for a line of '-', 0 otherwise
+    private int underlineLevel() {
+        int i = indent();
+        if (i == line.count) {
+            return 0;
+        }
+        char c = line.array[line.offset + i];
+        if (c != '=' && c != '-') {
+            return 0;
+        }
+        int end = i + run(i, c);
+        while (end < line.count && Character.isWhitespace(line.array[line.offset + end])) {
+            end++;
+        }
+        return end == line.count ? (c == '=' ? 1 : 2) : 0;
+    }
+
+    // The line as the text of an underlined heading, or null if the line could not be one. An underline never is,
+    // so whether a line is a heading only ever depends on it and the line above.
+    private String paragraphText() {
+        String text = line.toString().trim();
+        if (text.isEmpty() || run(0, ' ') >= 4 || underlineLevel() > 0) {
+            return null;
+        }
+        char c = text.charAt(0);
+        if (c == '>' || c == '#' || (c == '-' || c == '*' || c == '+') && (text.length() == 1 || text.charAt(1) == ' ')) {
+            return null;
+        }
+        return shorten(text);
+    }
+
+    private static String shorten(String title) {
+        return title.length() > MAX_TITLE ? title.substring(0, MAX_TITLE) + "..." : title;
+    }
+
+    // The headings in document order, leaving out "#" lines inside code fences
+    public List<Heading> getHeadings() {
+        if (headings == null) {
+            List<Heading> list = new ArrayList<>();
+            boolean inFence = false;
+            for (Marker marker : markers) {
+                if (marker.level == 0) {
+                    inFence = !inFence;
+                } else if (!inFence) {
+                    list.add(new Heading(marker.position, marker.level, marker.title));
+                }
+            }
+            headings = Collections.unmodifiableList(list);
+        }
+        return headings;
+    }
+
+    // The index of the heading whose section holds offset, by binary search; -1 before the first heading
+    public int sectionAt(int offset) {
+        List<Heading> list = getHeadings();
+        int low = 0;
+        int high = list.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (list.get(mid).getOffset() <= offset) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    // A heading line, or with level 0 a code fence
+    private static class Marker {
+        final Position position;
+        final int level;
+        final String title;
+
+        Marker(Position position, int level, String title) {
+            this.position = position;
+            this.level = level;
+            this.title = title;
+        }
+
+        // Same line, same heading: rescanning an untouched line changes nothing
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Marker)) {
+                return false;
+            }
+            Marker other = (Marker) o;
+            return position.getOffset() == other.position.getOffset() && level == other.level
+                    && (title == null ? other.title == null : title.equals(other.title));
+        }
+
+        @Override
+        public int hashCode() {
+            return position.getOffset() * 31 + level;
+        }
+    }
+
+    public static class Heading {
+        private final Position position;
+        private final int level;
+        private final String title;
+
+        Heading(Position position, int level, String title) {
+            this.position = position;
+            this.level = level;
+            this.title = title;
+        }
+
+        // Where the heading's line starts now
+        public int getOffset() {
+            return position.getOffset();
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        @Override
+        public String toString() {
+            return title.isEmpty() ? "(untitled)" : title;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package studystash;
+
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+// Short previews of notes: only the first few KB of a file are read and decoded, on a background thread, and the
+// results are kept in an LRU bounded by total chars. Entries are keyed by path, size and mtime, so an edited note
+// is read again while flipping back and forth between unchanged notes never touches the disk.
+public class NotePreviewCache {
+    public static final int PREVIEW_BYTES = 32 * 1024;
+    private static final long MAX_CACHED_CHARS = 4L * 1024 * 1024;
+
+    private final LinkedHashMap<String, String> previews = new LinkedHashMap<>(64, 0.75f, true);
+    private final ExecutorService reader;
+    // For notes whose format gives no hint of their charset
+    private volatile Charset charset;
+    private long cachedChars;
+
+    public NotePreviewCache(Charset charset) {
+        this.charset = charset;
+        reader = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "note-preview");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setCharset(Charset charset) {
+        if (!charset.equals(this.charset)) {
+            this.charset = charset;
+            clear();
+        }
+    }
+
+    public synchronized void clear() {
+        previews.clear();
+        cachedChars = 0;
+    }
+
+    private static String key(File file) {
+        return file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified();
+    }
+
+    public synchronized String getIfPresent(File file) {
+        return previews.get(key(file));
+    }
+
+    // Hands the preview to onLoaded on the EDT, straight away when it is cached
+    public void request(File file, Consumer<String> onLoaded) {
+        String cached = getIfPresent(file);
+        if (cached != null) {
+            onLoaded.accept(cached);
+            return;
+        }
+        reader.execute(() -> {
+            String preview = load(file);
+            SwingUtilities.invokeLater(() -> onLoaded.accept(preview));
+        });
+    }
+
+    // Warms the cache for a note the user is likely to look at next
+    public void prefetch(File file) {
+        if (getIfPresent(file) == null) {
+            reader.execute(() -> load(file));
+        }
+    }
+
+    private String load(File file) {
+        String key = key(file);
+        String preview = getIfPresent(file);
+        if (preview != null) {
+            return preview;
+        }
+        try {
+            preview = readPrefix(file);
+        } catch (IOException e) {
+            // not cached, so a note that comes back is retried
+            return "Cannot read " + file.getName() + ": " + e.getMessage();
+        }
+        put(key, preview);
+        return preview;
+    }
+
+    private String readPrefix(File file) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(PREVIEW_BYTES);
+        boolean truncated;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (bytes.hasRemaining() && channel.read(bytes) != -1) {
+                // keep reading until the buffer is full or the file ends
+            }
+            truncated = channel.size() > bytes.position();
+        }
+        bytes.flip();
+        // Read as the editor would open it, past the BOM
+        TextFormat format = TextFormat.detect(bytes, !truncated, charset);
+        bytes.position(Math.min(bytes.limit(), format.getByteOrderMarkLength()));
+        CharsetDecoder decoder = format.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate((int) (bytes.remaining() * (double) decoder.maxCharsPerByte()) + 1);
+        // endOfInput is false when the file goes on, so a character cut in half at the end is dropped, not replaced
+        decoder.decode(bytes, chars, !truncated);
+        chars.flip();
+        String text = chars.toString();
+        return truncated ? text + "\n\n[Preview shows the first " + PREVIEW_BYTES / 1024 + " KB; open the note to see the rest]" : text;
+    }
+
+    private synchronized void put(String key, String preview) {
+        String old = previews.put(key, preview);
+        if (old != null) {
+            cachedChars -= old.length();
+        }
+        cachedChars += preview.length();
+        Iterator<String> eldest = previews.values().iterator();
+        while (cachedChars > MAX_CACHED_CHARS && previews.size() > 1 && eldest.hasNext()) {
+            cachedChars -= eldest.next().length();
+            eldest.remove();
+        }
+    }
+}
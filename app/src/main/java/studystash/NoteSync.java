@@ -0,0 +1,219 @@
+package studystash;
+
+import javax.swing.*;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Keeps the note catalog, the search index and the list of calendar images in step with the disk.
+// One background thread scans once at startup and from then on only applies WatchService events: deleted notes
+// leave the catalog, changed notes are re-indexed, and calendar images come and go as files appear and disappear.
+// The EDT only ever reads the in-memory results.
+public class NoteSync {
+    // Events are collected until the directories have been quiet this long, so a burst of writes is handled once
+    private static final long SETTLE_MILLIS = 200;
+
+    private final NoteCatalog catalog;
+    private final NoteIndex index;
+    private final Path calendarDirectory;
+    private final FileFilter calendarFilter;
+    private final Supplier<Charset> charset;
+    private final ConcurrentSkipListSet<String> calendarNames = new ConcurrentSkipListSet<>();
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private final Set<Path> registered = ConcurrentHashMap.newKeySet();
+    private volatile WatchService watcher;
+    private volatile Runnable listener;
+    private Thread thread;
+
+    public NoteSync(NoteCatalog catalog, NoteIndex index, File calendarDirectory, FileFilter calendarFilter, Supplier<Charset> charset) {
+        this.catalog = catalog;
+        this.index = index;
+        this.calendarDirectory = calendarDirectory.toPath().toAbsolutePath();
+        this.calendarFilter = calendarFilter;
+        this.charset = charset;
+    }
+
+    // Called on the EDT after a batch of changes has been applied
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    // Calendar images in name order, as of the last event
+    public List<File> getCalendarFiles() {
+        List<File> files = new ArrayList<>();
+        for (String name : calendarNames) {
+            files.add(calendarDirectory.resolve(name).toFile());
+        }
+        return files;
+    }
+
+    public void start() {
+        thread = new Thread(this::run, "note-sync");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+    }
+
+    public void close() {
+        WatchService service = watcher;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Starts watching the directory of a note that was just opened or saved
+    public void watchNote(File note) {
+        Path directory = note.getAbsoluteFile().toPath().getParent();
+        if (directory != null && watcher != null && !registered.contains(directory)) {
+            register(directory);
+        }
+    }
+
+    private void run() {
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            Files.createDirectories(calendarDirectory);
+            register(calendarDirectory);
+            rescanCalendars();
+            for (String path : catalog.getPaths()) {
+                File note = new File(path);
+                if (note.isFile()) {
+                    watchNote(note);
+                } else {
+                    removeNote(path);
+                }
+            }
+            notifyListener();
+            while (true) {
+                WatchKey key = watcher.take();
+                Set<Path> changed = new HashSet<>();
+                Set<Path> overflowed = new HashSet<>();
+                while (key != null) {
+                    collect(key, changed, overflowed);
+                    key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                apply(changed, overflowed);
+                notifyListener();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // closed on exit
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void register(Path directory) {
+        try {
+            WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirectories.put(key, directory);
+            registered.add(directory);
+        } catch (IOException | ClosedWatchServiceException e) {
+            // the directory may be gone or unwatchable; its notes are still checked at the next start
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed, Set<Path> overflowed) {
+        Path directory = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (directory == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflowed.add(directory);
+            } else {
+                changed.add(directory.resolve((Path) event.context()));
+            }
+        }
+        if (!key.reset() && directory != null) {
+            watchedDirectories.remove(key);
+            registered.remove(directory);
+        }
+    }
+
+    private void apply(Set<Path> changed, Set<Path> overflowed) {
+        for (Path directory : overflowed) {
+            // Events were lost, so fall back to checking everything under that one directory
+            if (directory.equals(calendarDirectory)) {
+                rescanCalendars();
+            }
+            for (String path : catalog.getPaths()) {
+                if (directory.equals(new File(path).toPath().getParent())) {
+                    changed.add(new File(path).toPath());
+                }
+            }
+        }
+        for (Path path : changed) {
+            File file = path.toFile();
+            if (path.getParent().equals(calendarDirectory)) {
+                if (file.isFile() && calendarFilter.accept(file)) {
+                    calendarNames.add(file.getName());
+                } else {
+                    calendarNames.remove(file.getName());
+                }
+            }
+            String notePath = file.getAbsolutePath();
+            if (catalog.contains(notePath)) {
+                if (!file.isFile()) {
+                    removeNote(notePath);
+                } else if (catalog.refreshMetadata(file) || !index.isCurrent(file)) {
+                    try {
+                        catalog.updateHash(file, NoteCatalog.hashFile(file));
+                        index.update(file, charset.get());
+                        index.save();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    private void rescanCalendars() {
+        File[] files = calendarDirectory.toFile().listFiles(calendarFilter);
+        Set<String> names = new HashSet<>();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    names.add(file.getName());
+                }
+            }
+        }
+        calendarNames.retainAll(names);
+        calendarNames.addAll(names);
+    }
+
+    private void removeNote(String path) {
+        catalog.remove(path);
+        index.remove(path);
+    }
+
+    private void notifyListener() {
+        Runnable current = listener;
+        if (current != null) {
+            SwingUtilities.invokeLater(current);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package studystash;
+
+import javax.swing.*;
+import javax.swing.text.Document;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+
+// One open note in the workspace: its document, undo history, crash journal and saved state.
+// A tab that has not been looked at for a while hibernates: the document is dropped and the undo history moves to
+// disk, leaving only the note's file. If the note has unsaved changes, its text is first written to a swap file next
+// to the journal and the journal is rebased onto it, so the swap file plus the journal is the unsaved delta.
+// Selecting the tab again loads whichever of the two is current. EDT only.
+public class NoteTab {
+    private final JPanel component = new JPanel(new BorderLayout());
+    private final UndoHistory undoHistory = new UndoHistory();
+    private final EditJournal journal;
+    private File swapFile;
+    private File file;
+    private TextFormat format;
+    private Document document;
+    private boolean saved = true;
+    private boolean swapped;
+    private boolean loaded;
+    private int caretPosition;
+    private long lastSelected;
+    // Size and mtime of the file when the document was dropped, to tell whether the undo history still fits it
+    private long hibernatedLength = -1;
+    private long hibernatedModified = -1;
+    private DocumentSaveWorker swapWriter;
+
+    public NoteTab(File journalFile, TextFormat format) {
+        this.format = format;
+        journal = new EditJournal(journalFile);
+        swapFile = new File(journalFile.getPath().replaceFirst("\\.bin$", "") + ".swap");
+    }
+
+    // The tab a document belongs to, or null
+    public static NoteTab of(Document document) {
+        return (NoteTab) document.getProperty(NoteTab.class);
+    }
+
+    public JPanel getComponent() {
+        return component;
+    }
+
+    public UndoHistory getUndoHistory() {
+        return undoHistory;
+    }
+
+    public EditJournal getJournal() {
+        return journal;
+    }
+
+    // The note on disk, or null for a note that was never saved
+    public File getFile() {
+        return file;
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    // How the note is written when saved: the format it was read with, or the default for a new note
+    public TextFormat getFormat() {
+        return format;
+    }
+
+    public void setFormat(TextFormat format) {
+        this.format = format;
+    }
+
+    public String getTitle() {
+        String name = file == null ? "Untitled" : file.getName();
+        return saved ? name : "*" + name;
+    }
+
+    // Null while the tab is hibernating
+    public Document getDocument() {
+        return document;
+    }
+
+    public void setDocument(Document document) {
+        this.document = document;
+        document.putProperty(NoteTab.class, this);
+    }
+
+    public boolean isHibernated() {
+        return document == null;
+    }
+
+    public boolean isSaved() {
+        return saved;
+    }
+
+    public void setSaved(boolean saved) {
+        this.saved = saved;
+    }
+
+    // True when the tab's text lives in its swap file rather than in its note. Swap files are always TextFormat.UTF_8.
+    public boolean isSwapped() {
+        return swapped;
+    }
+
+    // The file the tab's text is loaded from when it wakes up; null for an empty new note
+    public File getSource() {
+        return swapped ? swapFile : file;
+    }
+
+    // Takes over a swap file left behind by a previous run, whose unsaved text becomes this tab's
+    public void adoptSwapFile(File swapFile) {
+        this.swapFile = swapFile;
+        swapped = true;
+        saved = false;
+    }
+
+    // Whether the tab has shown its note at least once
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public int getCaretPosition() {
+        return caretPosition;
+    }
+
+    public void setCaretPosition(int caretPosition) {
+        this.caretPosition = caretPosition;
+    }
+
+    public long getLastSelected() {
+        return lastSelected;
+    }
+
+    public void touch() {
+        lastSelected = System.nanoTime();
+    }
+
+    // Called once the document set with setDocument() holds all of getSource(). The undo history carries over
+    // unless the note changed on disk while the tab was hibernating, in which case it no longer describes this text.
+    public void finishLoad() {
+        boolean changedOnDisk = !swapped && file != null
+                && (file.length() != hibernatedLength || file.lastModified() != hibernatedModified);
+        if (!loaded || changedOnDisk) {
+            undoHistory.install(document);
+        } else {
+            undoHistory.resume(document);
+        }
+        loaded = true;
+        saved = !swapped;
+        journal.reset(getSource(), swapped);
+    }
+
+    // Forgets a document whose load failed or was cancelled; the tab stays as it was before the load started
+    public void abandonLoad() {
+        document = null;
+    }
+
+    // Marks the text as saved to file, which replaces the swap file as the tab's source
+    public void markSaved(File file) {
+        this.file = file;
+        saved = true;
+        journal.reset(file);
+        if (swapped) {
+            swapped = false;
+            deleteSwapFile();
+        }
+    }
+
+    // Drops the document to free its memory. Unsaved text is written to the swap file first, in the background,
+    // and the document is only dropped once that is on disk. Unsaved edits to a mapped file stay in memory: its
+    // piece table already keeps the original text on disk and only holds the edits.
+    public void hibernate() {
+        if (document == null || swapWriter != null) {
+            return;
+        }
+        if (saved) {
+            dropDocument();
+            return;
+        }
+        if (document instanceof PieceTableDocument) {
+            return;
+        }
+        DocumentSaveWorker writer = new DocumentSaveWorker(new DocumentSaver(document, swapFile, TextFormat.UTF_8)) {
+            @Override
+            protected void done() {
+                if (swapWriter != this) {
+                    return;
+                }
+                swapWriter = null;
+                try {
+                    get();
+                    swapped = true;
+                    journal.reset(swapFile, true);
+                    dropDocument();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        swapWriter = writer;
+        writer.execute();
+    }
+
+    // Stops a hibernation that is still writing the swap file. Returns true if the document is still in memory.
+    public boolean wake() {
+        if (swapWriter != null) {
+            DocumentSaveWorker writer = swapWriter;
+            swapWriter = null;
+            writer.cancel(true);
+        }
+        return document != null;
+    }
+
+    private void dropDocument() {
+        undoHistory.hibernate();
+        if (file != null) {
+            hibernatedLength = file.length();
+            hibernatedModified = file.lastModified();
+        }
+        document = null;
+    }
+
+    // keepRecovery leaves the journal and swap file behind so the next run can offer the unsaved work
+    public void close(boolean keepRecovery) {
+        wake();
+        journal.close(!keepRecovery);
+        undoHistory.close();
+        if (!keepRecovery) {
+            deleteSwapFile();
+        }
+    }
+
+    private void deleteSwapFile() {
+        try {
+            Files.deleteIfExists(swapFile.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package studystash;
+
+import javax.swing.*;
+import javax.swing.event.CaretEvent;
+import javax.swing.event.CaretListener;
+import javax.swing.text.BadLocationException;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.Rectangle2D;
+import java.util.Collections;
+import java.util.List;
+
+// Side panel listing the headings of the note in the text area, indented by level. Clicking a heading, or Enter on
+// it, puts the caret on its line and scrolls that line to the top. As the caret moves, the heading of the section it
+// is in gets selected. The list is only rebuilt when the note's NoteOutline reports a change to its headings.
+public class OutlinePanel extends JPanel {
+    private static final int INDENT = 12;
+    private static final int CELL_WIDTH = 400;
+
+    private final JTextArea textArea;
+    private final HeadingListModel model = new HeadingListModel();
+    private final JList<NoteOutline.Heading> list = new JList<>(model);
+    private final JLabel emptyLabel = new JLabel(" ");
+    private final CaretListener caretListener = this::caretMoved;
+    private NoteOutline outline;
+    // Set while the list follows the caret, so that selection is not taken for a click
+    private boolean following;
+
+    public OutlinePanel(JTextArea textArea) {
+        super(new BorderLayout());
+        this.textArea = textArea;
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // Fixed cells, so a new list of headings is laid out without measuring every one of them
+        list.setFixedCellHeight(list.getFontMetrics(list.getFont()).getHeight() + 2);
+        list.setFixedCellWidth(CELL_WIDTH);
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                NoteOutline.Heading heading = (NoteOutline.Heading) value;
+                setBorder(BorderFactory.createEmptyBorder(1, 4 + (heading.getLevel() - 1) * INDENT, 1, 4));
+                setFont(heading.getLevel() == 1 ? getFont().deriveFont(Font.BOLD) : getFont());
+                return this;
+            }
+        });
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int index = list.locationToIndex(e.getPoint());
+                if (index >= 0 && list.getCellBounds(index, index).contains(e.getPoint())) {
+                    jumpTo(index);
+                }
+            }
+        });
+        list.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "jumpToHeading");
+        list.getActionMap().put("jumpToHeading", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                jumpTo(list.getSelectedIndex());
+            }
+        });
+        emptyLabel.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+        emptyLabel.setEnabled(false);
+        add(new JLabel(" Outline"), BorderLayout.NORTH);
+        add(new JScrollPane(list), BorderLayout.CENTER);
+        add(emptyLabel, BorderLayout.SOUTH);
+        setPreferredSize(new Dimension(180, 0));
+        textArea.addCaretListener(caretListener);
+    }
+
+    // Shows the outline of the note in the text area; null for a note that has none, such as a mapped one
+    public void setOutline(NoteOutline outline) {
+        if (this.outline != null) {
+            this.outline.setListener(null);
+        }
+        this.outline = outline;
+        if (outline != null) {
+            outline.setListener(this::refresh);
+        }
+        refresh();
+    }
+
+    private void refresh() {
+        List<NoteOutline.Heading> headings = outline == null ? Collections.emptyList() : outline.getHeadings();
+        model.setHeadings(headings);
+        if (outline == null) {
+            emptyLabel.setText("No outline for this note");
+        } else {
+            emptyLabel.setText(headings.isEmpty() ? "No headings" : headings.size() + " headings");
+        }
+        follow(textArea.getCaretPosition());
+    }
+
+    private void caretMoved(CaretEvent e) {
+        if (outline != null && isShowing()) {
+            follow(e.getDot());
+        }
+    }
+
+    private void follow(int offset) {
+        int index = outline == null ? -1 : outline.sectionAt(offset);
+        if (index == list.getSelectedIndex()) {
+            return;
+        }
+        following = true;
+        try {
+            if (index < 0) {
+                list.clearSelection();
+            } else {
+                list.setSelectedIndex(index);
+                list.ensureIndexIsVisible(index);
+            }
+        } finally {
+            following = false;
+        }
+    }
+
+    private void jumpTo(int index) {
+        if (following || index < 0 || index >= model.getSize()) {
+            return;
+        }
+        int offset = Math.min(model.getElementAt(index).getOffset(), textArea.getDocument().getLength());
+        textArea.setCaretPosition(offset);
+        try {
+            Rectangle2D line = textArea.modelToView2D(offset);
+            if (line != null) {
+                Rectangle visible = textArea.getVisibleRect();
+                textArea.scrollRectToVisible(new Rectangle(visible.x, (int) line.getY(), visible.width, visible.height));
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+        textArea.requestFocusInWindow();
+    }
+
+    // Swaps in a whole new list with one event, rather than one per heading
+    private static class HeadingListModel extends AbstractListModel<NoteOutline.Heading> {
+        private List<NoteOutline.Heading> headings = Collections.emptyList();
+
+        void setHeadings(List<NoteOutline.Heading> headings) {
+            int oldSize = this.headings.size();
+            this.headings = headings;
+            if (oldSize > 0) {
+                fireIntervalRemoved(this, 0, oldSize - 1);
+            }
+            if (!headings.isEmpty()) {
+                fireIntervalAdded(this, 0, headings.size() - 1);
+            }
+        }
+
+        @Override
+        public int getSize() {
+            return headings.size();
+        }
+
+        @Override
+        public NoteOutline.Heading getElementAt(int index) {
+            return headings.get(index);
+        }
+    }
+}
@@ -0,0 +1,663 @@
+package studystash;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Document content that keeps the original file in a read-only mapping and every edit in an append-only buffer.
+// The text is described by a sequence of pieces pointing into one of the two, so heap use follows the edits, not the file.
+// The pieces sit in a treap ordered by text offset, each node holding the char length of its subtree, so finding,
+// splitting, inserting and removing pieces costs O(log pieces) however many edits came before.
+public class PieceTableContent implements AbstractDocument.Content {
+    private static final int BLOCK_BYTES = 16 * 1024;
+    private static final int CACHED_BLOCKS = 16;
+
+    private final Charset charset;
+    private final MappedByteBuffer original;
+
+    // Decoding checkpoints: block i covers bytes [blockBytes[i], blockBytes[i + 1]) and chars [blockChars[i], blockChars[i + 1])
+    private int[] blockBytes = new int[16];
+    private int[] blockChars = new int[16];
+    private int blockCount;
+    private final Map<Integer, char[]> blockCache = new LinkedHashMap<Integer, char[]>(CACHED_BLOCKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, char[]> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+
+    // The original text is indexed slice by slice; only the part up to the last checkpoint is exposed as content
+    private final CharsetDecoder indexDecoder;
+    private final ByteBuffer indexInput;
+    private final CharBuffer indexOutput = CharBuffer.allocate(BLOCK_BYTES);
+    private int indexedChars;
+    private boolean pendingCarriageReturn;
+    private int exposedLength;
+
+    // Line starts found by the indexer and not yet handed to the document
+    private int[] pendingLineStarts = new int[1024];
+    private int pendingLineCount;
+
+    private final StringBuilder addBuffer = new StringBuilder();
+    private Node root;
+    private int priorities = 0x2545f491;
+    // Where the piece found by findNode starts
+    private int foundStart;
+    private int length;
+
+    private final List<Mark> marks = new ArrayList<>();
+    private final ReferenceQueue<StickyPosition> staleMarks = new ReferenceQueue<>();
+
+    public PieceTableContent(File file, Charset charset) throws IOException {
+        this(file, charset, 0);
+    }
+
+    // textStart skips a byte order mark, which is not part of the text
+    public PieceTableContent(File file, Charset charset, int textStart) throws IOException {
+        this.charset = charset;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= Integer.MAX_VALUE) {
+                throw new IOException("File is too large to open: " + file.getName());
+            }
+            original = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        indexDecoder = newDecoder();
+        indexInput = original.duplicate();
+        indexInput.position(Math.min(textStart, original.limit()));
+        addBlock(indexInput.position(), 0);
+
+        // Like GapContent, the content always ends with an implied newline the document never removes
+        addBuffer.append('\n');
+        root = newNode(new Piece(true, 0, 1));
+        length = 1;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public synchronized int getEditSize() {
+        return addBuffer.length();
+    }
+
+    public synchronized boolean isIndexed() {
+        return blockBytes[blockCount - 1] == original.limit();
+    }
+
+    public synchronized int getIndexProgress() {
+        int size = original.limit();
+        return size == 0 ? 100 : (int) ((long) blockBytes[blockCount - 1] * 100 / size);
+    }
+
+    // Decodes roughly maxBytes more of the original text, recording checkpoints and line starts. Safe to call off the EDT.
+    synchronized void indexOriginal(int maxBytes) throws IOException {
+        int size = original.limit();
+        int target = (int) Math.min((long) indexInput.position() + maxBytes, size);
+        while (!isIndexed() && (indexInput.position() < target || pendingCarriageReturn)) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Indexing cancelled");
+            }
+            int limit = (int) Math.min((long) indexInput.position() + BLOCK_BYTES, size);
+            boolean endOfInput = limit == size;
+            indexInput.limit(limit);
+            while (true) {
+                CoderResult result = indexDecoder.decode(indexInput, indexOutput, endOfInput);
+                if (endOfInput && result.isUnderflow()) {
+                    result = indexDecoder.flush(indexOutput);
+                }
+                indexOutput.flip();
+                while (indexOutput.hasRemaining()) {
+                    char c = indexOutput.get();
+                    if (c == '\r') {
+                        addLineStart(++indexedChars);
+                        pendingCarriageReturn = true;
+                    } else if (c == '\n' && pendingCarriageReturn) {
+                        pendingCarriageReturn = false;
+                    } else {
+                        if (c == '\n') {
+                            addLineStart(indexedChars + 1);
+                        }
+                        indexedChars++;
+                        pendingCarriageReturn = false;
+                    }
+                    if (indexedChars == Integer.MAX_VALUE) {
+                        throw new IOException("File has too many characters to open");
+                    }
+                }
+                indexOutput.clear();
+                if (result.isUnderflow()) {
+                    break;
+                }
+            }
+
+            // Never put a checkpoint between the halves of a CRLF pair, so each block decodes on its own
+            if (endOfInput) {
+                indexInput.position(size);
+                addBlock(size, indexedChars);
+                pendingCarriageReturn = false;
+            } else if (!pendingCarriageReturn) {
+                addBlock(indexInput.position(), indexedChars);
+            }
+        }
+    }
+
+    // Makes the text indexed so far part of the content, just before the implied trailing newline. Returns the number of chars added.
+    synchronized int exposeIndexed() {
+        int count = blockChars[blockCount - 1] - exposedLength;
+        if (count > 0) {
+            insertPieces(length - 1, List.of(new Piece(false, exposedLength, count)));
+            exposedLength += count;
+        }
+        return count;
+    }
+
+    // Returns the line starts that fall inside the exposed text and have not been taken yet
+    synchronized int[] takeLineStarts() {
+        int count = 0;
+        while (count < pendingLineCount && pendingLineStarts[count] <= exposedLength) {
+            count++;
+        }
+        int[] starts = Arrays.copyOf(pendingLineStarts, count);
+        System.arraycopy(pendingLineStarts, count, pendingLineStarts, 0, pendingLineCount - count);
+        pendingLineCount -= count;
+        if (pendingLineStarts.length > 1024 && pendingLineCount < pendingLineStarts.length / 4) {
+            pendingLineStarts = Arrays.copyOf(pendingLineStarts, Math.max(1024, pendingLineCount * 2));
+        }
+        return starts;
+    }
+
+    private void addLineStart(int offset) {
+        if (pendingLineCount == pendingLineStarts.length) {
+            pendingLineStarts = Arrays.copyOf(pendingLineStarts, pendingLineCount * 2);
+        }
+        pendingLineStarts[pendingLineCount++] = offset;
+    }
+
+    private void addBlock(int byteOffset, int charOffset) {
+        if (blockCount > 0 && blockBytes[blockCount - 1] == byteOffset) {
+            return;
+        }
+        if (blockCount == blockBytes.length) {
+            blockBytes = Arrays.copyOf(blockBytes, blockCount * 2);
+            blockChars = Arrays.copyOf(blockChars, blockCount * 2);
+        }
+        blockBytes[blockCount] = byteOffset;
+        blockChars[blockCount] = charOffset;
+        blockCount++;
+    }
+
+    private CharsetDecoder newDecoder() {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private char[] block(int index) {
+        char[] chars = blockCache.get(index);
+        if (chars != null) {
+            return chars;
+        }
+        ByteBuffer in = original.duplicate();
+        in.position(blockBytes[index]);
+        in.limit(blockBytes[index + 1]);
+        chars = new char[blockChars[index + 1] - blockChars[index]];
+        CharBuffer decoded;
+        try {
+            decoded = newDecoder().decode(in);
+        } catch (IOException e) {
+            // Cannot happen with REPLACE actions
+            throw new IllegalStateException(e);
+        }
+        int count = 0;
+        boolean pendingCarriageReturn = false;
+        while (decoded.hasRemaining() && count < chars.length) {
+            char c = decoded.get();
+            if (c == '\r') {
+                chars[count++] = '\n';
+                pendingCarriageReturn = true;
+            } else if (c == '\n' && pendingCarriageReturn) {
+                pendingCarriageReturn = false;
+            } else {
+                chars[count++] = c;
+                pendingCarriageReturn = false;
+            }
+        }
+        blockCache.put(index, chars);
+        return chars;
+    }
+
+    private int blockIndex(int charOffset) {
+        int index = Arrays.binarySearch(blockChars, 0, blockCount, charOffset);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        // Skip empty blocks so the returned block actually contains the offset
+        while (index < blockCount - 2 && blockChars[index + 1] <= charOffset) {
+            index++;
+        }
+        return index;
+    }
+
+    private void copyOriginal(int charOffset, int count, char[] dest, int destPos) {
+        while (count > 0) {
+            int index = blockIndex(charOffset);
+            char[] chars = block(index);
+            int inBlock = charOffset - blockChars[index];
+            int n = Math.min(count, chars.length - inBlock);
+            System.arraycopy(chars, inBlock, dest, destPos, n);
+            charOffset += n;
+            destPos += n;
+            count -= n;
+        }
+    }
+
+    public synchronized int length() {
+        return length;
+    }
+
+    public synchronized Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length) {
+            throw new BadLocationException("Invalid position", offset);
+        }
+        purgeStaleMarks();
+        Mark mark = new Mark(offset);
+        StickyPosition position = new StickyPosition(mark);
+        mark.position = new WeakReference<>(position, staleMarks);
+        marks.add(firstMarkAfter(offset), mark);
+        return position;
+    }
+
+    public synchronized UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where > length) {
+            throw new BadLocationException("Invalid insert", length);
+        }
+        if (str.isEmpty()) {
+            return null;
+        }
+        Piece piece = new Piece(true, addBuffer.length(), str.length());
+        addBuffer.append(str);
+        insertPieces(where, List.of(piece));
+        return new InsertUndo(where, List.of(piece));
+    }
+
+    public synchronized UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || where + nitems >= length) {
+            throw new BadLocationException("Invalid remove", length + 1);
+        }
+        if (nitems == 0) {
+            return null;
+        }
+        return new RemoveUndo(where, removePieces(where, nitems));
+    }
+
+    public synchronized String getString(int where, int len) throws BadLocationException {
+        Segment segment = new Segment();
+        getChars(where, len, segment);
+        return new String(segment.array, segment.offset, segment.count);
+    }
+
+    public synchronized void getChars(int where, int len, Segment txt) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length) {
+            throw new BadLocationException("Invalid location", length + 1);
+        }
+        if (len > 0 && txt.isPartialReturn()) {
+            Piece piece = findNode(where).piece;
+            if (!piece.add) {
+                // Hand out the cached block directly when the caller accepts a partial result
+                int originalOffset = piece.start + (where - foundStart);
+                int block = blockIndex(originalOffset);
+                char[] chars = block(block);
+                int inBlock = originalOffset - blockChars[block];
+                txt.array = chars;
+                txt.offset = inBlock;
+                txt.count = Math.min(len, Math.min(chars.length - inBlock, foundStart + piece.length - where));
+                return;
+            }
+        }
+
+        char[] chars = new char[len];
+        copy(root, 0, where, where + len, chars);
+        txt.array = chars;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    // The node whose piece holds offset; its start goes in foundStart
+    private Node findNode(int offset) {
+        Node node = root;
+        int start = 0;
+        while (true) {
+            int leftLength = length(node.left);
+            int pieceStart = start + leftLength;
+            if (offset < pieceStart) {
+                node = node.left;
+            } else if (offset >= pieceStart + node.piece.length && node.right != null) {
+                start = pieceStart + node.piece.length;
+                node = node.right;
+            } else {
+                foundStart = pieceStart;
+                return node;
+            }
+        }
+    }
+
+    // Copies the text in [from, to) that lies within node's subtree, which starts at start, into dest at from's place
+    private void copy(Node node, int start, int from, int to, char[] dest) {
+        if (node == null) {
+            return;
+        }
+        int pieceStart = start + length(node.left);
+        int pieceEnd = pieceStart + node.piece.length;
+        if (from < pieceStart) {
+            copy(node.left, start, from, to, dest);
+        }
+        int copyFrom = Math.max(from, pieceStart);
+        int copyTo = Math.min(to, pieceEnd);
+        if (copyFrom < copyTo) {
+            Piece piece = node.piece;
+            int inPiece = copyFrom - pieceStart;
+            int n = copyTo - copyFrom;
+            int destPos = copyFrom - from;
+            if (piece.add) {
+                addBuffer.getChars(piece.start + inPiece, piece.start + inPiece + n, dest, destPos);
+            } else {
+                copyOriginal(piece.start + inPiece, n, dest, destPos);
+            }
+        }
+        if (to > pieceEnd) {
+            copy(node.right, pieceEnd, from, to, dest);
+        }
+    }
+
+    private void insertPieces(int where, List<Piece> inserted) {
+        int count = 0;
+        for (Piece piece : inserted) {
+            count += piece.length;
+        }
+        Node[] parts = split(root, where);
+        Piece first = inserted.get(0);
+        Node previous = last(parts[0]);
+        if (inserted.size() == 1 && previous != null && previous.piece.add == first.add
+                && previous.piece.start + previous.piece.length == first.start) {
+            // Typing at the end of the last edit, or indexing more of the original, just grows that piece
+            growLast(parts[0], first.length);
+            root = merge(parts[0], parts[1]);
+        } else {
+            Node middle = null;
+            for (Piece piece : inserted) {
+                middle = merge(middle, newNode(piece));
+            }
+            root = merge(merge(parts[0], middle), parts[1]);
+        }
+        length += count;
+        updateMarksForInsert(where, count);
+    }
+
+    private List<Piece> removePieces(int where, int count) {
+        Node[] parts = split(root, where);
+        Node[] rest = split(parts[1], count);
+        List<Piece> removed = new ArrayList<>();
+        collect(rest[0], removed);
+        root = merge(parts[0], rest[1]);
+        length -= count;
+        updateMarksForRemove(where, count);
+        return removed;
+    }
+
+    private Node newNode(Piece piece) {
+        // xorshift: priorities only need to look random, and the same edits then always build the same tree
+        priorities ^= priorities << 13;
+        priorities ^= priorities >>> 17;
+        priorities ^= priorities << 5;
+        return new Node(piece, priorities);
+    }
+
+    private static int length(Node node) {
+        return node == null ? 0 : node.length;
+    }
+
+    // Splits node's subtree into the first offset chars and the rest, cutting a piece in two if the offset falls inside it
+    private Node[] split(Node node, int offset) {
+        if (node == null) {
+            return new Node[2];
+        }
+        int leftLength = length(node.left);
+        int pieceEnd = leftLength + node.piece.length;
+        Node[] parts;
+        if (offset <= leftLength) {
+            parts = split(node.left, offset);
+            node.left = parts[1];
+            parts[1] = node;
+        } else if (offset >= pieceEnd) {
+            parts = split(node.right, offset - pieceEnd);
+            node.right = parts[0];
+            parts[0] = node;
+        } else {
+            int inPiece = offset - leftLength;
+            Piece piece = node.piece;
+            node.piece = new Piece(piece.add, piece.start, inPiece);
+            Node tail = newNode(new Piece(piece.add, piece.start + inPiece, piece.length - inPiece));
+            parts = new Node[] {node, merge(tail, node.right)};
+            node.right = null;
+        }
+        node.update();
+        return parts;
+    }
+
+    // Joins two subtrees, every char of left coming before every char of right
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private static Node last(Node node) {
+        while (node != null && node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    private static void growLast(Node node, int count) {
+        if (node.right != null) {
+            growLast(node.right, count);
+        } else {
+            node.piece = new Piece(node.piece.add, node.piece.start, node.piece.length + count);
+        }
+        node.update();
+    }
+
+    private static void collect(Node node, List<Piece> into) {
+        if (node != null) {
+            collect(node.left, into);
+            into.add(node.piece);
+            collect(node.right, into);
+        }
+    }
+
+    private int firstMarkAfter(int offset) {
+        int low = 0;
+        int high = marks.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (marks.get(mid).offset > offset) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    private void updateMarksForInsert(int offset, int count) {
+        // Same bias as StringContent: a position at the insertion point moves, except at offset zero
+        for (int i = firstMarkAfter(Math.max(offset, 1) - 1); i < marks.size(); i++) {
+            marks.get(i).offset += count;
+        }
+    }
+
+    private void updateMarksForRemove(int offset, int count) {
+        int end = offset + count;
+        for (int i = firstMarkAfter(offset - 1); i < marks.size(); i++) {
+            Mark mark = marks.get(i);
+            mark.offset = mark.offset >= end ? mark.offset - count : offset;
+        }
+    }
+
+    private void purgeStaleMarks() {
+        if (staleMarks.poll() == null) {
+            return;
+        }
+        while (staleMarks.poll() != null) {
+            // drain
+        }
+        marks.removeIf(mark -> mark.position.get() == null);
+    }
+
+    private static final class Piece {
+        final boolean add;
+        final int start;
+        final int length;
+
+        Piece(boolean add, int start, int length) {
+            this.add = add;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    private static final class Node {
+        final int priority;
+        Piece piece;
+        Node left;
+        Node right;
+        // Chars in this subtree
+        int length;
+
+        Node(Piece piece, int priority) {
+            this.piece = piece;
+            this.priority = priority;
+            this.length = piece.length;
+        }
+
+        void update() {
+            length = PieceTableContent.length(left) + piece.length + PieceTableContent.length(right);
+        }
+    }
+
+    private static final class Mark {
+        int offset;
+        WeakReference<StickyPosition> position;
+
+        Mark(int offset) {
+            this.offset = offset;
+        }
+    }
+
+    private final class StickyPosition implements Position {
+        private final Mark mark;
+
+        StickyPosition(Mark mark) {
+            this.mark = mark;
+        }
+
+        public int getOffset() {
+            synchronized (PieceTableContent.this) {
+                return mark.offset;
+            }
+        }
+    }
+
+    // Undo records keep the pieces themselves, so undoing a huge delete never copies any text
+    private final class InsertUndo extends AbstractUndoableEdit {
+        private final int offset;
+        private final List<Piece> inserted;
+        private final int count;
+
+        InsertUndo(int offset, List<Piece> inserted) {
+            this.offset = offset;
+            this.inserted = inserted;
+            this.count = inserted.stream().mapToInt(piece -> piece.length).sum();
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            synchronized (PieceTableContent.this) {
+                removePieces(offset, count);
+            }
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            synchronized (PieceTableContent.this) {
+                insertPieces(offset, inserted);
+            }
+        }
+    }
+
+    private final class RemoveUndo extends AbstractUndoableEdit {
+        private final int offset;
+        private final List<Piece> removed;
+        private final int count;
+
+        RemoveUndo(int offset, List<Piece> removed) {
+            this.offset = offset;
+            this.removed = removed;
+            this.count = removed.stream().mapToInt(piece -> piece.length).sum();
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            synchronized (PieceTableContent.this) {
+                insertPieces(offset, removed);
+            }
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            synchronized (PieceTableContent.this) {
+                removePieces(offset, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package studystash;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+// Plain text document for huge notes. The text lives in a PieceTableContent and lines are kept in a
+// primitive offset index instead of one Element per line, so opening a file costs neither a char[] copy nor millions of objects.
+// The file is indexed in slices: indexMore() runs off the EDT and commitIndexed() appends what it found as an ordinary insert event.
+public class PieceTableDocument extends AbstractDocument {
+    private final PieceTableContent content;
+    private final LineIndex lines;
+    private final RootElement root = new RootElement();
+
+    public PieceTableDocument(File file, Charset charset) throws IOException {
+        this(file, TextFormat.of(charset));
+    }
+
+    public PieceTableDocument(File file, TextFormat format) throws IOException {
+        super(new PieceTableContent(file, format.getCharset(), format.getByteOrderMarkLength()));
+        content = (PieceTableContent) getContent();
+        lines = new LineIndex(new int[] {0});
+        putProperty(PlainDocument.tabSizeAttribute, 8);
+    }
+
+    public boolean isIndexed() {
+        return content.isIndexed();
+    }
+
+    public int getIndexProgress() {
+        return content.getIndexProgress();
+    }
+
+    public void indexMore(int maxBytes) throws IOException {
+        content.indexOriginal(maxBytes);
+    }
+
+    // Appends the text indexed so far. Not undoable: it is still part of loading the file.
+    public void commitIndexed() {
+        writeLock();
+        try {
+            int offset = getLength();
+            int added = content.exposeIndexed();
+            int[] starts = content.takeLineStarts();
+            if (added == 0 && starts.length == 0) {
+                return;
+            }
+            int lastLine = lines.count - 1;
+            lines.insert(lines.count, starts);
+            DefaultDocumentEvent event = new DefaultDocumentEvent(offset, added, DocumentEvent.EventType.INSERT);
+            if (starts.length > 0) {
+                event.addEdit(new AppendChange(lastLine, starts.length));
+            }
+            event.end();
+            fireInsertUpdate(event);
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    public PieceTableContent getPieceTable() {
+        return content;
+    }
+
+    public int getLineCount() {
+        return lines.count;
+    }
+
+    public int getLineStartOffset(int line) {
+        return lines.start(line);
+    }
+
+    @Override
+    public Element getDefaultRootElement() {
+        return root;
+    }
+
+    @Override
+    public Element getParagraphElement(int pos) {
+        return root.getElement(root.getElementIndex(pos));
+    }
+
+    @Override
+    protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+        int offset = chng.getOffset();
+        int length = chng.getLength();
+        int[] newlines = findNewlines(offset, length);
+        LineChange change = new LineChange(lines.lineOf(offset), offset, length, newlines, true);
+        change.apply(true);
+        if (newlines.length > 0) {
+            chng.addEdit(change);
+        } else {
+            chng.addEdit(new ShiftOnlyEdit(change));
+        }
+        super.insertUpdate(chng, attr);
+    }
+
+    @Override
+    protected void removeUpdate(DefaultDocumentEvent chng) {
+        int offset = chng.getOffset();
+        int length = chng.getLength();
+        int[] newlines = findNewlines(offset, length);
+        LineChange change = new LineChange(lines.lineOf(offset), offset, length, newlines, false);
+        change.apply(true);
+        if (newlines.length > 0) {
+            chng.addEdit(change);
+        } else {
+            chng.addEdit(new ShiftOnlyEdit(change));
+        }
+        super.removeUpdate(chng);
+    }
+
+    // Offsets of '\n' in [offset, offset + length), relative to offset
+    private int[] findNewlines(int offset, int length) {
+        int[] found = new int[8];
+        int count = 0;
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        int position = offset;
+        int end = offset + length;
+        try {
+            while (position < end) {
+                getText(position, end - position, segment);
+                for (int i = 0; i < segment.count; i++) {
+                    if (segment.array[segment.offset + i] == '\n') {
+                        if (count == found.length) {
+                            found = Arrays.copyOf(found, count * 2);
+                        }
+                        found[count++] = position + i - offset;
+                    }
+                }
+                position += segment.count;
+            }
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    // Line start offsets. Entries from deltaFrom onwards are stored without the pending shift in delta, which is
+    // only folded into the array as edits move around, so typing in one place does not touch every later line.
+    private final class LineIndex {
+        private int[] starts;
+        private int count;
+        private int deltaFrom;
+        private int delta;
+
+        LineIndex(int[] starts) {
+            this.starts = starts;
+            this.count = starts.length;
+            this.deltaFrom = count;
+        }
+
+        int start(int line) {
+            return line < deltaFrom ? starts[line] : starts[line] + delta;
+        }
+
+        int end(int line) {
+            return line + 1 < count ? start(line + 1) : content.length();
+        }
+
+        int lineOf(int offset) {
+            int low = 0;
+            int high = count - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (start(mid) <= offset) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        private void moveDelta(int line) {
+            if (delta == 0) {
+                deltaFrom = line;
+            } else if (line > deltaFrom) {
+                for (int i = deltaFrom; i < line; i++) {
+                    starts[i] += delta;
+                }
+            } else {
+                for (int i = line; i < deltaFrom; i++) {
+                    starts[i] -= delta;
+                }
+            }
+            deltaFrom = line;
+        }
+
+        void shift(int fromLine, int amount) {
+            moveDelta(fromLine);
+            delta += amount;
+        }
+
+        void insert(int atLine, int[] newStarts) {
+            moveDelta(atLine);
+            if (count + newStarts.length > starts.length) {
+                starts = Arrays.copyOf(starts, Math.max(starts.length * 3 / 2, count + newStarts.length));
+            }
+            System.arraycopy(starts, atLine, starts, atLine + newStarts.length, count - atLine);
+            for (int i = 0; i < newStarts.length; i++) {
+                starts[atLine + i] = newStarts[i] - delta;
+            }
+            count += newStarts.length;
+        }
+
+        void remove(int fromLine, int removed) {
+            moveDelta(fromLine);
+            System.arraycopy(starts, fromLine + removed, starts, fromLine, count - fromLine - removed);
+            count -= removed;
+        }
+    }
+
+    // Records one line-structure change so it can be undone and redone, and reports it to views as an ElementChange
+    private class LineChange extends AbstractUndoableEdit implements DocumentEvent.ElementChange {
+        private final int line;
+        private final int offset;
+        private final int length;
+        private final int[] newlines;
+        private final boolean insert;
+        private final Element[] single;
+        private final Element[] spanned;
+
+        LineChange(int line, int offset, int length, int[] newlines, boolean insert) {
+            this.line = line;
+            this.offset = offset;
+            this.length = length;
+            this.newlines = newlines;
+            this.insert = insert;
+            single = new Element[] {new LineElement(line)};
+            spanned = new Element[newlines.length + 1];
+            for (int i = 0; i < spanned.length; i++) {
+                spanned[i] = new LineElement(line + i);
+            }
+        }
+
+        void apply(boolean forward) {
+            if (forward == insert) {
+                lines.shift(line + 1, length);
+                int[] newStarts = new int[newlines.length];
+                for (int i = 0; i < newlines.length; i++) {
+                    newStarts[i] = offset + newlines[i] + 1;
+                }
+                lines.insert(line + 1, newStarts);
+            } else {
+                lines.remove(line + 1, newlines.length);
+                lines.shift(line + 1, -length);
+            }
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            apply(false);
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            apply(true);
+        }
+
+        public Element getElement() {
+            return root;
+        }
+
+        public int getIndex() {
+            return line;
+        }
+
+        public Element[] getChildrenRemoved() {
+            return insert ? single : spanned;
+        }
+
+        public Element[] getChildrenAdded() {
+            return insert ? spanned : single;
+        }
+    }
+
+    // Same undo bookkeeping for edits inside one line, without reporting an ElementChange so views only repaint that line
+    private static class ShiftOnlyEdit extends AbstractUndoableEdit {
+        private final LineChange change;
+
+        ShiftOnlyEdit(LineChange change) {
+            this.change = change;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            change.apply(false);
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            change.apply(true);
+        }
+    }
+
+    private class AppendChange extends AbstractUndoableEdit implements DocumentEvent.ElementChange {
+        private final int line;
+        private final int added;
+
+        AppendChange(int line, int added) {
+            this.line = line;
+            this.added = added;
+        }
+
+        public Element getElement() {
+            return root;
+        }
+
+        public int getIndex() {
+            return line;
+        }
+
+        public Element[] getChildrenRemoved() {
+            return new Element[] {new LineElement(line)};
+        }
+
+        public Element[] getChildrenAdded() {
+            Element[] elements = new Element[added + 1];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = new LineElement(line + i);
+            }
+            return elements;
+        }
+
+        @Override
+        public boolean canUndo() {
+            return false;
+        }
+    }
+
+    private class RootElement implements Element {
+        public javax.swing.text.Document getDocument() {
+            return PieceTableDocument.this;
+        }
+
+        public Element getParentElement() {
+            return null;
+        }
+
+        public String getName() {
+            return ParagraphElementName;
+        }
+
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        public int getStartOffset() {
+            return 0;
+        }
+
+        public int getEndOffset() {
+            return content.length();
+        }
+
+        public int getElementIndex(int offset) {
+            return lines.lineOf(offset);
+        }
+
+        public int getElementCount() {
+            return lines.count;
+        }
+
+        public Element getElement(int index) {
+            return index >= 0 && index < lines.count ? new LineElement(index) : null;
+        }
+
+        public boolean isLeaf() {
+            return false;
+        }
+    }
+
+    // Line elements are handed out on demand and always read their bounds from the live index
+    private class LineElement implements Element {
+        private final int line;
+
+        LineElement(int line) {
+            this.line = line;
+        }
+
+        public javax.swing.text.Document getDocument() {
+            return PieceTableDocument.this;
+        }
+
+        public Element getParentElement() {
+            return root;
+        }
+
+        public String getName() {
+            return ContentElementName;
+        }
+
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        public int getStartOffset() {
+            return lines.start(Math.min(line, lines.count - 1));
+        }
+
+        public int getEndOffset() {
+            return lines.end(Math.min(line, lines.count - 1));
+        }
+
+        public int getElementIndex(int offset) {
+            return -1;
+        }
+
+        public int getElementCount() {
+            return 0;
+        }
+
+        public Element getElement(int index) {
+            return null;
+        }
+
+        public boolean isLeaf() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package studystash;
+
+import javax.swing.*;
+import javax.swing.event.UndoableEditListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import javax.swing.undo.CompoundEdit;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+
+// Replaces every match of a FindEngine query as positional edits instead of rebuilding the text.
+// Matches are collected on the worker thread; the edits are then applied on the EDT in batches, last match first so
+// earlier offsets stay valid, and gathered into one CompoundEdit, which rolls them back if the run does not finish.
+// stop() rather than cancel() must be used to abort: the worker has to finish rolling back the edits it already made
+// before done() runs, so the caller never sees a half-replaced document.
+public class ReplaceAllTask extends SwingWorker<Integer, Void> {
+    private static final int EDITS_PER_BATCH = 2000;
+    // Matches closer together than this are merged into one document edit, up to MAX_MERGED_SPAN chars in total
+    private static final int MAX_MERGE_GAP = 256;
+    private static final int MAX_MERGED_SPAN = 64 * 1024;
+
+    private final Document document;
+    private final FindEngine engine;
+    private final String replacement;
+    private final CompoundEdit edit = new CompoundEdit();
+    private final UndoableEditListener collector = e -> edit.addEdit(e.getEdit());
+    private final StringBuilder merged = new StringBuilder();
+    private final Segment gap = new Segment();
+
+    // Match i spans [bounds[2 * i], bounds[2 * i + 1]); replacements are only kept per match for regex queries
+    private int[] bounds = new int[64];
+    private String[] replacements;
+    private int count;
+    private volatile boolean stopRequested;
+
+    // The engine must already hold the query and is used only by this task from now on
+    public ReplaceAllTask(Document document, FindEngine engine, String replacement) {
+        this.document = document;
+        this.engine = engine;
+        this.replacement = replacement;
+        if (engine.isRegex()) {
+            replacements = new String[32];
+        }
+    }
+
+    public CompoundEdit getEdit() {
+        return edit;
+    }
+
+    public void stop() {
+        stopRequested = true;
+    }
+
+    public boolean isStopped() {
+        return stopRequested;
+    }
+
+    @Override
+    protected Integer doInBackground() throws Exception {
+        Metrics.Sample sample = Metrics.start(Metrics.Operation.REPLACE);
+        try {
+            int replaced = replaceAll();
+            if (!stopRequested) {
+                sample.stop();
+            }
+            return replaced;
+        } catch (Exception e) {
+            sample.fail(e);
+            throw e;
+        }
+    }
+
+    private int replaceAll() throws Exception {
+        collectMatches();
+        boolean[] applied = new boolean[1];
+        try {
+            for (int last = count; last > 0 && !stopRequested; last -= EDITS_PER_BATCH) {
+                int first = Math.max(0, last - EDITS_PER_BATCH);
+                int end = last;
+                runOnEventThread(() -> applyBatch(first, end));
+                setProgress(50 + (int) ((long) (count - first) * 50 / count));
+            }
+            applied[0] = !stopRequested;
+        } finally {
+            runOnEventThread(() -> {
+                edit.end();
+                if (!applied[0] && edit.canUndo()) {
+                    edit.undo();
+                }
+            });
+        }
+        return applied[0] ? count : 0;
+    }
+
+    private void collectMatches() throws BadLocationException {
+        int length = Math.max(1, document.getLength());
+        BadLocationException[] failure = new BadLocationException[1];
+        document.render(() -> {
+            try {
+                engine.findAll(document, 0, document.getLength(), (start, end) -> {
+                    addMatch(start, end);
+                    if ((count & 0xFFF) == 0) {
+                        setProgress((int) ((long) start * 50 / length));
+                    }
+                    return !stopRequested;
+                });
+            } catch (BadLocationException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        setProgress(50);
+    }
+
+    private void addMatch(int start, int end) {
+        if (2 * count + 2 > bounds.length) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        }
+        bounds[2 * count] = start;
+        bounds[2 * count + 1] = end;
+        if (replacements != null) {
+            if (count == replacements.length) {
+                replacements = Arrays.copyOf(replacements, count * 2);
+            }
+            replacements[count] = engine.expandReplacement(replacement);
+        }
+        count++;
+    }
+
+    private void applyBatch(int first, int end) {
+        document.addUndoableEditListener(collector);
+        try {
+            int i = end - 1;
+            while (i >= first) {
+                // Grow the run of matches [j, i] backwards while they sit close together
+                int j = i;
+                int spanEnd = bounds[2 * i + 1];
+                while (j > first && bounds[2 * j] - bounds[2 * (j - 1) + 1] <= MAX_MERGE_GAP
+                        && spanEnd - bounds[2 * (j - 1)] <= MAX_MERGED_SPAN) {
+                    j--;
+                }
+                int spanStart = bounds[2 * j];
+                String text = j == i ? replacementFor(i) : mergeRun(j, i);
+                if (document instanceof AbstractDocument) {
+                    ((AbstractDocument) document).replace(spanStart, spanEnd - spanStart, text, null);
+                } else {
+                    document.remove(spanStart, spanEnd - spanStart);
+                    document.insertString(spanStart, text, null);
+                }
+                i = j - 1;
+            }
+        } catch (BadLocationException e) {
+            throw new IllegalStateException("Document changed during replace", e);
+        } finally {
+            document.removeUndoableEditListener(collector);
+        }
+    }
+
+    private String replacementFor(int match) {
+        return replacements != null ? replacements[match] : replacement;
+    }
+
+    // The replacements of matches j..i with the original text between them
+    private String mergeRun(int j, int i) throws BadLocationException {
+        merged.setLength(0);
+        for (int k = j; k <= i; k++) {
+            merged.append(replacementFor(k));
+            if (k < i) {
+                int from = bounds[2 * k + 1];
+                document.getText(from, bounds[2 * (k + 1)] - from, gap);
+                merged.append(gap.array, gap.offset, gap.count);
+            }
+        }
+        return merged.toString();
+    }
+
+    private static void runOnEventThread(Runnable runnable) throws Exception {
+        try {
+            SwingUtilities.invokeAndWait(runnable);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package studystash;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.PatternSyntaxException;
+
+// Replace in All Notes. Preview is a dry run over every saved note that lists the matches per note and writes
+// nothing; Replace then rewrites only the notes the preview found matches in. Both fan out over a ForkJoinPool with
+// one worker per core and stream each note through a StreamingReplacer, so no note is ever loaded whole and each
+// one is swapped in with an atomic rename. Editing the query throws the preview away.
+public class ReplaceInNotesDialog extends JDialog {
+    private final NoteEngine engine;
+    private final Function<List<File>, List<File>> beforeReplace;
+    private final Consumer<List<File>> afterReplace;
+    private final JTextField searchField = new JTextField(30);
+    private final JTextField replaceField = new JTextField(30);
+    private final JCheckBox matchCase = new JCheckBox("Match case");
+    private final JCheckBox wholeWord = new JCheckBox("Whole word");
+    private final JCheckBox regex = new JCheckBox("Regex ($1, ${name} in the replacement)");
+    private final JButton previewButton = new JButton("Preview");
+    private final JButton replaceButton = new JButton("Replace");
+    private final JButton stopButton = new JButton("Stop");
+    private final DefaultListModel<NoteEngine.ReplaceResult> results = new DefaultListModel<>();
+    private final JProgressBar progressBar = new JProgressBar(0, 100);
+    private final JLabel summaryLabel = new JLabel(" ");
+    // Notes with matches in the last preview, which is what Replace rewrites
+    private final List<File> previewed = new ArrayList<>();
+    private SwingWorker<List<NoteEngine.ReplaceResult>, NoteEngine.ReplaceResult> task;
+
+    // beforeReplace gets the notes about to be rewritten and returns the ones that may be; afterReplace gets the
+    // notes that were rewritten. Both run on the EDT.
+    public ReplaceInNotesDialog(Frame owner, NoteEngine engine, Consumer<File> onOpen,
+                                Function<List<File>, List<File>> beforeReplace, Consumer<List<File>> afterReplace) {
+        super(owner, "Replace in All Notes", false);
+        this.engine = engine;
+        this.beforeReplace = beforeReplace;
+        this.afterReplace = afterReplace;
+
+        JList<NoteEngine.ReplaceResult> resultList = new JList<>(results);
+        resultList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                NoteEngine.ReplaceResult result = resultList.getSelectedValue();
+                if (e.getClickCount() == 2 && result != null) {
+                    onOpen.accept(result.getFile());
+                }
+            }
+        });
+        javax.swing.event.DocumentListener invalidate = new javax.swing.event.DocumentListener() {
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                invalidatePreview();
+            }
+
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                invalidatePreview();
+            }
+
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                invalidatePreview();
+            }
+        };
+        searchField.getDocument().addDocumentListener(invalidate);
+        replaceField.getDocument().addDocumentListener(invalidate);
+        matchCase.addActionListener(e -> invalidatePreview());
+        wholeWord.addActionListener(e -> invalidatePreview());
+        regex.addActionListener(e -> invalidatePreview());
+        searchField.addActionListener(e -> preview());
+        previewButton.addActionListener(e -> preview());
+        replaceButton.addActionListener(e -> replace());
+        stopButton.addActionListener(e -> stop());
+        replaceButton.setEnabled(false);
+        stopButton.setEnabled(false);
+        progressBar.setStringPainted(true);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                stop();
+            }
+        });
+
+        JPanel form = new JPanel(new GridLayout(0, 1));
+        form.add(new JLabel("Find in all saved notes:"));
+        form.add(searchField);
+        form.add(new JLabel("Replace with:"));
+        form.add(replaceField);
+        form.add(matchCase);
+        form.add(wholeWord);
+        form.add(regex);
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(previewButton);
+        buttons.add(replaceButton);
+        buttons.add(stopButton);
+        JPanel top = new JPanel(new BorderLayout());
+        top.add(form, BorderLayout.CENTER);
+        top.add(buttons, BorderLayout.SOUTH);
+        JPanel bottom = new JPanel(new BorderLayout());
+        bottom.add(progressBar, BorderLayout.NORTH);
+        bottom.add(summaryLabel, BorderLayout.SOUTH);
+        add(top, BorderLayout.NORTH);
+        add(new JScrollPane(resultList), BorderLayout.CENTER);
+        add(bottom, BorderLayout.SOUTH);
+        setDefaultCloseOperation(HIDE_ON_CLOSE);
+        setSize(700, 550);
+    }
+
+    public void setQuery(String query, boolean matchCase, boolean wholeWord, boolean regex) {
+        searchField.setText(query);
+        this.matchCase.setSelected(matchCase);
+        this.wholeWord.setSelected(wholeWord);
+        this.regex.setSelected(regex);
+    }
+
+    private boolean isRunning() {
+        return task != null && !task.isDone();
+    }
+
+    private void invalidatePreview() {
+        previewed.clear();
+        replaceButton.setEnabled(false);
+    }
+
+    private void stop() {
+        if (isRunning() && stopButton.isEnabled()) {
+            task.cancel(true);
+        }
+    }
+
+    private void preview() {
+        if (isRunning() || searchField.getText().isEmpty() || !isValidQuery()) {
+            return;
+        }
+        List<File> notes = new ArrayList<>();
+        for (String path : engine.getCatalog().getPaths()) {
+            File note = new File(path);
+            if (note.isFile()) {
+                notes.add(note);
+            }
+        }
+        run(notes, true, 0);
+    }
+
+    private void replace() {
+        if (isRunning() || previewed.isEmpty()) {
+            return;
+        }
+        String question = "Replace in " + previewed.size() + (previewed.size() == 1 ? " note" : " notes")
+                + "? The notes are rewritten on disk and this cannot be undone.";
+        if (JOptionPane.showConfirmDialog(this, question, "Replace in All Notes", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return;
+        }
+        List<File> notes = beforeReplace.apply(new ArrayList<>(previewed));
+        int skipped = previewed.size() - notes.size();
+        invalidatePreview();
+        run(notes, false, skipped);
+    }
+
+    private boolean isValidQuery() {
+        try {
+            FindEngine findEngine = new FindEngine();
+            findEngine.setQuery(searchField.getText(), matchCase.isSelected(), wholeWord.isSelected(), regex.isSelected());
+            findEngine.checkReplacement(replaceField.getText());
+            return true;
+        } catch (PatternSyntaxException e) {
+            JOptionPane.showMessageDialog(this, "Invalid expression: " + e.getDescription(), "Replace in All Notes", JOptionPane.ERROR_MESSAGE);
+            return false;
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, "Invalid replacement: " + e.getMessage(), "Replace in All Notes", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+    }
+
+    // Only a preview can be stopped; a replace always runs to the end so the editor knows which notes changed
+    private void run(List<File> notes, boolean dryRun, int skipped) {
+        String query = searchField.getText();
+        String replacement = replaceField.getText();
+        boolean caseSensitive = matchCase.isSelected();
+        boolean wholeWords = wholeWord.isSelected();
+        boolean regularExpression = regex.isSelected();
+        long bytes = 0;
+        for (File note : notes) {
+            bytes += note.length();
+        }
+        long totalBytes = bytes;
+        long start = System.nanoTime();
+        results.clear();
+        progressBar.setValue(0);
+        summaryLabel.setText((dryRun ? "Counting matches in " : "Replacing in ") + notes.size() + " notes...");
+
+        task = new SwingWorker<List<NoteEngine.ReplaceResult>, NoteEngine.ReplaceResult>() {
+            @Override
+            protected List<NoteEngine.ReplaceResult> doInBackground() throws InterruptedException {
+                AtomicInteger done = new AtomicInteger();
+                ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+                try {
+                    return engine.replaceInNotes(notes, query, caseSensitive, wholeWords, regularExpression, replacement, dryRun, pool, result -> {
+                        publish(result);
+                        setProgress(done.incrementAndGet() * 100 / notes.size());
+                    });
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+
+            @Override
+            protected void process(List<NoteEngine.ReplaceResult> chunks) {
+                for (NoteEngine.ReplaceResult result : chunks) {
+                    if (result.getMatches() > 0 || result.getError() != null) {
+                        results.addElement(result);
+                    }
+                }
+            }
+
+            @Override
+            protected void done() {
+                previewButton.setEnabled(true);
+                stopButton.setEnabled(false);
+                if (isCancelled()) {
+                    summaryLabel.setText("Preview stopped");
+                    return;
+                }
+                List<File> changed = new ArrayList<>();
+                long matches = 0;
+                int failed = 0;
+                try {
+                    for (NoteEngine.ReplaceResult result : get()) {
+                        if (result.getError() != null) {
+                            failed++;
+                        } else if (result.getMatches() > 0) {
+                            changed.add(result.getFile());
+                            matches += result.getMatches();
+                        }
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                    summaryLabel.setText("Error: " + e.getMessage());
+                    if (!dryRun) {
+                        afterReplace.accept(changed);
+                    }
+                    return;
+                }
+                double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+                String rate = String.format(" in %.1f s (%.1f MB/s)", seconds, totalBytes / (1024.0 * 1024.0) / seconds);
+                String failures = failed > 0 ? "; " + failed + " could not be read or written" : "";
+                if (dryRun) {
+                    previewed.addAll(changed);
+                    replaceButton.setEnabled(!previewed.isEmpty());
+                    summaryLabel.setText(matches + " matches in " + changed.size() + " of " + notes.size() + " notes" + rate + failures);
+                } else {
+                    afterReplace.accept(changed);
+                    String left = skipped > 0 ? "; " + skipped + " open with unsaved changes were left out" : "";
+                    summaryLabel.setText("Replaced " + matches + " matches in " + changed.size() + " notes" + rate + failures + left);
+                }
+            }
+        };
+        task.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                progressBar.setValue((Integer) e.getNewValue());
+            }
+        });
+        previewButton.setEnabled(false);
+        replaceButton.setEnabled(false);
+        stopButton.setEnabled(dryRun);
+        task.execute();
+    }
+}
@@ -1,21 +1,27 @@
+package studystash;
+
 import javax.imageio.ImageIO;
 import javax.swing.*;
+import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
-import javax.swing.undo.UndoManager;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
 public class StudyStash extends JFrame {
     private JTextArea textArea;
-    private UndoManager undoManager;
+    private JLabel statusLabel;
+    private UndoHistory undoHistory;
     private boolean isFileSaved = true;
-    private List<String> savedNotes = new ArrayList<>();
     private List<String> academicCalendars = new ArrayList<>();
-    private static final String SAVED_NOTES_FILE = "saved_notes.ser";
+    // Notes list, opening and saving go through the same core code as StudyStash3
+    private final NoteEngine noteEngine = new NoteEngine(new File("."), Charset.defaultCharset());
+    // Charset, BOM and line separator of the open note, written back the same way on save
+    private TextFormat format = TextFormat.of(noteEngine.getCharset());
     private static final String ACADEMIC_CALENDARS_DIR = "academic_calendars/";
 
     public StudyStash() {
@@ -27,8 +33,11 @@ public class StudyStash extends JFrame {
         JScrollPane scrollPane = new JScrollPane(textArea);
         add(scrollPane, BorderLayout.CENTER);
 
-        undoManager = new UndoManager();
-        textArea.getDocument().addUndoableEditListener(undoManager);
+        statusLabel = new JLabel(" ");
+        add(statusLabel, BorderLayout.SOUTH);
+
+        undoHistory = new UndoHistory();
+        undoHistory.install(textArea.getDocument());
 
         JMenuBar menuBar = new JMenuBar();
         menuBar.setBackground(Color.GRAY); // Set background color of menu bar
@@ -53,9 +62,11 @@ public class StudyStash extends JFrame {
         JMenuItem copyMenuItem = new JMenuItem("Copy");
         JMenuItem pasteMenuItem = new JMenuItem("Paste");
         JMenuItem undoMenuItem = new JMenuItem("Undo");
+        JMenuItem redoMenuItem = new JMenuItem("Redo");
         editMenu.add(copyMenuItem);
         editMenu.add(pasteMenuItem);
         editMenu.add(undoMenuItem);
+        editMenu.add(redoMenuItem);
         menuBar.add(editMenu);
 
         JMenu preferencesMenu = new JMenu("Preferences");
@@ -81,6 +92,7 @@ public class StudyStash extends JFrame {
         copyMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_C, ActionEvent.CTRL_MASK));
         pasteMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_V, ActionEvent.CTRL_MASK));
         undoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, ActionEvent.CTRL_MASK));
+        redoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, ActionEvent.CTRL_MASK));
 
         // Add action listeners
         newMenuItem.addActionListener(e -> newFile());
@@ -89,6 +101,7 @@ public class StudyStash extends JFrame {
         copyMenuItem.addActionListener(e -> textArea.copy());
         pasteMenuItem.addActionListener(e -> textArea.paste());
         undoMenuItem.addActionListener(e -> undo());
+        redoMenuItem.addActionListener(e -> redo());
         textColorMenuItem.addActionListener(e -> changeTextColor());
         backgroundColorMenuItem.addActionListener(e -> changeBackgroundColor());
         fontSizeMenuItem.addActionListener(e -> changeFontSize());
@@ -101,7 +114,7 @@ public class StudyStash extends JFrame {
             @Override
             public void windowClosing(WindowEvent e) {
                 super.windowClosing(e);
-                saveNotesToFile();
+                noteEngine.close();
                 dispose();
             }
         });
@@ -120,7 +133,7 @@ public class StudyStash extends JFrame {
             }
         });
 
-        loadNotesFromFile();
+        noteEngine.loadCatalog();
         loadAcademicCalendars();
     }
 
@@ -143,10 +156,10 @@ public class StudyStash extends JFrame {
         int result = fileChooser.showSaveDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-                writer.write(textArea.getText());
+            try {
+                new DocumentSaver(textArea.getDocument(), file, format).call();
                 isFileSaved = true;
-                savedNotes.add(file.getAbsolutePath());
+                noteEngine.getCatalog().recordOpened(file);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -172,16 +185,12 @@ public class StudyStash extends JFrame {
         int result = fileChooser.showOpenDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                StringBuilder sb = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    sb.append(line);
-                    sb.append("\n");
-                }
-                textArea.setText(sb.toString());
+            try {
+                TextFormat detected = TextFormat.detect(file, noteEngine.getCharset());
+                loadText(readText(file, detected));
+                format = detected;
                 isFileSaved = true;
-                savedNotes.add(file.getAbsolutePath());
+                noteEngine.getCatalog().recordOpened(file);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -189,6 +198,7 @@ public class StudyStash extends JFrame {
     }
 
     private void showSavedNotes() {
+        List<String> savedNotes = noteEngine.getCatalog().getPaths();
         JFrame notesFrame = new JFrame("Saved Notes");
         JPanel panel = new JPanel(new GridLayout(savedNotes.size(), 1));
 
@@ -211,14 +221,9 @@ public class StudyStash extends JFrame {
         JScrollPane scrollPane = new JScrollPane(noteContentArea);
         noteContentFrame.add(scrollPane);
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(notePath))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
-                sb.append("\n");
-            }
-            noteContentArea.setText(sb.toString());
+        try {
+            File file = new File(notePath);
+            noteContentArea.setText(readText(file, TextFormat.detect(file, noteEngine.getCharset())));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -229,15 +234,25 @@ public class StudyStash extends JFrame {
     }
 
     private void undo() {
-        if (undoManager.canUndo()) {
+        if (undoHistory.canUndo()) {
             try {
-                undoManager.undo();
+                undoHistory.undo();
             } catch (CannotUndoException ex) {
                 ex.printStackTrace();
             }
         }
     }
 
+    private void redo() {
+        if (undoHistory.canRedo()) {
+            try {
+                undoHistory.redo();
+            } catch (CannotRedoException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
     private void changeTextColor() {
         Color color = JColorChooser.showDialog(this, "Choose Text Color", textArea.getForeground());
         if (color != null) {
@@ -268,49 +283,70 @@ public class StudyStash extends JFrame {
     }
 
     private void clearTextArea() {
-        textArea.setText("");
+        loadText("");
+        format = TextFormat.of(noteEngine.getCharset());
         isFileSaved = true;
     }
 
-    private void saveNotesToFile() {
-        try (ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(SAVED_NOTES_FILE))) {
-            outputStream.writeObject(savedNotes);
-        } catch (IOException e) {
-            e.printStackTrace();
+    // Decodes the note past its BOM; line breaks become "\n" as the text area expects
+    private static String readText(File file, TextFormat format) throws IOException {
+        try (BufferedReader reader = new BufferedReader(format.newReader(file))) {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                sb.append(line);
+                sb.append("\n");
+            }
+            return sb.toString();
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void loadNotesFromFile() {
-        try (ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(SAVED_NOTES_FILE))) {
-            Object obj = inputStream.readObject();
-            if (obj instanceof List) {
-                savedNotes = (List<String>) obj;
-            }
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-        }
+    // Opening or clearing a note is not an edit: the text is put in unrecorded and the history starts afresh
+    private void loadText(String text) {
+        textArea.getDocument().removeUndoableEditListener(undoHistory);
+        textArea.setText(text);
+        undoHistory.install(textArea.getDocument());
     }
 
+
     private void addAcademicCalendar() {
         JFileChooser fileChooser = new JFileChooser();
         int result = fileChooser.showOpenDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
-            try {
+            if (PdfCalendarImporter.isPdf(file)) {
                 convertPDFToJPEG(file);
-                academicCalendars.add(file.getName());
-                JOptionPane.showMessageDialog(this, "Academic calendar added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-            } catch (IOException e) {
-                e.printStackTrace();
-                JOptionPane.showMessageDialog(this, "Error adding academic calendar.", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
             }
+            academicCalendars.add(file.getName());
+            JOptionPane.showMessageDialog(this, "Academic calendar added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
         }
     }
 
-    private void convertPDFToJPEG(File pdfFile) throws IOException {
-        // Implement PDF to JPEG conversion here
-        // For simplicity, we are not implementing this in this example
+    // Renders the pages in the background; progress and the pages per second go in the status bar
+    private void convertPDFToJPEG(File pdfFile) {
+        statusLabel.setText("Importing " + pdfFile.getName());
+        CalendarImportWorker importer = new CalendarImportWorker(new PdfCalendarImporter(pdfFile, new File(ACADEMIC_CALENDARS_DIR))) {
+            @Override
+            protected void process(List<Integer> pages) {
+                statusLabel.setText(String.format("Importing %s: page %d of %d", pdfFile.getName(), getImporter().getPagesDone(), getImporter().getPageCount()));
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    academicCalendars.add(pdfFile.getName());
+                    statusLabel.setText(getImporter().getThroughputSummary());
+                    JOptionPane.showMessageDialog(StudyStash.this, "Academic calendar added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                    e.printStackTrace();
+                    statusLabel.setText(" ");
+                    JOptionPane.showMessageDialog(StudyStash.this, "Error adding academic calendar.", "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        importer.execute();
     }
 
     private void viewAcademicCalendar() {
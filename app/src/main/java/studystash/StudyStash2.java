@@ -1,18 +1,22 @@
+package studystash;
+
 import javax.swing.*;
+import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
-import javax.swing.undo.UndoManager;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.charset.Charset;
 import java.util.List;
 
 public class StudyStash2 extends JFrame {
     private JTextArea textArea;
-    private UndoManager undoManager;
+    private UndoHistory undoHistory;
     private boolean isFileSaved = true;
-    private List<String> savedNotes = new ArrayList<>();
-    private static final String SAVED_NOTES_FILE = "saved_notes.ser";
+    // Notes list, opening and saving go through the same core code as StudyStash3
+    private final NoteEngine noteEngine = new NoteEngine(new File("."), Charset.defaultCharset());
+    // Charset, BOM and line separator of the open note, written back the same way on save
+    private TextFormat format = TextFormat.of(noteEngine.getCharset());
 
     public StudyStash2() {
         setTitle("Simple Notepad");
@@ -23,8 +27,8 @@ public class StudyStash2 extends JFrame {
         JScrollPane scrollPane = new JScrollPane(textArea);
         add(scrollPane, BorderLayout.CENTER);
 
-        undoManager = new UndoManager();
-        textArea.getDocument().addUndoableEditListener(undoManager);
+        undoHistory = new UndoHistory();
+        undoHistory.install(textArea.getDocument());
 
         JMenuBar menuBar = new JMenuBar();
         menuBar.setBackground(Color.GRAY); // Set background color of menu bar
@@ -44,9 +48,11 @@ public class StudyStash2 extends JFrame {
         JMenuItem copyMenuItem = new JMenuItem("Copy");
         JMenuItem pasteMenuItem = new JMenuItem("Paste");
         JMenuItem undoMenuItem = new JMenuItem("Undo");
+        JMenuItem redoMenuItem = new JMenuItem("Redo");
         editMenu.add(copyMenuItem);
         editMenu.add(pasteMenuItem);
         editMenu.add(undoMenuItem);
+        editMenu.add(redoMenuItem);
         menuBar.add(editMenu);
 
         JMenu preferencesMenu = new JMenu("Preferences");
@@ -101,6 +107,12 @@ public class StudyStash2 extends JFrame {
             }
         });
 
+        redoMenuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                redo();
+            }
+        });
+
         textColorMenuItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 changeTextColor();
@@ -135,7 +147,7 @@ public class StudyStash2 extends JFrame {
             @Override
             public void windowClosing(WindowEvent e) {
                 super.windowClosing(e);
-                saveNotesToFile();
+                noteEngine.close();
                 dispose();
             }
         });
@@ -154,7 +166,7 @@ public class StudyStash2 extends JFrame {
             }
         });
 
-        loadNotesFromFile();
+        noteEngine.loadCatalog();
     }
 
     private void newFile() {
@@ -176,10 +188,10 @@ public class StudyStash2 extends JFrame {
         int result = fileChooser.showSaveDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-                writer.write(textArea.getText());
+            try {
+                new DocumentSaver(textArea.getDocument(), file, format).call();
                 isFileSaved = true;
-                savedNotes.add(file.getAbsolutePath());
+                noteEngine.getCatalog().recordOpened(file);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -205,16 +217,12 @@ public class StudyStash2 extends JFrame {
         int result = fileChooser.showOpenDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                StringBuilder sb = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    sb.append(line);
-                    sb.append("\n");
-                }
-                textArea.setText(sb.toString());
+            try {
+                TextFormat detected = TextFormat.detect(file, noteEngine.getCharset());
+                loadText(readText(file, detected));
+                format = detected;
                 isFileSaved = true;
-                savedNotes.add(file.getAbsolutePath());
+                noteEngine.getCatalog().recordOpened(file);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -222,6 +230,7 @@ public class StudyStash2 extends JFrame {
     }
 
     private void showSavedNotes() {
+        List<String> savedNotes = noteEngine.getCatalog().getPaths();
         JFrame notesFrame = new JFrame("Saved Notes");
         JPanel panel = new JPanel(new GridLayout(savedNotes.size(), 1));
 
@@ -248,14 +257,9 @@ public class StudyStash2 extends JFrame {
         JScrollPane scrollPane = new JScrollPane(noteContentArea);
         noteContentFrame.add(scrollPane);
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(notePath))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
-                sb.append("\n");
-            }
-            noteContentArea.setText(sb.toString());
+        try {
+            File file = new File(notePath);
+            noteContentArea.setText(readText(file, TextFormat.detect(file, noteEngine.getCharset())));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -266,15 +270,25 @@ public class StudyStash2 extends JFrame {
     }
 
     private void undo() {
-        if (undoManager.canUndo()) {
+        if (undoHistory.canUndo()) {
             try {
-                undoManager.undo();
+                undoHistory.undo();
             } catch (CannotUndoException ex) {
                 ex.printStackTrace();
             }
         }
     }
 
+    private void redo() {
+        if (undoHistory.canRedo()) {
+            try {
+                undoHistory.redo();
+            } catch (CannotRedoException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
     private void changeTextColor() {
         Color color = JColorChooser.showDialog(this, "Choose Text Color", textArea.getForeground());
         if (color != null) {
@@ -305,30 +319,32 @@ public class StudyStash2 extends JFrame {
     }
 
     private void clearTextArea() {
-        textArea.setText("");
+        loadText("");
+        format = TextFormat.of(noteEngine.getCharset());
         isFileSaved = true;
     }
 
-    private void saveNotesToFile() {
-        try (ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(SAVED_NOTES_FILE))) {
-            outputStream.writeObject(savedNotes);
-        } catch (IOException e) {
-            e.printStackTrace();
+    // Decodes the note past its BOM; line breaks become "\n" as the text area expects
+    private static String readText(File file, TextFormat format) throws IOException {
+        try (BufferedReader reader = new BufferedReader(format.newReader(file))) {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                sb.append(line);
+                sb.append("\n");
+            }
+            return sb.toString();
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void loadNotesFromFile() {
-        try (ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(SAVED_NOTES_FILE))) {
-            Object obj = inputStream.readObject();
-            if (obj instanceof List) {
-                savedNotes = (List<String>) obj;
-            }
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-        }
+    // Opening or clearing a note is not an edit: the text is put in unrecorded and the history starts afresh
+    private void loadText(String text) {
+        textArea.getDocument().removeUndoableEditListener(undoHistory);
+        textArea.setText(text);
+        undoHistory.install(textArea.getDocument());
     }
 
+
     public static void main(String[] args) {
         SwingUtilities.invokeLater(new Runnable() {
             public void run() {
@@ -0,0 +1,1624 @@
+package studystash;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Highlighter;
+import javax.swing.text.PlainDocument;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+public class StudyStash3 extends JFrame {
+    private JTextArea textArea;
+    private JScrollPane scrollPane;
+    private JTabbedPane tabbedPane;
+    private final List<NoteTab> tabs = new ArrayList<>();
+    private NoteTab activeTab;
+    private NoteTab loadingTab;
+    private NoteTab savingTab;
+    private NoteTab replacingTab;
+    private boolean addingTab;
+    // Catalog, search index and calendars, kept in the working directory
+    private final NoteEngine noteEngine = new NoteEngine(new File("."), Charset.defaultCharset());
+    private NoteCatalog noteCatalog = noteEngine.getCatalog();
+    private NoteBrowser noteBrowser;
+    private NotePreviewCache notePreviewCache;
+    private static final String EDIT_JOURNAL_DIR = "edit_journals/";
+    // The single journal kept by versions before tabs; still read once for recovery
+    private static final String EDIT_JOURNAL_FILE = "edit_journal.bin";
+    // Tabs beyond this many, counting the selected one, hibernate in least recently selected order
+    private static final int MAX_LIVE_TABS = 3;
+    private static final String THUMBNAIL_CACHE_DIR = "thumbnail_cache/";
+    // Where FreezeWatchdog writes the EDT stacks of UI freezes
+    private static final String FREEZE_LOG_FILE = "freeze_log.txt";
+    // -Dstudystash.exitAfterStartup=true makes a run exit as soon as startup is done, for CDS training and benchmarks
+    public static final String EXIT_AFTER_STARTUP_PROPERTY = "studystash.exitAfterStartup";
+    private static final int THUMBNAIL_WIDTH = 760;
+    private static final long THUMBNAIL_MEMORY_BYTES = 64L * 1024 * 1024;
+    private static final int MAX_SEARCH_HITS = 100;
+    private static final int MAX_VISIBLE_HIGHLIGHTS = 1000;
+    // Files at least this big are mapped into a piece table instead of being copied into the heap
+    public static final long MAPPED_FILE_THRESHOLD = 32L * 1024 * 1024;
+    private static final int FIRST_INDEX_SLICE = 256 * 1024;
+    private static final int INDEX_SLICE = 4 * 1024 * 1024;
+    private JPanel loadPanel;
+    private JProgressBar loadProgressBar;
+    private SwingWorker<?, ?> fileLoader;
+    private DocumentSaveWorker fileSaver;
+    private ReplaceAllTask replaceTask;
+    private ReplaceInNotesDialog replaceInNotesDialog;
+    private DiagnosticsDialog diagnosticsDialog;
+    // Set while Replace in All Notes rewrites notes on disk; every tab counts as busy until it is done
+    private boolean bulkReplacing;
+    // The catalog loads after the window is up; what needs it before then waits in afterCatalogLoad
+    private boolean catalogLoaded;
+    private final List<Runnable> afterCatalogLoad = new ArrayList<>();
+    private boolean painted;
+    private CalendarImportWorker calendarImporter;
+    private JLabel statusLabel;
+    private Charset noteCharset = noteEngine.getCharset();
+    private NoteIndex noteIndex = noteEngine.getIndex();
+    private ThumbnailCache thumbnailCache = new ThumbnailCache(new File(THUMBNAIL_CACHE_DIR), THUMBNAIL_WIDTH, THUMBNAIL_MEMORY_BYTES);
+    private NoteSync noteSync = new NoteSync(noteCatalog, noteIndex, noteEngine.getCalendarDirectory(), NoteEngine::isCalendarImage, () -> noteCharset);
+    private javax.swing.event.DocumentListener documentListener;
+    private JCheckBoxMenuItem largeFileViewMenuItem;
+    private JCheckBoxMenuItem syntaxHighlightingMenuItem;
+    private JCheckBoxMenuItem outlineMenuItem;
+    private OutlinePanel outlinePanel;
+    private final FindEngine findEngine = new FindEngine();
+    private JDialog findDialog;
+    private JTextField findField;
+    private JCheckBox matchCaseCheckBox;
+    private JCheckBox wholeWordCheckBox;
+    private JCheckBox regexCheckBox;
+    private JLabel findStatusLabel;
+    private final List<Object> findHighlights = new ArrayList<>();
+    private Timer highlightTimer;
+
+    public StudyStash3() {
+        setTitle("StudyStash");
+        setSize(600, 400);
+        setDefaultCloseOperation(EXIT_ON_CLOSE);
+
+        textArea = new JTextArea();
+        scrollPane = new JScrollPane(textArea);
+        // One text area is shared by all tabs: it moves into the selected tab and shows that tab's document
+        tabbedPane = new JTabbedPane(JTabbedPane.TOP, JTabbedPane.SCROLL_TAB_LAYOUT);
+        tabbedPane.addChangeListener(e -> {
+            if (!addingTab) {
+                showTab(getSelectedTab());
+            }
+        });
+        add(tabbedPane, BorderLayout.CENTER);
+        outlinePanel = new OutlinePanel(textArea);
+        add(outlinePanel, BorderLayout.WEST);
+
+        // Matches are only highlighted on screen, so they are refreshed shortly after every scroll or edit
+        highlightTimer = new Timer(100, e -> highlightVisibleMatches());
+        highlightTimer.setRepeats(false);
+        scrollPane.getViewport().addChangeListener(e -> highlightTimer.restart());
+
+        loadProgressBar = new JProgressBar(0, 100);
+        loadProgressBar.setStringPainted(true);
+        JButton cancelLoadButton = new JButton("Cancel");
+        cancelLoadButton.addActionListener(e -> cancelBackgroundTask());
+        loadPanel = new JPanel(new BorderLayout());
+        loadPanel.add(loadProgressBar, BorderLayout.CENTER);
+        loadPanel.add(cancelLoadButton, BorderLayout.EAST);
+        loadPanel.setVisible(false);
+        statusLabel = new JLabel(" ");
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.add(statusLabel, BorderLayout.WEST);
+        statusPanel.add(loadPanel, BorderLayout.CENTER);
+        add(statusPanel, BorderLayout.SOUTH);
+
+        JMenuBar menuBar = new JMenuBar();
+        menuBar.setBackground(Color.GRAY);
+
+        JMenu fileMenu = new JMenu("File");
+        JMenuItem newMenuItem = new JMenuItem("New");
+        JMenuItem saveMenuItem = new JMenuItem("Save");
+        JMenuItem openMenuItem = new JMenuItem("Open");
+        JMenuItem closeTabMenuItem = new JMenuItem("Close Tab");
+        JMenuItem showNotesMenuItem = new JMenuItem("Show Saved Notes");
+        JMenuItem addCalendarMenuItem = new JMenuItem("Add Academic Calendar");
+        JMenuItem viewCalendarMenuItem = new JMenuItem("View Academic Calendar");
+        fileMenu.add(newMenuItem);
+        fileMenu.add(saveMenuItem);
+        fileMenu.add(openMenuItem);
+        fileMenu.add(closeTabMenuItem);
+        fileMenu.add(showNotesMenuItem);
+        fileMenu.addSeparator();
+        fileMenu.add(addCalendarMenuItem);
+        fileMenu.add(viewCalendarMenuItem);
+        menuBar.add(fileMenu);
+
+        JMenu editMenu = new JMenu("Edit");
+        JMenuItem copyMenuItem = new JMenuItem("Copy");
+        JMenuItem pasteMenuItem = new JMenuItem("Paste");
+        JMenuItem undoMenuItem = new JMenuItem("Undo");
+        JMenuItem redoMenuItem = new JMenuItem("Redo");
+        JMenuItem findMenuItem = new JMenuItem("Find");
+        JMenuItem findNextMenuItem = new JMenuItem("Find Next");
+        JMenuItem findPreviousMenuItem = new JMenuItem("Find Previous");
+        JMenuItem replaceMenuItem = new JMenuItem("Replace");
+        JMenuItem replaceInNotesMenuItem = new JMenuItem("Replace in All Notes");
+        JMenuItem searchAllMenuItem = new JMenuItem("Search All Notes");
+        editMenu.add(copyMenuItem);
+        editMenu.add(pasteMenuItem);
+        editMenu.add(undoMenuItem);
+        editMenu.add(redoMenuItem);
+        editMenu.add(findMenuItem);
+        editMenu.add(findNextMenuItem);
+        editMenu.add(findPreviousMenuItem);
+        editMenu.add(replaceMenuItem);
+        editMenu.add(replaceInNotesMenuItem);
+        editMenu.add(searchAllMenuItem);
+        menuBar.add(editMenu);
+
+        JMenu preferencesMenu = new JMenu("Preferences");
+        JMenuItem textColorMenuItem = new JMenuItem("Change Text Color");
+        JMenuItem backgroundColorMenuItem = new JMenuItem("Change Background Color");
+        JMenuItem fontSizeMenuItem = new JMenuItem("Change Font Size");
+        largeFileViewMenuItem = new JCheckBoxMenuItem("Large File View");
+        syntaxHighlightingMenuItem = new JCheckBoxMenuItem("Syntax Highlighting", true);
+        outlineMenuItem = new JCheckBoxMenuItem("Outline", true);
+        preferencesMenu.add(textColorMenuItem);
+        preferencesMenu.add(backgroundColorMenuItem);
+        preferencesMenu.add(fontSizeMenuItem);
+        preferencesMenu.add(largeFileViewMenuItem);
+        preferencesMenu.add(syntaxHighlightingMenuItem);
+        preferencesMenu.add(outlineMenuItem);
+        menuBar.add(preferencesMenu);
+
+        JMenu helpMenu = new JMenu("Help");
+        JMenuItem diagnosticsMenuItem = new JMenuItem("Diagnostics");
+        JMenuItem aboutMenuItem = new JMenuItem("About");
+        helpMenu.add(diagnosticsMenuItem);
+        helpMenu.add(aboutMenuItem);
+        menuBar.add(helpMenu);
+
+        setJMenuBar(menuBar);
+
+        newMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_N, ActionEvent.CTRL_MASK));
+        saveMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_S, ActionEvent.CTRL_MASK));
+        openMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_O, ActionEvent.CTRL_MASK));
+        closeTabMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_W, ActionEvent.CTRL_MASK));
+        copyMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_C, ActionEvent.CTRL_MASK));
+        pasteMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_V, ActionEvent.CTRL_MASK));
+        undoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, ActionEvent.CTRL_MASK));
+        redoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, ActionEvent.CTRL_MASK));
+        findMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, ActionEvent.CTRL_MASK));
+        findNextMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0));
+        findPreviousMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F3, ActionEvent.SHIFT_MASK));
+        replaceMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_H, ActionEvent.CTRL_MASK));
+        replaceInNotesMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_H, ActionEvent.CTRL_MASK | ActionEvent.SHIFT_MASK));
+        searchAllMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, ActionEvent.CTRL_MASK | ActionEvent.SHIFT_MASK));
+
+        newMenuItem.addActionListener(e -> newFile());
+        saveMenuItem.addActionListener(e -> saveFile(null));
+        openMenuItem.addActionListener(e -> openFile());
+        closeTabMenuItem.addActionListener(e -> closeCurrentTab());
+        copyMenuItem.addActionListener(e -> textArea.copy());
+        pasteMenuItem.addActionListener(e -> textArea.paste());
+        undoMenuItem.addActionListener(e -> undo());
+        redoMenuItem.addActionListener(e -> redo());
+        textColorMenuItem.addActionListener(e -> changeTextColor());
+        backgroundColorMenuItem.addActionListener(e -> changeBackgroundColor());
+        fontSizeMenuItem.addActionListener(e -> changeFontSize());
+        largeFileViewMenuItem.addActionListener(e -> setLargeFileView(largeFileViewMenuItem.isSelected()));
+        syntaxHighlightingMenuItem.addActionListener(e -> setSyntaxHighlighting(syntaxHighlightingMenuItem.isSelected()));
+        outlineMenuItem.addActionListener(e -> {
+            outlinePanel.setVisible(outlineMenuItem.isSelected());
+            revalidate();
+        });
+        diagnosticsMenuItem.addActionListener(e -> showDiagnostics());
+        aboutMenuItem.addActionListener(e -> displayAboutMessage());
+        showNotesMenuItem.addActionListener(e -> showSavedNotes());
+        addCalendarMenuItem.addActionListener(e -> addAcademicCalendar());
+        viewCalendarMenuItem.addActionListener(e -> viewAcademicCalendar());
+        findMenuItem.addActionListener(e -> showFindDialog());
+        findNextMenuItem.addActionListener(e -> findNext(true));
+        findPreviousMenuItem.addActionListener(e -> findNext(false));
+        replaceMenuItem.addActionListener(e -> showReplaceDialog());
+        replaceInNotesMenuItem.addActionListener(e -> showReplaceInNotesDialog());
+        searchAllMenuItem.addActionListener(e -> showSearchAllNotesDialog());
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                super.windowClosing(e);
+                noteSync.close();
+                for (NoteTab tab : tabs) {
+                    // Unsaved tabs leave their journal and swap file behind for the next run to recover
+                    tab.close(!tab.isSaved());
+                }
+                noteEngine.close();
+                dispose();
+            }
+        });
+
+        // Listed before any new journal is started; they are read in the background with the catalog
+        List<File> oldJournals = listOldJournals();
+
+        // Attached to every tab's document, shown or not, so edits made in the background are tracked too
+        documentListener = new javax.swing.event.DocumentListener() {
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                markUnsaved(NoteTab.of(e.getDocument()));
+            }
+
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                NoteTab tab = NoteTab.of(e.getDocument());
+                markUnsaved(tab);
+                tab.getJournal().recordRemove(e);
+                NoteOutline outline = NoteOutline.of(e.getDocument());
+                if (outline != null) {
+                    outline.removeUpdate(e);
+                }
+                highlightTimer.restart();
+            }
+
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                NoteTab tab = NoteTab.of(e.getDocument());
+                markUnsaved(tab);
+                tab.getJournal().recordInsert(e);
+                NoteOutline outline = NoteOutline.of(e.getDocument());
+                if (outline != null) {
+                    outline.insertUpdate(e);
+                }
+                highlightTimer.restart();
+            }
+        };
+
+        // Notes deleted or edited outside the app and new calendar images show up without a rescan
+        noteSync.setListener(() -> {
+            if (noteBrowser != null && noteBrowser.isVisible()) {
+                noteBrowser.refresh();
+            }
+        });
+
+        newFile();
+        loadInBackground(oldJournals);
+    }
+
+    // The first paint ends startup as far as the user can tell; everything read from disk comes in after it
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (!painted) {
+            painted = true;
+            Metrics.record(Metrics.Operation.STARTUP, ManagementFactory.getRuntimeMXBean().getUptime() * 1_000_000, 0);
+            finishTrainingRun();
+        }
+    }
+
+    // Reads the catalog and the journals a previous run left behind off the EDT, so the window paints without
+    // waiting for them. The note watcher and the index sync start once the catalog is in, since both read it.
+    private void loadInBackground(List<File> oldJournals) {
+        new SwingWorker<List<EditJournal.Recovery>, Void>() {
+            @Override
+            protected List<EditJournal.Recovery> doInBackground() {
+                noteEngine.loadCatalog();
+                List<EditJournal.Recovery> recoveries = new ArrayList<>();
+                for (File journal : oldJournals) {
+                    EditJournal.Recovery recovery = EditJournal.read(journal);
+                    if (recovery != null) {
+                        recoveries.add(recovery);
+                    }
+                }
+                return recoveries;
+            }
+
+            @Override
+            protected void done() {
+                // Left alone if they could not be read, for the next run to try again
+                List<EditJournal.Recovery> recoveries = null;
+                try {
+                    recoveries = get();
+                } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                    e.printStackTrace();
+                }
+                catalogLoaded = true;
+                Metrics.record(Metrics.Operation.STARTUP_LOADED, ManagementFactory.getRuntimeMXBean().getUptime() * 1_000_000, 0);
+                noteSync.start();
+                syncNoteIndex();
+                for (Runnable task : afterCatalogLoad) {
+                    task.run();
+                }
+                afterCatalogLoad.clear();
+                if (recoveries != null && !recoveries.isEmpty()) {
+                    recoverUnsavedWork(recoveries, oldJournals);
+                } else if (recoveries != null) {
+                    deleteFiles(oldJournals);
+                }
+                finishTrainingRun();
+            }
+        }.execute();
+    }
+
+    // Runs the task on the EDT now, or once the catalog has been loaded if it has not been yet
+    private void whenCatalogLoaded(Runnable task) {
+        if (catalogLoaded) {
+            task.run();
+        } else {
+            afterCatalogLoad.add(task);
+        }
+    }
+
+    // A training run for the class data sharing archive quits once the window is up and the catalog is in, having
+    // loaded the classes of a normal start. The launcher or the archive tool reads the startup times printed here.
+    private void finishTrainingRun() {
+        if (!Boolean.getBoolean(EXIT_AFTER_STARTUP_PROPERTY) || !painted || !catalogLoaded) {
+            return;
+        }
+        System.out.printf("first paint %.1f ms, notes loaded %.1f ms%n",
+                Metrics.millis(Metrics.get(Metrics.Operation.STARTUP).getMaxNanos()),
+                Metrics.millis(Metrics.get(Metrics.Operation.STARTUP_LOADED).getMaxNanos()));
+        SwingUtilities.invokeLater(() -> dispatchEvent(new WindowEvent(this, WindowEvent.WINDOW_CLOSING)));
+    }
+
+    // Journals a previous run left behind: one per tab, plus the single journal older versions kept
+    private List<File> listOldJournals() {
+        List<File> journals = new ArrayList<>();
+        File[] files = new File(EDIT_JOURNAL_DIR).listFiles((directory, name) -> name.endsWith(".bin"));
+        if (files != null) {
+            journals.addAll(Arrays.asList(files));
+        }
+        File legacyJournal = new File(EDIT_JOURNAL_FILE);
+        if (legacyJournal.exists()) {
+            journals.add(legacyJournal);
+        }
+        return journals;
+    }
+
+    // Journals with nothing in them go at once. The others stay on disk until their edits have been replayed into a
+    // tab and that tab's own journal has them, so a crash during recovery loses nothing.
+    private void recoverUnsavedWork(List<EditJournal.Recovery> recoveries, List<File> journals) {
+        List<File> emptyJournals = new ArrayList<>(journals);
+        for (EditJournal.Recovery recovery : recoveries) {
+            emptyJournals.remove(recovery.getJournalFile());
+        }
+        deleteFiles(emptyJournals);
+        String notes = recoveries.size() == 1 ? describeRecovery(recoveries.get(0)) : recoveries.size() + " notes";
+        int option = JOptionPane.showConfirmDialog(this, "StudyStash closed with unsaved changes to " + notes + ". Recover them?", "Recover Unsaved Work", JOptionPane.YES_NO_OPTION);
+        if (option == JOptionPane.YES_OPTION) {
+            recoverInTabs(recoveries.iterator());
+            return;
+        }
+        for (EditJournal.Recovery recovery : recoveries) {
+            deleteFiles(Arrays.asList(recovery.getJournalFile()));
+            if (recovery.isBaseUnsaved()) {
+                deleteFiles(Arrays.asList(recovery.getBase()));
+            }
+        }
+    }
+
+    private String describeRecovery(EditJournal.Recovery recovery) {
+        if (recovery.isBaseUnsaved()) {
+            return "a note that was never saved";
+        }
+        return recovery.getBase() == null ? "a new note" : recovery.getBase().getName();
+    }
+
+    // Reopens the notes one after another, since starting a load cancels the one before it
+    private void recoverInTabs(Iterator<EditJournal.Recovery> remaining) {
+        if (!remaining.hasNext()) {
+            return;
+        }
+        EditJournal.Recovery recovery = remaining.next();
+        if (!recovery.isBaseUnchanged()) {
+            JOptionPane.showMessageDialog(this, recovery.getBase().getName() + " has changed on disk since the edits were made, so they cannot be replayed.", "Recover Unsaved Work", JOptionPane.ERROR_MESSAGE);
+            deleteFiles(Arrays.asList(recovery.getJournalFile()));
+            recoverInTabs(remaining);
+            return;
+        }
+        if (recovery.getBase() != null && !recovery.isBaseUnsaved()) {
+            openNote(recovery.getBase(), tab -> {
+                replayRecovery(tab, recovery);
+                recoverInTabs(remaining);
+            });
+            return;
+        }
+        NoteTab tab = getReusableTab();
+        if (tab == null) {
+            tab = addTab(null);
+        }
+        NoteTab recovered = tab;
+        if (recovery.isBaseUnsaved()) {
+            // The swap file holds the text the edits apply to, and stays the tab's swap file from now on
+            recovered.adoptSwapFile(recovery.getBase());
+        }
+        loadTab(recovered, () -> {
+            replayRecovery(recovered, recovery);
+            recoverInTabs(remaining);
+        });
+    }
+
+    // The old journal is deleted once the tab's journal, which recorded the replayed edits, is on disk
+    private void replayRecovery(NoteTab tab, EditJournal.Recovery recovery) {
+        try {
+            recovery.replay(tab.getDocument());
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Only part of the unsaved work could be recovered.", "Recover Unsaved Work", JOptionPane.WARNING_MESSAGE);
+        }
+        tab.getJournal().commitThen(() -> deleteFiles(Arrays.asList(recovery.getJournalFile())));
+    }
+
+    private void deleteFiles(List<File> files) {
+        for (File file : files) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void newFile() {
+        loadTab(addTab(null), null);
+    }
+
+    // Adds a hibernating tab for file (null for a new note); loadTab() brings it to life
+    private NoteTab addTab(File file) {
+        NoteTab tab = new NoteTab(createJournalFile(), TextFormat.of(noteCharset));
+        tab.setFile(file);
+        tabs.add(tab);
+        // Adding the first tab selects it, which must not start loading it before the caller is ready
+        addingTab = true;
+        try {
+            tabbedPane.addTab(tab.getTitle(), tab.getComponent());
+        } finally {
+            addingTab = false;
+        }
+        updateTabTitle(tab);
+        return tab;
+    }
+
+    private File createJournalFile() {
+        try {
+            Path directory = Files.createDirectories(Paths.get(EDIT_JOURNAL_DIR));
+            return Files.createTempFile(directory, "tab-", ".bin").toFile();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new File(EDIT_JOURNAL_DIR, "tab-" + System.nanoTime() + ".bin");
+        }
+    }
+
+    private NoteTab getSelectedTab() {
+        Component selected = tabbedPane.getSelectedComponent();
+        for (NoteTab tab : tabs) {
+            if (tab.getComponent() == selected) {
+                return tab;
+            }
+        }
+        return null;
+    }
+
+    private void selectTab(NoteTab tab) {
+        tabbedPane.setSelectedComponent(tab.getComponent());
+        showTab(tab);
+    }
+
+    // Moves the text area into the tab and shows its document, loading it first if the tab is hibernating
+    private void showTab(NoteTab tab) {
+        if (tab == null || tab == activeTab) {
+            return;
+        }
+        if (loadingTab != null && loadingTab != tab) {
+            cancelFileLoad();
+        }
+        if (activeTab != null && !activeTab.isHibernated()) {
+            activeTab.setCaretPosition(textArea.getCaretPosition());
+        }
+        activeTab = tab;
+        tab.touch();
+        tab.getComponent().add(scrollPane, BorderLayout.CENTER);
+        tab.getComponent().revalidate();
+        if (tab.wake()) {
+            installDocument(tab.getDocument());
+            textArea.setCaretPosition(Math.min(tab.getCaretPosition(), tab.getDocument().getLength()));
+        } else if (tab != loadingTab) {
+            loadTab(tab, null);
+        }
+        hibernateIdleTabs();
+    }
+
+    // Keeps the most recently selected tabs in memory and lets the others hibernate
+    private void hibernateIdleTabs() {
+        List<NoteTab> idle = new ArrayList<>();
+        for (NoteTab tab : tabs) {
+            if (tab != activeTab && !tab.isHibernated() && !isBusy(tab)) {
+                idle.add(tab);
+            }
+        }
+        idle.sort(Comparator.comparingLong(NoteTab::getLastSelected).reversed());
+        for (int i = MAX_LIVE_TABS - 1; i < idle.size(); i++) {
+            idle.get(i).hibernate();
+        }
+    }
+
+    // Whether a background task is reading or writing the tab's document
+    private boolean isBusy(NoteTab tab) {
+        return tab == loadingTab || bulkReplacing
+                || (tab == savingTab && fileSaver != null && !fileSaver.isDone())
+                || (tab == replacingTab && replaceTask != null && !replaceTask.isDone());
+    }
+
+    private void updateEditable() {
+        textArea.setEditable(activeTab != null && !activeTab.isHibernated() && !isBusy(activeTab));
+    }
+
+    private void markUnsaved(NoteTab tab) {
+        // Text going in while a note loads is not an edit
+        if (tab.isSaved() && tab != loadingTab) {
+            tab.setSaved(false);
+            updateTabTitle(tab);
+        }
+    }
+
+    private void updateTabTitle(NoteTab tab) {
+        int index = tabbedPane.indexOfComponent(tab.getComponent());
+        if (index >= 0) {
+            tabbedPane.setTitleAt(index, tab.getTitle());
+            tabbedPane.setToolTipTextAt(index, tab.getFile() == null ? null : tab.getFile().getPath());
+        }
+    }
+
+    // The selected tab, if it is an empty new note nobody has typed into, so opening a note can take its place
+    private NoteTab getReusableTab() {
+        NoteTab tab = activeTab;
+        if (tab == null || tab.getFile() != null || !tab.isSaved() || tab.isSwapped() || tab.isHibernated() || isBusy(tab)) {
+            return null;
+        }
+        return tab.getDocument().getLength() == 0 ? tab : null;
+    }
+
+    private NoteTab findTab(File file) {
+        for (NoteTab tab : tabs) {
+            if (tab.getFile() != null && tab.getFile().getAbsoluteFile().equals(file.getAbsoluteFile())) {
+                return tab;
+            }
+        }
+        return null;
+    }
+
+    private void closeCurrentTab() {
+        NoteTab tab = activeTab;
+        if (tab == null) {
+            return;
+        }
+        if (isBusy(tab) && tab != loadingTab) {
+            JOptionPane.showMessageDialog(this, "Please wait for the current task to finish.", "Close Tab", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        if (!tab.isSaved()) {
+            String name = tab.getFile() == null ? "this new note" : tab.getFile().getName();
+            if (tab.isHibernated() || isBusy(tab)) {
+                // The unsaved text is still in the swap file or journal, so it cannot be saved until the tab loads
+                int option = JOptionPane.showConfirmDialog(this, "The unsaved changes to " + name + " are not loaded yet. Discard them and close it?", "Unsaved Changes", JOptionPane.OK_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE);
+                if (option == JOptionPane.OK_OPTION) {
+                    closeTab(tab);
+                }
+                return;
+            }
+            int option = JOptionPane.showConfirmDialog(this, "Do you want to save the changes to " + name + " before closing it?", "Unsaved Changes", JOptionPane.YES_NO_CANCEL_OPTION);
+            if (option == JOptionPane.YES_OPTION) {
+                saveFile(() -> closeTab(tab));
+            } else if (option == JOptionPane.NO_OPTION) {
+                closeTab(tab);
+            }
+        } else {
+            closeTab(tab);
+        }
+    }
+
+    private void closeTab(NoteTab tab) {
+        if (!tabs.remove(tab)) {
+            return;
+        }
+        if (tab == loadingTab) {
+            cancelFileLoad();
+        }
+        tab.close(false);
+        if (tab == activeTab) {
+            activeTab = null;
+        }
+        // Selects a neighbouring tab, which the change listener then shows
+        tabbedPane.remove(tab.getComponent());
+        if (tabs.isEmpty()) {
+            newFile();
+        }
+    }
+
+    // Saves the selected tab in the background; afterSave runs on the EDT once the file is safely on disk
+    private void saveFile(Runnable afterSave) {
+        NoteTab tab = activeTab;
+        if ((fileSaver != null && !fileSaver.isDone()) || tab == null || tab.isHibernated() || isBusy(tab)) {
+            return;
+        }
+        JFileChooser fileChooser = new JFileChooser();
+        if (tab.getFile() != null) {
+            fileChooser.setSelectedFile(tab.getFile());
+        }
+        int result = fileChooser.showSaveDialog(this);
+        if (result == JFileChooser.APPROVE_OPTION) {
+            File file = fileChooser.getSelectedFile();
+            loadProgressBar.setValue(0);
+            loadProgressBar.setString("Saving " + file.getName());
+            loadPanel.setVisible(true);
+            revalidate();
+
+            // Written back in the charset, BOM and line separator the note was opened with
+            DocumentSaveWorker saver = new DocumentSaveWorker(new DocumentSaver(tab.getDocument(), file, tab.getFormat())) {
+                @Override
+                protected void done() {
+                    loadPanel.setVisible(false);
+                    revalidate();
+                    savingTab = null;
+                    updateEditable();
+                    if (isCancelled()) {
+                        statusLabel.setText("Save cancelled");
+                        return;
+                    }
+                    try {
+                        get();
+                        tab.markSaved(file);
+                        updateTabTitle(tab);
+                        whenCatalogLoaded(() -> noteOpened(file));
+                        statusLabel.setText(getSaver().getThroughputSummary());
+                        if (afterSave != null) {
+                            afterSave.run();
+                        }
+                    } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                        e.printStackTrace();
+                        JOptionPane.showMessageDialog(StudyStash3.this, "Error saving file: " + file.getName(), "Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            };
+            saver.addPropertyChangeListener(e -> {
+                if ("progress".equals(e.getPropertyName())) {
+                    loadProgressBar.setValue((Integer) e.getNewValue());
+                }
+            });
+            // The saver streams straight from the document, so keep it unchanged until the rename is done
+            fileSaver = saver;
+            savingTab = tab;
+            updateEditable();
+            saver.execute();
+        }
+    }
+
+    private void cancelBackgroundTask() {
+        if (fileSaver != null && !fileSaver.isDone()) {
+            fileSaver.cancel(true);
+        } else if (replaceTask != null && !replaceTask.isDone()) {
+            replaceTask.stop();
+        } else if (calendarImporter != null && !calendarImporter.isDone()) {
+            calendarImporter.cancel(true);
+        } else {
+            cancelFileLoad();
+        }
+    }
+
+    private void openFile() {
+        JFileChooser fileChooser = new JFileChooser();
+        int result = fileChooser.showOpenDialog(this);
+        if (result == JFileChooser.APPROVE_OPTION) {
+            File file = fileChooser.getSelectedFile();
+            openNote(file, null);
+        }
+    }
+
+    // Opens the note in a tab of its own, or selects the tab that already has it.
+    // afterLoad runs on the EDT once the whole note is in the tab's document.
+    private void openNote(File file, java.util.function.Consumer<NoteTab> afterLoad) {
+        NoteTab open = findTab(file);
+        if (open != null) {
+            selectTab(open);
+            return;
+        }
+        NoteTab tab = getReusableTab();
+        if (tab == null) {
+            tab = addTab(file);
+        } else {
+            tab.setFile(file);
+        }
+        NoteTab opened = tab;
+        loadTab(opened, () -> {
+            whenCatalogLoaded(() -> noteOpened(file));
+            if (afterLoad != null) {
+                afterLoad.accept(opened);
+            }
+        });
+    }
+
+    // Selects the tab and loads its text into a fresh document: its note, or its swap file if it has unsaved changes
+    private void loadTab(NoteTab tab, Runnable afterLoad) {
+        cancelFileLoad();
+        loadingTab = tab;
+        selectTab(tab);
+        File source = tab.getSource();
+        if (source == null) {
+            PlainDocument document = new PlainDocument();
+            attachDocument(tab, document);
+            installDocument(document);
+            loadingTab = null;
+            finishTabLoad(tab, afterLoad);
+            return;
+        }
+        // A note's format is sniffed from the file itself; swap files are always written the same way
+        TextFormat format = tab.isSwapped() ? TextFormat.UTF_8 : null;
+        if (source.length() >= MAPPED_FILE_THRESHOLD) {
+            openMappedFile(tab, source, format, afterLoad);
+        } else {
+            loadFileInBackground(tab, source, format, afterLoad);
+        }
+    }
+
+    // A null format is detected from the file
+    private void loadFileInBackground(NoteTab tab, File file, TextFormat format, Runnable afterLoad) {
+        PlainDocument document = new PlainDocument();
+        attachDocument(tab, document);
+        installDocument(document);
+        startFileLoad(tab, file);
+        Metrics.Sample sample = Metrics.start(Metrics.Operation.NOTE_LOAD);
+
+        ChunkedFileLoader loader = new ChunkedFileLoader(file, document, format, noteCharset) {
+            @Override
+            protected void done() {
+                if (fileLoader != this) {
+                    return;
+                }
+                finishFileLoad();
+                try {
+                    get();
+                    sample.stop(file.length());
+                    if (format == null) {
+                        tab.setFormat(getFormat());
+                    }
+                    finishTabLoad(tab, afterLoad);
+                } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                    e.printStackTrace();
+                    sample.fail(e.getCause() != null ? e.getCause() : e);
+                    abandonTabLoad(tab);
+                    JOptionPane.showMessageDialog(StudyStash3.this, "Error opening file: " + file.getName(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        loader.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                loadProgressBar.setValue((Integer) e.getNewValue());
+            }
+        });
+        fileLoader = loader;
+        loader.execute();
+    }
+
+    private void openMappedFile(NoteTab tab, File file, TextFormat format, Runnable afterLoad) {
+        // Nothing to show until the first slice is indexed
+        installDocument(new PlainDocument());
+        startFileLoad(tab, file);
+        Metrics.Sample sample = Metrics.start(Metrics.Operation.NOTE_LOAD);
+
+        SwingWorker<PieceTableDocument, PieceTableDocument> loader = new SwingWorker<PieceTableDocument, PieceTableDocument>() {
+            private volatile TextFormat detected = format;
+
+            @Override
+            protected PieceTableDocument doInBackground() throws IOException {
+                if (detected == null) {
+                    detected = TextFormat.detect(file, noteCharset);
+                }
+                PieceTableDocument document = new PieceTableDocument(file, detected);
+                // Index a first slice so the first screen shows up right away, then the rest while the user reads
+                document.indexMore(FIRST_INDEX_SLICE);
+                publish(document);
+                while (!document.isIndexed()) {
+                    document.indexMore(INDEX_SLICE);
+                    setProgress(document.getIndexProgress());
+                    publish(document);
+                }
+                return document;
+            }
+
+            @Override
+            protected void process(List<PieceTableDocument> documents) {
+                if (fileLoader != this || isCancelled()) {
+                    return;
+                }
+                showMappedDocument(tab, documents.get(documents.size() - 1));
+            }
+
+            @Override
+            protected void done() {
+                if (fileLoader != this) {
+                    return;
+                }
+                finishFileLoad();
+                try {
+                    showMappedDocument(tab, get());
+                    sample.stop(file.length());
+                    if (format == null) {
+                        tab.setFormat(detected);
+                    }
+                    finishTabLoad(tab, afterLoad);
+                } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                    e.printStackTrace();
+                    sample.fail(e.getCause() != null ? e.getCause() : e);
+                    abandonTabLoad(tab);
+                    JOptionPane.showMessageDialog(StudyStash3.this, "Error opening file: " + file.getName(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        loader.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                loadProgressBar.setValue((Integer) e.getNewValue());
+            }
+        });
+        fileLoader = loader;
+        loader.execute();
+    }
+
+    private void showMappedDocument(NoteTab tab, PieceTableDocument document) {
+        if (tab.getDocument() != document) {
+            attachDocument(tab, document);
+            if (tab == activeTab) {
+                installDocument(document);
+            }
+        }
+        document.commitIndexed();
+    }
+
+    private void setLargeFileView(boolean enabled) {
+        largeFileViewMenuItem.setSelected(enabled);
+        boolean highlighted = !enabled && syntaxHighlightingMenuItem.isSelected();
+        if (enabled == textArea.getUI() instanceof LineWindowView.TextAreaUI
+                && highlighted == textArea.getUI() instanceof SyntaxView.TextAreaUI) {
+            return;
+        }
+        if (enabled) {
+            textArea.setUI(new LineWindowView.TextAreaUI());
+        } else if (highlighted) {
+            textArea.setUI(new SyntaxView.TextAreaUI());
+        } else {
+            textArea.updateUI();
+        }
+    }
+
+    private void setSyntaxHighlighting(boolean enabled) {
+        syntaxHighlightingMenuItem.setSelected(enabled);
+        highlightDocument(textArea.getDocument());
+        setLargeFileView(largeFileViewMenuItem.isSelected());
+    }
+
+    // Mapped notes are too big to keep tokens for every line, so they stay plain like every note with highlighting off
+    private void highlightDocument(Document document) {
+        if (syntaxHighlightingMenuItem.isSelected() && !(document instanceof PieceTableDocument)) {
+            SyntaxHighlighter highlighter = SyntaxHighlighter.install(document);
+            if (highlighter != null) {
+                highlighter.setHost(textArea);
+            }
+        } else {
+            SyntaxHighlighter.uninstall(document);
+        }
+    }
+
+    private void attachDocument(NoteTab tab, Document document) {
+        tab.setDocument(document);
+        // A mapped note is indexed a slice at a time and may be far too big to scan for headings
+        if (!(document instanceof PieceTableDocument)) {
+            NoteOutline.attach(document);
+        }
+        document.addDocumentListener(documentListener);
+    }
+
+    // Puts a document in the shared text area
+    private void installDocument(Document document) {
+        clearFindHighlights();
+        // The view is switched first so a mapped note is never laid out in full by the plain view
+        setLargeFileView(document instanceof PieceTableDocument);
+        highlightDocument(document);
+        textArea.setDocument(document);
+        outlinePanel.setOutline(NoteOutline.of(document));
+        updateEditable();
+    }
+
+    private void cancelFileLoad() {
+        if (fileLoader != null && !fileLoader.isDone()) {
+            SwingWorker<?, ?> previous = fileLoader;
+            fileLoader = null;
+            previous.cancel(true);
+            NoteTab tab = loadingTab;
+            finishFileLoad();
+            abandonTabLoad(tab);
+        }
+    }
+
+    private void startFileLoad(NoteTab tab, File file) {
+        // The load is not an edit, and the user should not type into a half-loaded note
+        tab.getJournal().suspend();
+        updateEditable();
+        loadProgressBar.setValue(0);
+        loadProgressBar.setString("Loading " + file.getName());
+        loadPanel.setVisible(true);
+        revalidate();
+    }
+
+    private void finishFileLoad() {
+        loadPanel.setVisible(false);
+        revalidate();
+        loadingTab = null;
+        updateEditable();
+    }
+
+    private void finishTabLoad(NoteTab tab, Runnable afterLoad) {
+        tab.finishLoad();
+        updateTabTitle(tab);
+        if (tab.getFile() != null) {
+            statusLabel.setText(tab.getFile().getName() + ": " + tab.getFormat().describe());
+        }
+        if (tab == activeTab) {
+            textArea.setCaretPosition(Math.min(tab.getCaretPosition(), tab.getDocument().getLength()));
+            updateEditable();
+        }
+        if (afterLoad != null) {
+            afterLoad.run();
+        }
+    }
+
+    // A tab whose note never loaded is closed; one that was waking up goes back to hibernating
+    private void abandonTabLoad(NoteTab tab) {
+        tab.abandonLoad();
+        if (tab == activeTab) {
+            installDocument(new PlainDocument());
+        }
+        if (!tab.isLoaded()) {
+            SwingUtilities.invokeLater(() -> closeTab(tab));
+        }
+    }
+
+    // Loads the index from disk and re-indexes notes that changed since it was written, all off the EDT
+    private void syncNoteIndex() {
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                noteEngine.syncIndex();
+                return null;
+            }
+        }.execute();
+    }
+
+    // Puts a note that was just opened or saved in the catalog and keeps it watched and indexed
+    private void noteOpened(File file) {
+        noteCatalog.recordOpened(file);
+        noteSync.watchNote(file);
+        refreshNoteInBackground(file);
+    }
+
+    // Hashes the note for the catalog and brings its search index entry up to date
+    private void refreshNoteInBackground(File file) {
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                noteEngine.refreshNote(file);
+                return null;
+            }
+        }.execute();
+    }
+
+    private void showSearchAllNotesDialog() {
+        JDialog dialog = new JDialog(this, "Search All Notes", false);
+        JTextField queryField = new JTextField();
+        DefaultListModel<NoteIndex.Hit> results = new DefaultListModel<>();
+        JList<NoteIndex.Hit> resultList = new JList<>(results);
+        JLabel summaryLabel = new JLabel(" ");
+
+        queryField.addActionListener(e -> searchAllNotes(queryField.getText(), results, resultList, summaryLabel));
+        resultList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                NoteIndex.Hit hit = resultList.getSelectedValue();
+                if (e.getClickCount() == 2 && hit != null) {
+                    openNote(new File(hit.getPath()), null);
+                }
+            }
+        });
+
+        dialog.add(queryField, BorderLayout.NORTH);
+        dialog.add(new JScrollPane(resultList), BorderLayout.CENTER);
+        dialog.add(summaryLabel, BorderLayout.SOUTH);
+        dialog.setSize(600, 400);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    private void searchAllNotes(String query, DefaultListModel<NoteIndex.Hit> results, JList<NoteIndex.Hit> resultList, JLabel summaryLabel) {
+        long start = System.nanoTime();
+        List<NoteIndex.Hit> hits = noteIndex.search(query, MAX_SEARCH_HITS);
+        long nanos = System.nanoTime() - start;
+        Metrics.record(Metrics.Operation.SEARCH, nanos, 0);
+        long micros = nanos / 1000;
+        results.clear();
+        for (NoteIndex.Hit hit : hits) {
+            results.addElement(hit);
+        }
+        summaryLabel.setText(hits.size() + " of " + noteIndex.size() + " notes matched in " + micros / 1000.0 + " ms");
+
+        // Snippets need a disk read per note, so they fill in afterwards
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                for (NoteIndex.Hit hit : hits) {
+                    hit.loadSnippet(noteCharset);
+                    publish();
+                }
+                return null;
+            }
+
+            @Override
+            protected void process(List<Void> chunks) {
+                resultList.repaint();
+            }
+        }.execute();
+    }
+
+    private void showSavedNotes() {
+        if (!catalogLoaded) {
+            statusLabel.setText("Loading saved notes...");
+            whenCatalogLoaded(this::showSavedNotes);
+            return;
+        }
+        if (noteBrowser == null) {
+            notePreviewCache = new NotePreviewCache(noteCharset);
+            noteBrowser = new NoteBrowser(noteCatalog, notePreviewCache, this::displaySelectedNoteContent, this::deleteNotes);
+            noteBrowser.setLocationRelativeTo(this);
+        }
+        noteBrowser.refresh();
+        noteBrowser.setVisible(true);
+        noteBrowser.toFront();
+    }
+
+    private void deleteNotes(List<String> notePaths) {
+        String question = notePaths.size() == 1 ? "Are you sure you want to delete this note?" : "Are you sure you want to delete these " + notePaths.size() + " notes?";
+        int option = JOptionPane.showConfirmDialog(noteBrowser, question, "Delete Note", JOptionPane.YES_NO_OPTION);
+        if (option == JOptionPane.YES_OPTION) {
+            for (String notePath : notePaths) {
+                noteEngine.removeNote(notePath);
+            }
+            noteBrowser.refresh(); // Refresh the list after deletion
+        }
+    }
+
+    // The browser previews the selected note itself; opening it loads it into the editor
+    private void displaySelectedNoteContent(String notePath) {
+        openNote(new File(notePath), null);
+    }
+
+    private void undo() {
+        if (activeTab == null || isBusy(activeTab)) {
+            return;
+        }
+        UndoHistory undoHistory = activeTab.getUndoHistory();
+        if (undoHistory.canUndo()) {
+            try {
+                undoHistory.undo();
+            } catch (CannotUndoException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private void redo() {
+        if (activeTab == null || isBusy(activeTab)) {
+            return;
+        }
+        UndoHistory undoHistory = activeTab.getUndoHistory();
+        if (undoHistory.canRedo()) {
+            try {
+                undoHistory.redo();
+            } catch (CannotRedoException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private void changeTextColor() {
+        Color color = JColorChooser.showDialog(this, "Choose Text Color", textArea.getForeground());
+        if (color != null) {
+            textArea.setForeground(color);
+        }
+    }
+
+    private void changeBackgroundColor() {
+        Color color = JColorChooser.showDialog(this, "Choose Background Color", textArea.getBackground());
+        if (color != null) {
+            textArea.setBackground(color);
+        }
+    }
+
+    private void changeFontSize() {
+        String input = JOptionPane.showInputDialog(this, "Enter Font Size:");
+        try {
+            int size = Integer.parseInt(input);
+            Font font = textArea.getFont().deriveFont((float) size);
+            textArea.setFont(font);
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Invalid input. Please enter a valid number.", "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void showDiagnostics() {
+        if (diagnosticsDialog == null) {
+            EventDispatchMonitor monitor = EventDispatchMonitor.install();
+            diagnosticsDialog = new DiagnosticsDialog(this, monitor, FreezeWatchdog.install(monitor, new File(FREEZE_LOG_FILE)));
+            diagnosticsDialog.setLocationRelativeTo(this);
+        }
+        diagnosticsDialog.setVisible(true);
+        diagnosticsDialog.toFront();
+    }
+
+    private void displayAboutMessage() {
+        JOptionPane.showMessageDialog(this, "Made by Sajjad", "About", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    private void addAcademicCalendar() {
+        JFileChooser fileChooser = new JFileChooser();
+        int result = fileChooser.showOpenDialog(this);
+        if (result == JFileChooser.APPROVE_OPTION) {
+            File file = fileChooser.getSelectedFile();
+            if (PdfCalendarImporter.isPdf(file)) {
+                importCalendarPdf(file);
+                return;
+            }
+            try {
+                // Copied into the calendar directory, where the watcher picks it up
+                noteEngine.importCalendar(file);
+                JOptionPane.showMessageDialog(this, "Academic calendar added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+            } catch (Exception e) {
+                e.printStackTrace();
+                JOptionPane.showMessageDialog(this, "Error adding academic calendar.", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    private void importCalendarPdf(File file) {
+        if (calendarImporter != null && !calendarImporter.isDone()) {
+            JOptionPane.showMessageDialog(this, "A calendar is already being imported.", "Academic Calendar", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        loadProgressBar.setValue(0);
+        loadProgressBar.setString("Importing " + file.getName());
+        loadPanel.setVisible(true);
+        revalidate();
+
+        CalendarImportWorker importer = new CalendarImportWorker(new PdfCalendarImporter(file, noteEngine.getCalendarDirectory())) {
+            @Override
+            protected void process(List<Integer> pages) {
+                loadProgressBar.setString(String.format("Importing %s: page %d of %d (%.1f pages/s)",
+                        file.getName(), getImporter().getPagesDone(), getImporter().getPageCount(), getImporter().getPagesPerSecond()));
+            }
+
+            @Override
+            protected void done() {
+                loadPanel.setVisible(false);
+                revalidate();
+                if (isCancelled()) {
+                    statusLabel.setText("Import cancelled after " + getImporter().getPagesDone() + " pages");
+                    return;
+                }
+                try {
+                    get();
+                    statusLabel.setText(getImporter().getThroughputSummary());
+                    JOptionPane.showMessageDialog(StudyStash3.this, "Academic calendar added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                    e.printStackTrace();
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(StudyStash3.this, "Error adding academic calendar: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        importer.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                loadProgressBar.setValue((Integer) e.getNewValue());
+            }
+        });
+        calendarImporter = importer;
+        importer.execute();
+    }
+
+    private void viewAcademicCalendar() {
+        JFrame calendarViewer = new JFrame("Academic Calendar Viewer");
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+        Map<JLabel, java.util.concurrent.Future<?>> pending = new HashMap<>();
+        List<JLabel> placeholders = new ArrayList<>();
+
+        // The watcher keeps this list current, so opening the viewer never lists the directory
+        List<File> files = noteSync.getCalendarFiles();
+        for (File file : files) {
+            // Placeholders go in right away; images are decoded once they scroll into view
+            JLabel label = new JLabel("Loading " + file.getName() + "...", SwingConstants.CENTER);
+            label.putClientProperty(File.class, file);
+            label.setAlignmentX(Component.CENTER_ALIGNMENT);
+            BufferedImage cached = thumbnailCache.getIfPresent(file);
+            if (cached != null) {
+                showThumbnail(label, cached);
+            } else {
+                Dimension size = new Dimension(THUMBNAIL_WIDTH, THUMBNAIL_WIDTH * 4 / 3);
+                label.setPreferredSize(size);
+                label.setMaximumSize(size);
+                placeholders.add(label);
+            }
+            panel.add(label);
+        }
+        if (files.isEmpty()) {
+            statusLabel.setText("No calendars found in " + noteEngine.getCalendarDirectory());
+        }
+
+        JScrollPane scrollPane = new JScrollPane(panel);
+        scrollPane.getVerticalScrollBar().setUnitIncrement(32);
+        scrollPane.getViewport().addChangeListener(e -> requestVisibleThumbnails(panel, placeholders, pending));
+        calendarViewer.getContentPane().add(scrollPane, BorderLayout.CENTER);
+        calendarViewer.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                for (java.util.concurrent.Future<?> future : pending.values()) {
+                    future.cancel(false);
+                }
+                pending.clear();
+            }
+        });
+        calendarViewer.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+
+        calendarViewer.setSize(800, 600);
+        calendarViewer.setLocationRelativeTo(null);
+        calendarViewer.setVisible(true);
+        SwingUtilities.invokeLater(() -> requestVisibleThumbnails(panel, placeholders, pending));
+    }
+
+    // Starts decoding the placeholders that are on screen and drops queued work for the ones that scrolled away
+    private void requestVisibleThumbnails(JPanel panel, List<JLabel> placeholders, Map<JLabel, java.util.concurrent.Future<?>> pending) {
+        Rectangle visible = panel.getVisibleRect();
+        for (JLabel label : placeholders) {
+            boolean onScreen = label.getBounds().intersects(visible);
+            java.util.concurrent.Future<?> future = pending.get(label);
+            if (onScreen && future == null && label.getIcon() == null) {
+                File file = (File) label.getClientProperty(File.class);
+                pending.put(label, thumbnailCache.request(file, image -> {
+                    pending.remove(label);
+                    if (image != null) {
+                        showThumbnail(label, image);
+                        panel.revalidate();
+                    } else {
+                        label.setText("Cannot read " + file.getName());
+                    }
+                }));
+            } else if (!onScreen && future != null && future.cancel(false)) {
+                pending.remove(label);
+            }
+        }
+    }
+
+    private void showThumbnail(JLabel label, BufferedImage image) {
+        label.setText(null);
+        label.setIcon(new ImageIcon(image));
+        label.setPreferredSize(null);
+        label.setMaximumSize(null);
+    }
+
+    private void showFindDialog() {
+        if (findDialog == null) {
+            findDialog = new JDialog(this, "Find", false);
+            findField = new JTextField(30);
+            matchCaseCheckBox = new JCheckBox("Match case");
+            wholeWordCheckBox = new JCheckBox("Whole word");
+            regexCheckBox = new JCheckBox("Regex");
+            findStatusLabel = new JLabel(" ");
+            JButton nextButton = new JButton("Find Next");
+            JButton previousButton = new JButton("Find Previous");
+
+            // Typing only re-highlights what is on screen; Enter or the buttons move through the matches
+            findField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+                public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                    updateFindQuery();
+                }
+
+                public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                    updateFindQuery();
+                }
+
+                public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                    updateFindQuery();
+                }
+            });
+            matchCaseCheckBox.addActionListener(e -> updateFindQuery());
+            wholeWordCheckBox.addActionListener(e -> updateFindQuery());
+            regexCheckBox.addActionListener(e -> updateFindQuery());
+            findField.addActionListener(e -> findNext(true));
+            nextButton.addActionListener(e -> findNext(true));
+            previousButton.addActionListener(e -> findNext(false));
+            findDialog.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent e) {
+                    clearFindHighlights();
+                }
+            });
+
+            JPanel options = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            options.add(matchCaseCheckBox);
+            options.add(wholeWordCheckBox);
+            options.add(regexCheckBox);
+            options.add(previousButton);
+            options.add(nextButton);
+            findDialog.add(findField, BorderLayout.NORTH);
+            findDialog.add(options, BorderLayout.CENTER);
+            findDialog.add(findStatusLabel, BorderLayout.SOUTH);
+            findDialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+            findDialog.pack();
+            findDialog.setLocationRelativeTo(this);
+        }
+        String selection = textArea.getSelectedText();
+        if (selection != null && !selection.isEmpty() && selection.indexOf('\n') < 0) {
+            findField.setText(selection);
+        }
+        findField.selectAll();
+        findDialog.setVisible(true);
+        findField.requestFocusInWindow();
+    }
+
+    private boolean updateFindQuery() {
+        try {
+            findEngine.setQuery(findField.getText(), matchCaseCheckBox.isSelected(), wholeWordCheckBox.isSelected(), regexCheckBox.isSelected());
+            findStatusLabel.setText(" ");
+        } catch (java.util.regex.PatternSyntaxException e) {
+            findEngine.setQuery("", false, false, false);
+            findStatusLabel.setText("Invalid expression: " + e.getDescription());
+            highlightVisibleMatches();
+            return false;
+        }
+        highlightVisibleMatches();
+        return true;
+    }
+
+    private void findNext(boolean forward) {
+        if (findDialog == null || findEngine.isEmpty()) {
+            showFindDialog();
+            return;
+        }
+        Document document = textArea.getDocument();
+        Metrics.Sample sample = Metrics.start(Metrics.Operation.FIND);
+        try {
+            boolean wrapped = false;
+            boolean found = forward
+                    ? findEngine.findNext(document, textArea.getSelectionEnd())
+                    : findEngine.findPrevious(document, textArea.getSelectionStart());
+            if (!found) {
+                wrapped = true;
+                found = forward
+                        ? findEngine.findNext(document, 0)
+                        : findEngine.findPrevious(document, document.getLength());
+            }
+            if (found) {
+                textArea.setCaretPosition(findEngine.getMatchStart());
+                textArea.moveCaretPosition(findEngine.getMatchEnd());
+                findStatusLabel.setText(wrapped ? "Search wrapped" : " ");
+            } else {
+                findStatusLabel.setText("Text not found: " + findEngine.getQuery());
+                Toolkit.getDefaultToolkit().beep();
+            }
+            sample.stop();
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+            sample.fail(e);
+        } catch (FindEngine.MatchTooLongException e) {
+            findStatusLabel.setText(e.getMessage());
+            sample.fail(e);
+        }
+    }
+
+    // Highlights the matches in the visible part of the text area only, so the cost does not grow with the note
+    private void highlightVisibleMatches() {
+        clearFindHighlights();
+        if (findDialog == null || !findDialog.isDisplayable() || findEngine.isEmpty()) {
+            return;
+        }
+        Rectangle visible = textArea.getVisibleRect();
+        int from = textArea.viewToModel2D(new Point(visible.x, visible.y));
+        int to = textArea.viewToModel2D(new Point(visible.x + visible.width, visible.y + visible.height));
+        Highlighter highlighter = textArea.getHighlighter();
+        Highlighter.HighlightPainter painter = new DefaultHighlighter.DefaultHighlightPainter(Color.YELLOW);
+        try {
+            // The end of the visible range is widened to the end of its line so long lines are covered too
+            Element root = textArea.getDocument().getDefaultRootElement();
+            int end = root.getElement(root.getElementIndex(Math.max(from, to))).getEndOffset();
+            findEngine.findAll(textArea.getDocument(), from, end, (start, stop) -> {
+                try {
+                    findHighlights.add(highlighter.addHighlight(start, stop, painter));
+                } catch (BadLocationException e) {
+                    return false;
+                }
+                return findHighlights.size() < MAX_VISIBLE_HIGHLIGHTS;
+            });
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        } catch (FindEngine.MatchTooLongException e) {
+            findStatusLabel.setText(e.getMessage());
+        }
+    }
+
+    private void clearFindHighlights() {
+        Highlighter highlighter = textArea.getHighlighter();
+        for (Object tag : findHighlights) {
+            highlighter.removeHighlight(tag);
+        }
+        findHighlights.clear();
+    }
+
+    private void showReplaceDialog() {
+        if ((fileLoader != null && !fileLoader.isDone()) || (fileSaver != null && !fileSaver.isDone())
+                || (replaceTask != null && !replaceTask.isDone())) {
+            JOptionPane.showMessageDialog(this, "Please wait for the current task to finish.", "Replace", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        JTextField searchField = new JTextField(findField != null ? findField.getText() : "", 30);
+        JTextField replaceField = new JTextField(30);
+        JCheckBox matchCase = new JCheckBox("Match case", matchCaseCheckBox != null && matchCaseCheckBox.isSelected());
+        JCheckBox wholeWord = new JCheckBox("Whole word", wholeWordCheckBox != null && wholeWordCheckBox.isSelected());
+        JCheckBox regex = new JCheckBox("Regex ($1, ${name} in the replacement)", regexCheckBox != null && regexCheckBox.isSelected());
+        JPanel panel = new JPanel(new GridLayout(0, 1));
+        panel.add(new JLabel("Enter text to find:"));
+        panel.add(searchField);
+        panel.add(new JLabel("Enter text to replace:"));
+        panel.add(replaceField);
+        panel.add(matchCase);
+        panel.add(wholeWord);
+        panel.add(regex);
+        int option = JOptionPane.showConfirmDialog(this, panel, "Replace All", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (option != JOptionPane.OK_OPTION || searchField.getText().isEmpty()) {
+            return;
+        }
+        FindEngine engine = new FindEngine();
+        try {
+            engine.setQuery(searchField.getText(), matchCase.isSelected(), wholeWord.isSelected(), regex.isSelected());
+        } catch (java.util.regex.PatternSyntaxException e) {
+            JOptionPane.showMessageDialog(this, "Invalid expression: " + e.getDescription(), "Replace", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        replaceAll(engine, replaceField.getText());
+    }
+
+    private void showReplaceInNotesDialog() {
+        if (!catalogLoaded) {
+            statusLabel.setText("Loading saved notes...");
+            whenCatalogLoaded(this::showReplaceInNotesDialog);
+            return;
+        }
+        if (replaceInNotesDialog == null) {
+            replaceInNotesDialog = new ReplaceInNotesDialog(this, noteEngine, file -> openNote(file, null),
+                    this::prepareBulkReplace, this::finishBulkReplace);
+            replaceInNotesDialog.setLocationRelativeTo(this);
+            if (findField != null) {
+                replaceInNotesDialog.setQuery(findField.getText(), matchCaseCheckBox.isSelected(), wholeWordCheckBox.isSelected(), regexCheckBox.isSelected());
+            }
+        }
+        replaceInNotesDialog.setVisible(true);
+        replaceInNotesDialog.toFront();
+    }
+
+    // Notes open with unsaved changes, or busy, are left out of a bulk replace. Other tabs holding a note that is
+    // about to be rewritten drop their text, so they read the new note from disk when shown again.
+    private List<File> prepareBulkReplace(List<File> notes) {
+        List<File> allowed = new ArrayList<>();
+        for (File note : notes) {
+            NoteTab tab = findTab(note);
+            if (tab != null && (!tab.isSaved() || isBusy(tab))) {
+                continue;
+            }
+            if (tab != null && tab != activeTab) {
+                tab.hibernate();
+            }
+            allowed.add(note);
+        }
+        bulkReplacing = true;
+        tabbedPane.setEnabled(false);
+        updateEditable();
+        return allowed;
+    }
+
+    private void finishBulkReplace(List<File> changed) {
+        bulkReplacing = false;
+        tabbedPane.setEnabled(true);
+        updateEditable();
+        NoteTab tab = activeTab;
+        if (tab != null && tab.getFile() != null && tab.isSaved() && changed.contains(tab.getFile().getAbsoluteFile())) {
+            loadTab(tab, null);
+        }
+    }
+
+    private void replaceAll(FindEngine engine, String replacement) {
+        NoteTab tab = activeTab;
+        if (tab == null || tab.isHibernated()) {
+            return;
+        }
+        Document document = tab.getDocument();
+        UndoHistory undoHistory = tab.getUndoHistory();
+        // Every replacement is undone as a single step
+        undoHistory.beginGroup();
+        loadProgressBar.setValue(0);
+        loadProgressBar.setString("Replacing " + engine.getQuery());
+        loadPanel.setVisible(true);
+        revalidate();
+
+        ReplaceAllTask task = new ReplaceAllTask(document, engine, replacement) {
+            @Override
+            protected void done() {
+                loadPanel.setVisible(false);
+                revalidate();
+                replaceTask = null;
+                replacingTab = null;
+                updateEditable();
+                try {
+                    int replaced = get();
+                    if (isStopped()) {
+                        // The task has already rolled its edits back
+                        undoHistory.abandonGroup();
+                        statusLabel.setText("Replace cancelled");
+                    } else {
+                        undoHistory.endGroup();
+                        statusLabel.setText("Replaced " + replaced + " occurrence" + (replaced == 1 ? "" : "s"));
+                    }
+                } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                    undoHistory.abandonGroup();
+                    e.printStackTrace();
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(StudyStash3.this, "Error replacing text: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        task.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                loadProgressBar.setValue((Integer) e.getNewValue());
+            }
+        });
+        replaceTask = task;
+        replacingTab = tab;
+        updateEditable();
+        task.execute();
+    }
+
+    public static void main(String[] args) {
+        // Every event from here on is timed, and freezes are logged with the EDT's stack, so slow handlers show up
+        // under Help > Diagnostics
+        FreezeWatchdog.install(EventDispatchMonitor.install(), new File(FREEZE_LOG_FILE));
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                try {
+                    StudyStash3 notepad = new StudyStash3();
+                    notepad.setVisible(true);
+                } catch (RuntimeException e) {
+                    // With no window the EDT would keep an invisible process alive, e.g. a training run with no display
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,308 @@
+package studystash;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Segment;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Keeps MarkdownLexer tokens for every line of one document, for SyntaxView to paint. An edit only marks the lines
+// it touched as dirty; a background thread lexes from the first dirty line, under the document's read lock and for
+// at most BATCH_NANOS at a time so typing never waits on it for long, and stops once a line ends in the state the next
+// line already started in. Each batch is handed to the EDT and applied there in one go, then just its lines are
+// repainted. A batch that was overtaken by an edit is dropped and lexed again. Until a dirty line is lexed, the
+// tokens it had before are painted.
+// Lives in a document property, so each tab's note keeps its tokens while another tab is showing.
+public class SyntaxHighlighter implements DocumentListener {
+    private static final String PROPERTY = "studystash.syntaxHighlighter";
+    private static final long BATCH_NANOS = 4_000_000;
+    private static final int MAX_BATCH_LINES = 50_000;
+    private static final int DIRTY = 1 << 31;
+    private static final ExecutorService LEXER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "syntax-highlighter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Only ever used on the LEXER thread
+    private static final MarkdownLexer lexer = new MarkdownLexer();
+    private static final Segment lineText = new Segment();
+
+    private final AbstractDocument document;
+    // In step with the document's lines, changed only under its write lock or while no batch is out. Per line: the
+    // lexer state it starts in, or'ed with DIRTY until it is lexed in that state, and its tokens.
+    private int[] states = new int[0];
+    private int[][] tokens = new int[0][];
+    private int lineCount;
+    // No line before it is dirty
+    private int firstDirty;
+    // Bumped by every edit, so a batch lexed from older text is recognised
+    private volatile int version;
+    private boolean scheduled;
+    private volatile boolean installed = true;
+    private volatile JTextComponent host;
+
+    private SyntaxHighlighter(AbstractDocument document) {
+        this.document = document;
+    }
+
+    // The document's highlighter, made and started on first use; null for a document it cannot lex in the background
+    public static SyntaxHighlighter install(Document document) {
+        SyntaxHighlighter highlighter = of(document);
+        if (highlighter != null || !(document instanceof AbstractDocument)) {
+            return highlighter;
+        }
+        SyntaxHighlighter created = new SyntaxHighlighter((AbstractDocument) document);
+        document.putProperty(PROPERTY, created);
+        // Listening starts under the read lock, so no edit falls between counting the lines and hearing of it
+        document.render(() -> {
+            created.resetLines();
+            document.addDocumentListener(created);
+        });
+        created.schedule();
+        return created;
+    }
+
+    public static SyntaxHighlighter of(Document document) {
+        Object highlighter = document.getProperty(PROPERTY);
+        return highlighter instanceof SyntaxHighlighter ? (SyntaxHighlighter) highlighter : null;
+    }
+
+    public static void uninstall(Document document) {
+        SyntaxHighlighter highlighter = of(document);
+        if (highlighter != null) {
+            highlighter.installed = false;
+            document.removeDocumentListener(highlighter);
+            document.putProperty(PROPERTY, null);
+        }
+    }
+
+    // The component to repaint as batches come in, while it shows this document
+    public void setHost(JTextComponent host) {
+        this.host = host;
+    }
+
+    // For painting, under the document's read lock: the latest tokens of the line, possibly from before an edit
+    public int[] getTokens(int line) {
+        return line < lineCount ? tokens[line] : MarkdownLexer.NO_TOKENS;
+    }
+
+    // True once every line is lexed
+    public synchronized boolean isIdle() {
+        return !scheduled;
+    }
+
+    private void resetLines() {
+        lineCount = document.getDefaultRootElement().getElementCount();
+        states = new int[Math.max(lineCount, 16)];
+        tokens = new int[states.length][];
+        Arrays.fill(states, 0, lineCount, DIRTY);
+        Arrays.fill(tokens, MarkdownLexer.NO_TOKENS);
+        firstDirty = 0;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        update(e);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        update(e);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    // Called under the write lock
+    private void update(DocumentEvent e) {
+        version++;
+        Element root = document.getDefaultRootElement();
+        DocumentEvent.ElementChange change = e.getChange(root);
+        int first;
+        if (change != null) {
+            first = change.getIndex();
+            replaceLines(first, change.getChildrenRemoved().length, change.getChildrenAdded().length);
+        } else {
+            first = Math.min(root.getElementIndex(e.getOffset()), lineCount - 1);
+            states[first] |= DIRTY;
+        }
+        if (lineCount != root.getElementCount()) {
+            // Out of step with the document, which should not happen; start over rather than paint the wrong lines
+            resetLines();
+            first = 0;
+        }
+        firstDirty = Math.min(firstDirty, first);
+        schedule();
+    }
+
+    // The removed lines are replaced by added dirty ones; the first keeps its start state and, until it is lexed
+    // again, its old tokens
+    private void replaceLines(int index, int removed, int added) {
+        int count = lineCount - removed + added;
+        int startState = removed > 0 ? states[index] & ~DIRTY : 0;
+        int[] firstTokens = removed > 0 ? tokens[index] : MarkdownLexer.NO_TOKENS;
+        if (count > states.length) {
+            int capacity = Math.max(count, states.length + (states.length >> 1));
+            states = Arrays.copyOf(states, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+        }
+        int tail = lineCount - index - removed;
+        System.arraycopy(states, index + removed, states, index + added, tail);
+        System.arraycopy(tokens, index + removed, tokens, index + added, tail);
+        for (int i = index; i < index + added; i++) {
+            states[i] = DIRTY;
+            tokens[i] = MarkdownLexer.NO_TOKENS;
+        }
+        if (added > 0) {
+            states[index] = startState | DIRTY;
+            tokens[index] = firstTokens;
+        }
+        if (count < lineCount) {
+            Arrays.fill(tokens, count, lineCount, null);
+        }
+        lineCount = count;
+    }
+
+    private synchronized void schedule() {
+        if (!scheduled && installed && firstDirty < lineCount) {
+            scheduled = true;
+            LEXER.execute(this::lexBatch);
+        }
+    }
+
+    // On the LEXER thread
+    private void lexBatch() {
+        Batch batch = new Batch();
+        try {
+            document.render(() -> lex(batch));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        SwingUtilities.invokeLater(() -> apply(batch));
+    }
+
+    // Under the read lock; reads the line arrays, which no one changes meanwhile
+    private void lex(Batch batch) {
+        batch.version = version;
+        batch.first = firstDirty;
+        if (!installed || batch.first >= lineCount) {
+            return;
+        }
+        Metrics.Sample sample = Metrics.start(Metrics.Operation.HIGHLIGHT);
+        Element root = document.getDefaultRootElement();
+        int length = document.getLength();
+        long deadline = System.nanoTime() + BATCH_NANOS;
+        long chars = 0;
+        int line = batch.first;
+        int state = states[line] & ~DIRTY;
+        while (line < lineCount && batch.count < MAX_BATCH_LINES) {
+            Element element = root.getElement(line);
+            int start = element.getStartOffset();
+            int end = Math.min(element.getEndOffset(), length + 1) - 1;
+            try {
+                document.getText(start, Math.max(0, end - start), lineText);
+            } catch (BadLocationException e) {
+                sample.fail(e);
+                return;
+            }
+            state = lexer.lexLine(lineText, state);
+            batch.add(lexer.getTokens(), state);
+            chars += lineText.count + 1;
+            line++;
+            if (line < lineCount && states[line] == state) {
+                // Clean and starting in the state it always did: nothing below changes
+                batch.converged = true;
+                break;
+            }
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+        sample.stop(chars);
+    }
+
+    // On the EDT
+    private void apply(Batch batch) {
+        boolean[] applied = new boolean[1];
+        document.render(() -> {
+            synchronized (this) {
+                scheduled = false;
+            }
+            if (!installed || batch.version != version || batch.count == 0) {
+                schedule();
+                return;
+            }
+            for (int i = 0; i < batch.count; i++) {
+                int line = batch.first + i;
+                tokens[line] = batch.tokens[i];
+                states[line] &= ~DIRTY;
+                boolean last = i == batch.count - 1;
+                if (line + 1 < lineCount && !(last && batch.converged)) {
+                    states[line + 1] = batch.endStates[i] | DIRTY;
+                }
+            }
+            int next = batch.first + batch.count;
+            if (batch.converged) {
+                while (next < lineCount && (states[next] & DIRTY) == 0) {
+                    next++;
+                }
+            }
+            firstDirty = next;
+            applied[0] = true;
+            schedule();
+        });
+        if (applied[0]) {
+            repaint(batch.first, batch.first + batch.count - 1);
+        }
+    }
+
+    private void repaint(int firstLine, int lastLine) {
+        JTextComponent component = host;
+        if (component == null || component.getDocument() != document) {
+            return;
+        }
+        try {
+            Element root = document.getDefaultRootElement();
+            lastLine = Math.min(lastLine, root.getElementCount() - 1);
+            if (firstLine > lastLine) {
+                return;
+            }
+            Rectangle2D top = component.modelToView2D(root.getElement(firstLine).getStartOffset());
+            Rectangle2D bottom = component.modelToView2D(root.getElement(lastLine).getStartOffset());
+            if (top != null && bottom != null) {
+                component.repaint(0, (int) top.getY(), component.getWidth(), (int) Math.ceil(bottom.getMaxY() - top.getY()));
+            }
+        } catch (BadLocationException e) {
+            component.repaint();
+        }
+    }
+
+    // The tokens and end states of consecutive lines, from first on
+    private static class Batch {
+        int version;
+        int first;
+        int count;
+        boolean converged;
+        int[][] tokens = new int[64][];
+        int[] endStates = new int[64];
+
+        void add(int[] lineTokens, int endState) {
+            if (count == tokens.length) {
+                tokens = Arrays.copyOf(tokens, count * 2);
+                endStates = Arrays.copyOf(endStates, count * 2);
+            }
+            tokens[count] = lineTokens;
+            endStates[count] = endState;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package studystash;
+
+import javax.swing.JTextArea;
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.PlainView;
+import javax.swing.text.Segment;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import java.awt.*;
+
+// PlainView that paints each line in the colours of the tokens its document's SyntaxHighlighter has for it. Only the
+// colour changes, never the font, so every line measures just as it does in a plain view and nothing is laid out
+// again when tokens come in. Without a highlighter it paints like PlainView.
+public class SyntaxView extends PlainView {
+    private static final Color[] COLORS = new Color[MarkdownLexer.TYPE_MASK + 1];
+
+    static {
+        COLORS[MarkdownLexer.HEADING] = new Color(0x1a5fb4);
+        COLORS[MarkdownLexer.EMPHASIS] = new Color(0x6a3d9a);
+        COLORS[MarkdownLexer.STRONG] = new Color(0xa51d2d);
+        COLORS[MarkdownLexer.CODE] = new Color(0x00606a);
+        COLORS[MarkdownLexer.FENCE] = new Color(0x8a8a8a);
+        COLORS[MarkdownLexer.LINK] = new Color(0x1c71d8);
+        COLORS[MarkdownLexer.QUOTE] = new Color(0x6f6f6f);
+        COLORS[MarkdownLexer.MARKUP] = new Color(0xb35900);
+        COLORS[MarkdownLexer.KEYWORD] = new Color(0x8b2fa8);
+        COLORS[MarkdownLexer.STRING] = new Color(0x2e7d32);
+        COLORS[MarkdownLexer.COMMENT] = new Color(0x8a8a8a);
+        COLORS[MarkdownLexer.NUMBER] = new Color(0x1565c0);
+    }
+
+    private final Segment text = new Segment();
+    private final Segment run = new Segment();
+
+    public SyntaxView(Element elem) {
+        super(elem);
+    }
+
+    @Override
+    protected float drawUnselectedText(Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException {
+        SyntaxHighlighter highlighter = SyntaxHighlighter.of(getDocument());
+        JTextComponent host = (JTextComponent) getContainer();
+        if (highlighter == null || !host.isEnabled()) {
+            return super.drawUnselectedText(g, x, y, p0, p1);
+        }
+        Element root = getElement();
+        int line = root.getElementIndex(p0);
+        int lineStart = root.getElement(line).getStartOffset();
+        int[] tokens = highlighter.getTokens(line);
+        if (tokens.length == 0) {
+            return super.drawUnselectedText(g, x, y, p0, p1);
+        }
+        getDocument().getText(p0, p1 - p0, text);
+        int from = p0 - lineStart;
+        int to = p1 - lineStart;
+        int pos = from;
+        int k = 0;
+        while (pos < to) {
+            // Tokens may be from before the last edit, so they are only trusted as far as the text goes
+            while (k < tokens.length && tokens[k] >>> MarkdownLexer.TYPE_BITS <= pos) {
+                k++;
+            }
+            int type = k > 0 ? tokens[k - 1] & MarkdownLexer.TYPE_MASK : MarkdownLexer.PLAIN;
+            int next = k < tokens.length ? Math.min(to, tokens[k] >>> MarkdownLexer.TYPE_BITS) : to;
+            run.array = text.array;
+            run.offset = text.offset + pos - from;
+            run.count = next - pos;
+            Color color = COLORS[type];
+            g.setColor(color != null ? color : host.getForeground());
+            x = Utilities.drawTabbedText(run, x, y, g, this, lineStart + pos);
+            pos = next;
+        }
+        return x;
+    }
+
+    // Text area UI that paints with a SyntaxView. Wrapped lines and bidi text keep the views BasicTextAreaUI makes.
+    public static class TextAreaUI extends BasicTextAreaUI {
+        @Override
+        public View create(Element elem) {
+            JTextComponent component = getComponent();
+            Object i18n = elem.getDocument().getProperty("i18n");
+            if (component instanceof JTextArea && ((JTextArea) component).getLineWrap() || Boolean.TRUE.equals(i18n)) {
+                return super.create(elem);
+            }
+            return new SyntaxView(elem);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package studystash;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+// Scaled-down copies of large images. Decoding happens on a small worker pool and reads only every n-th pixel
+// through ImageReader subsampling, so a full-resolution scan is never held in memory. Thumbnails are kept in a
+// memory LRU bounded by bytes and in a disk cache whose entries are keyed by path, size and mtime of the source.
+// An edited or re-imported image gets a new key, so the disk cache is bounded too: past MAX_DISK_BYTES the least
+// recently used entries, by mtime, are deleted, and reading an entry back touches its mtime.
+public class ThumbnailCache {
+    private static final String DISK_FORMAT = "jpg";
+    private static final long MAX_DISK_BYTES = 64L * 1024 * 1024;
+
+    private final File cacheDirectory;
+    private final int width;
+    private final long maxBytes;
+    private final LinkedHashMap<String, BufferedImage> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final ExecutorService decoders;
+    private final Object diskLock = new Object();
+    private long bytes;
+    // Size of the disk cache, or -1 until it has been measured
+    private long diskBytes = -1;
+
+    public ThumbnailCache(File cacheDirectory, int width, long maxBytes) {
+        this.cacheDirectory = cacheDirectory;
+        this.width = width;
+        this.maxBytes = maxBytes;
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        decoders = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "thumbnail-decoder");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    private String key(File file) {
+        return file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified() + '|' + width;
+    }
+
+    public synchronized BufferedImage getIfPresent(File file) {
+        return memory.get(key(file));
+    }
+
+    // Decodes in the background and hands the thumbnail (null if the file cannot be read) to onLoaded on the EDT.
+    // Cancelling the returned future before it starts drops the request, e.g. once the image has scrolled out of view.
+    public Future<?> request(File file, Consumer<BufferedImage> onLoaded) {
+        return decoders.submit(() -> {
+            BufferedImage image = null;
+            try {
+                image = load(file);
+            } catch (IOException e) {
+                System.out.println("Error loading image: " + e.getMessage());
+            }
+            BufferedImage result = image;
+            SwingUtilities.invokeLater(() -> onLoaded.accept(result));
+        });
+    }
+
+    // Blocking lookup through memory, disk and finally the source image
+    public BufferedImage load(File file) throws IOException {
+        String key = key(file);
+        BufferedImage image = getIfPresent(file);
+        if (image != null) {
+            return image;
+        }
+        File cached = new File(cacheDirectory, digest(key) + "." + DISK_FORMAT);
+        if (cached.isFile()) {
+            image = ImageIO.read(cached);
+            if (image != null) {
+                cached.setLastModified(System.currentTimeMillis());
+            }
+        }
+        if (image == null) {
+            image = decodeScaled(file);
+            if (image == null) {
+                return null;
+            }
+            writeDiskCache(image, cached);
+        }
+        put(key, image);
+        return image;
+    }
+
+    private BufferedImage decodeScaled(File file) throws IOException {
+        Metrics.Sample sample = Metrics.start(Metrics.Operation.CALENDAR_DECODE);
+        try {
+            BufferedImage image = decode(file);
+            sample.stop(file.length());
+            return image;
+        } catch (IOException | RuntimeException e) {
+            sample.fail(e);
+            throw e;
+        }
+    }
+
+    private BufferedImage decode(File file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int sourceWidth = reader.getWidth(0);
+                ImageReadParam param = reader.getDefaultReadParam();
+                // Subsample down to no less than the thumbnail width, then finish with a smooth scale
+                int step = Math.max(1, sourceWidth / width);
+                param.setSourceSubsampling(step, step, 0, 0);
+                return scale(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scale(BufferedImage source) {
+        int targetWidth = Math.min(width, source.getWidth());
+        int targetHeight = Math.max(1, (int) ((long) source.getHeight() * targetWidth / source.getWidth()));
+        BufferedImage thumbnail = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = thumbnail.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, targetWidth, targetHeight);
+            g.drawImage(source, 0, 0, targetWidth, targetHeight, null);
+        } finally {
+            g.dispose();
+        }
+        return thumbnail;
+    }
+
+    private void writeDiskCache(BufferedImage image, File cached) {
+        try {
+            Files.createDirectories(cacheDirectory.toPath());
+            Path temp = Files.createTempFile(cacheDirectory.toPath(), "thumb", ".tmp");
+            try {
+                ImageIO.write(image, DISK_FORMAT, temp.toFile());
+                Files.move(temp, cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            pruneDiskCache(cached.length());
+        } catch (IOException e) {
+            // the disk cache is only an optimization
+            e.printStackTrace();
+        }
+    }
+
+    // Counts a new entry and, once the cache is over its budget, deletes the least recently used entries until it
+    // is back under three quarters of it, so the directory is not listed again on every write
+    private void pruneDiskCache(long added) {
+        synchronized (diskLock) {
+            if (diskBytes >= 0) {
+                diskBytes += added;
+                if (diskBytes <= MAX_DISK_BYTES) {
+                    return;
+                }
+            }
+            File[] entries = cacheDirectory.listFiles((dir, name) -> name.endsWith("." + DISK_FORMAT));
+            if (entries == null) {
+                return;
+            }
+            long[] modified = new long[entries.length];
+            long total = 0;
+            for (int i = 0; i < entries.length; i++) {
+                modified[i] = entries[i].lastModified();
+                total += entries[i].length();
+            }
+            Integer[] order = new Integer[entries.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> modified[i]));
+            if (total > MAX_DISK_BYTES) {
+                for (int i = 0; i < order.length && total > MAX_DISK_BYTES * 3 / 4; i++) {
+                    File entry = entries[order[i]];
+                    long length = entry.length();
+                    if (entry.delete()) {
+                        total -= length;
+                    }
+                }
+            }
+            diskBytes = total;
+        }
+    }
+
+    private synchronized void put(String key, BufferedImage image) {
+        BufferedImage old = memory.put(key, image);
+        if (old != null) {
+            bytes -= sizeOf(old);
+        }
+        bytes += sizeOf(image);
+        Iterator<BufferedImage> eldest = memory.values().iterator();
+        while (bytes > maxBytes && memory.size() > 1 && eldest.hasNext()) {
+            bytes -= sizeOf(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+
+    private static String digest(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
@@ -0,0 +1,650 @@
+package studystash;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.event.UndoableEditListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.DocumentFilter;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// Undo and redo for one document, bounded by bytes instead of by edit count.
+// Edits are kept as plain text (offset, removed text, inserted text), with the removed text captured by a
+// DocumentFilter before the document drops it. Consecutive keystrokes are coalesced into one step per word or per
+// pause in typing. Once the steps held in memory pass the byte budget, the oldest are written to a temp file and read
+// back one at a time as they are undone, so undo depth is bounded by disk rather than heap.
+// Huge edits to a PieceTableDocument keep the piece table's own undo record, which shares its buffers instead of
+// copying text; such a step cannot go to disk, so spilling past it drops the history older than it.
+// Like UndoManager it is attached as an UndoableEditListener, and detaching it pauses recording. EDT only.
+public class UndoHistory implements UndoableEditListener {
+    public static final long DEFAULT_MEMORY_BYTES = 8L * 1024 * 1024;
+    // Keystrokes further apart than this start a new undo step
+    private static final long COALESCE_MILLIS = 1000;
+    private static final int MAX_COALESCED_CHARS = 1024;
+    private static final int LARGE_EDIT_CHARS = 1024 * 1024;
+
+    private final long memoryBytes;
+    private final SpillStack undoStack = new SpillStack("undo");
+    private final SpillStack redoStack = new SpillStack("redo");
+    private Document document;
+    private CaptureFilter filter;
+    private Group coalescing;
+    private Group openGroup;
+    private int groupDepth;
+    private boolean applying;
+    // Text the edit in progress is about to remove, captured by the filter
+    private int capturedOffset = -1;
+    private String capturedText;
+
+    public UndoHistory() {
+        this(DEFAULT_MEMORY_BYTES);
+    }
+
+    // memoryBytes is the budget for each direction, undo and redo
+    public UndoHistory(long memoryBytes) {
+        this.memoryBytes = memoryBytes;
+    }
+
+    // Starts recording edits to document, with an empty history
+    public void install(Document document) {
+        resume(document);
+        discardAllEdits();
+    }
+
+    // Starts recording edits to document and keeps the history, which must describe a document with the same text
+    public void resume(Document document) {
+        detach();
+        this.document = document;
+        if (document instanceof AbstractDocument) {
+            AbstractDocument abstractDocument = (AbstractDocument) document;
+            filter = new CaptureFilter(abstractDocument.getDocumentFilter());
+            abstractDocument.setDocumentFilter(filter);
+        }
+        document.addUndoableEditListener(this);
+    }
+
+    // Lets go of the document and moves the whole history to disk, until resume() is called with the same text again.
+    // Steps kept as the document's own edit records only work on that document object, so they are dropped here.
+    public void hibernate() {
+        detach();
+        coalescing = null;
+        undoStack.trim(0, false);
+        redoStack.trim(0, false);
+    }
+
+    private void detach() {
+        if (document != null) {
+            document.removeUndoableEditListener(this);
+            if (document instanceof AbstractDocument && ((AbstractDocument) document).getDocumentFilter() == filter) {
+                ((AbstractDocument) document).setDocumentFilter(filter.previous);
+            }
+        }
+        document = null;
+        filter = null;
+        capturedText = null;
+    }
+
+    public boolean canUndo() {
+        return document != null && groupDepth == 0 && !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return document != null && groupDepth == 0 && !redoStack.isEmpty();
+    }
+
+    public void discardAllEdits() {
+        undoStack.clear();
+        redoStack.clear();
+        coalescing = null;
+        capturedText = null;
+    }
+
+    // Bytes of history currently held in memory, and on disk
+    public long getMemoryBytes() {
+        return undoStack.memoryBytes + redoStack.memoryBytes;
+    }
+
+    public long getSpilledBytes() {
+        return undoStack.spilledBytes + redoStack.spilledBytes;
+    }
+
+    // Edits made until the matching endGroup() are undone and redone as one step
+    public void beginGroup() {
+        if (groupDepth++ == 0) {
+            openGroup = new Group();
+        }
+    }
+
+    public void endGroup() {
+        if (groupDepth > 0 && --groupDepth == 0) {
+            Group group = openGroup;
+            openGroup = null;
+            if (group.edits.size() == 1) {
+                // Typing arrives as a replace of the (empty) selection, so it still has to coalesce
+                record(group.edits.get(0));
+            } else if (!group.edits.isEmpty()) {
+                coalescing = null;
+                push(group);
+            }
+        }
+    }
+
+    // Drops the open group without undoing it, for a caller that has already reverted those edits itself
+    public void abandonGroup() {
+        groupDepth = 0;
+        openGroup = null;
+    }
+
+    public void undo() throws CannotUndoException {
+        if (!canUndo()) {
+            throw new CannotUndoException();
+        }
+        coalescing = null;
+        Group group;
+        try {
+            group = undoStack.pop();
+        } catch (IOException e) {
+            e.printStackTrace();
+            undoStack.clear();
+            throw new CannotUndoException();
+        }
+        applying = true;
+        try {
+            for (int i = group.edits.size() - 1; i >= 0; i--) {
+                group.edits.get(i).undo(document);
+            }
+        } catch (BadLocationException e) {
+            // The document no longer matches the history, so none of it can be trusted
+            e.printStackTrace();
+            discardAllEdits();
+            throw new CannotUndoException();
+        } finally {
+            applying = false;
+        }
+        redoStack.push(group);
+        redoStack.trim(memoryBytes, false);
+    }
+
+    public void redo() throws CannotRedoException {
+        if (!canRedo()) {
+            throw new CannotRedoException();
+        }
+        coalescing = null;
+        Group group;
+        try {
+            group = redoStack.pop();
+        } catch (IOException e) {
+            e.printStackTrace();
+            redoStack.clear();
+            throw new CannotRedoException();
+        }
+        applying = true;
+        try {
+            for (Edit edit : group.edits) {
+                edit.redo(document);
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+            discardAllEdits();
+            throw new CannotRedoException();
+        } finally {
+            applying = false;
+        }
+        undoStack.push(group);
+        undoStack.trim(memoryBytes, false);
+    }
+
+    // Deletes the spill files
+    public void close() {
+        undoStack.close();
+        redoStack.close();
+    }
+
+    @Override
+    public void undoableEditHappened(UndoableEditEvent e) {
+        if (applying) {
+            return;
+        }
+        Edit edit = toEdit(e.getEdit());
+        redoStack.clear();
+        if (groupDepth > 0) {
+            openGroup.add(edit);
+        } else {
+            record(edit);
+        }
+    }
+
+    private void record(Edit edit) {
+        long now = System.currentTimeMillis();
+        if (coalescing != null && coalescing == undoStack.peek() && edit instanceof TextEdit
+                && now - coalescing.lastMillis <= COALESCE_MILLIS) {
+            long before = coalescing.bytes;
+            if (coalescing.coalesce((TextEdit) edit)) {
+                coalescing.lastMillis = now;
+                undoStack.grew(coalescing.bytes - before);
+                return;
+            }
+        }
+        Group group = new Group();
+        group.add(edit);
+        group.lastMillis = now;
+        coalescing = edit instanceof TextEdit && ((TextEdit) edit).isKeystroke() ? group : null;
+        push(group);
+    }
+
+    private void push(Group group) {
+        undoStack.push(group);
+        undoStack.trim(memoryBytes, group == coalescing);
+    }
+
+    private Edit toEdit(UndoableEdit edit) {
+        String removed = capturedText;
+        int removedAt = capturedOffset;
+        capturedText = null;
+        if (edit instanceof DocumentEvent) {
+            DocumentEvent event = (DocumentEvent) edit;
+            int offset = event.getOffset();
+            int length = event.getLength();
+            if (event.getType() == DocumentEvent.EventType.REMOVE && removed != null && removedAt == offset && removed.length() == length) {
+                return new TextEdit(offset, removed, "");
+            }
+            if (event.getType() == DocumentEvent.EventType.INSERT && !keepsNativeEdit(event.getDocument(), length)) {
+                try {
+                    return new TextEdit(offset, "", event.getDocument().getText(offset, length));
+                } catch (BadLocationException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return new NativeEdit(edit);
+    }
+
+    private static boolean keepsNativeEdit(Document document, int length) {
+        return length > LARGE_EDIT_CHARS && document instanceof PieceTableDocument;
+    }
+
+    private boolean isRecording(Document document) {
+        if (applying || !(document instanceof AbstractDocument)) {
+            return false;
+        }
+        for (UndoableEditListener listener : ((AbstractDocument) document).getUndoableEditListeners()) {
+            if (listener == this) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Reads the text an edit is about to remove; skipped while recording is paused
+    private void capture(Document document, int offset, int length) {
+        capturedText = null;
+        if (length > 0 && isRecording(document) && !keepsNativeEdit(document, length)) {
+            try {
+                capturedText = document.getText(offset, length);
+                capturedOffset = offset;
+            } catch (BadLocationException e) {
+                // the edit itself will fail with the same exception
+            }
+        }
+    }
+
+    private final class CaptureFilter extends DocumentFilter {
+        private final DocumentFilter previous;
+
+        CaptureFilter(DocumentFilter previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void remove(FilterBypass fb, int offset, int length) throws BadLocationException {
+            capture(fb.getDocument(), offset, length);
+            if (previous != null) {
+                previous.remove(fb, offset, length);
+            } else {
+                fb.remove(offset, length);
+            }
+        }
+
+        @Override
+        public void insertString(FilterBypass fb, int offset, String string, AttributeSet attr) throws BadLocationException {
+            if (previous != null) {
+                previous.insertString(fb, offset, string, attr);
+            } else {
+                fb.insertString(offset, string, attr);
+            }
+        }
+
+        // A replace is a remove and an insert, undone together
+        @Override
+        public void replace(FilterBypass fb, int offset, int length, String text, AttributeSet attrs) throws BadLocationException {
+            capture(fb.getDocument(), offset, length);
+            beginGroup();
+            try {
+                if (previous != null) {
+                    previous.replace(fb, offset, length, text, attrs);
+                } else {
+                    fb.replace(offset, length, text, attrs);
+                }
+            } finally {
+                endGroup();
+            }
+        }
+    }
+
+    private interface Edit {
+        void undo(Document document) throws BadLocationException;
+
+        void redo(Document document) throws BadLocationException;
+
+        long bytes();
+    }
+
+    private static final class TextEdit implements Edit {
+        private int offset;
+        private String removed;
+        private String inserted;
+
+        TextEdit(int offset, String removed, String inserted) {
+            this.offset = offset;
+            this.removed = removed;
+            this.inserted = inserted;
+        }
+
+        boolean isKeystroke() {
+            return removed.length() + inserted.length() == 1;
+        }
+
+        // Folds the next keystroke into this edit: typing on, backspace, forward delete, or rubbing out what was just typed
+        boolean coalesce(TextEdit next) {
+            if (!next.isKeystroke() || removed.length() + inserted.length() >= MAX_COALESCED_CHARS) {
+                return false;
+            }
+            if (next.removed.isEmpty()) {
+                if (!removed.isEmpty() || next.offset != offset + inserted.length()) {
+                    return false;
+                }
+                // A word and the spaces after it make one step
+                if (!inserted.isEmpty() && Character.isWhitespace(inserted.charAt(inserted.length() - 1))
+                        && !Character.isWhitespace(next.inserted.charAt(0))) {
+                    return false;
+                }
+                inserted += next.inserted;
+                return true;
+            }
+            if (removed.isEmpty() && !inserted.isEmpty() && next.offset == offset + inserted.length() - 1) {
+                inserted = inserted.substring(0, inserted.length() - 1);
+                return true;
+            }
+            if (!inserted.isEmpty()) {
+                return false;
+            }
+            if (next.offset == offset - 1) {
+                removed = next.removed + removed;
+                offset = next.offset;
+                return true;
+            }
+            if (next.offset == offset) {
+                removed += next.removed;
+                return true;
+            }
+            return false;
+        }
+
+        public void undo(Document document) throws BadLocationException {
+            if (!inserted.isEmpty()) {
+                document.remove(offset, inserted.length());
+            }
+            if (!removed.isEmpty()) {
+                document.insertString(offset, removed, null);
+            }
+        }
+
+        public void redo(Document document) throws BadLocationException {
+            if (!removed.isEmpty()) {
+                document.remove(offset, removed.length());
+            }
+            if (!inserted.isEmpty()) {
+                document.insertString(offset, inserted, null);
+            }
+        }
+
+        public long bytes() {
+            return 48 + 2L * (removed.length() + inserted.length());
+        }
+    }
+
+    // The document's own record of an edit; cheap for a piece table, but it cannot be written to disk
+    private static final class NativeEdit implements Edit {
+        private final UndoableEdit edit;
+
+        NativeEdit(UndoableEdit edit) {
+            this.edit = edit;
+        }
+
+        public void undo(Document document) {
+            edit.undo();
+        }
+
+        public void redo(Document document) {
+            edit.redo();
+        }
+
+        public long bytes() {
+            return 64;
+        }
+    }
+
+    private static final class Group {
+        private final List<Edit> edits = new ArrayList<>(1);
+        private long bytes = 32;
+        private long lastMillis;
+
+        void add(Edit edit) {
+            edits.add(edit);
+            bytes += edit.bytes();
+        }
+
+        boolean coalesce(TextEdit next) {
+            Edit last = edits.get(edits.size() - 1);
+            if (!(last instanceof TextEdit)) {
+                return false;
+            }
+            long before = last.bytes();
+            if (!((TextEdit) last).coalesce(next)) {
+                return false;
+            }
+            bytes += last.bytes() - before;
+            return true;
+        }
+
+        boolean canSpill() {
+            for (Edit edit : edits) {
+                if (!(edit instanceof TextEdit)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // [edit count] then per edit [offset][removed][inserted], strings as UTF-8 with an int length
+        byte[] toBytes() throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.min(bytes, 1 << 20));
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeInt(edits.size());
+            for (Edit edit : edits) {
+                TextEdit text = (TextEdit) edit;
+                out.writeInt(text.offset);
+                writeString(out, text.removed);
+                writeString(out, text.inserted);
+            }
+            out.flush();
+            return buffer.toByteArray();
+        }
+
+        static Group fromBytes(ByteBuffer in) {
+            Group group = new Group();
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                int offset = in.getInt();
+                String removed = readString(in);
+                group.add(new TextEdit(offset, removed, readString(in)));
+            }
+            return group;
+        }
+
+        private static void writeString(DataOutputStream out, String string) throws IOException {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(ByteBuffer in) {
+            int length = in.getInt();
+            String string = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return string;
+        }
+    }
+
+    // A stack whose newest groups are in memory and whose oldest live in a temp file, itself used as a stack:
+    // each record is [payload][payload length], so the newest one can be popped by reading back from the end.
+    private static final class SpillStack {
+        private final String name;
+        private final ArrayDeque<Group> memory = new ArrayDeque<>();
+        private long memoryBytes;
+        private File spillFile;
+        private FileChannel channel;
+        private long spilledBytes;
+        private int spilledGroups;
+
+        SpillStack(String name) {
+            this.name = name;
+        }
+
+        boolean isEmpty() {
+            return memory.isEmpty() && spilledGroups == 0;
+        }
+
+        Group peek() {
+            return memory.peekLast();
+        }
+
+        void push(Group group) {
+            memory.addLast(group);
+            memoryBytes += group.bytes;
+        }
+
+        void grew(long bytes) {
+            memoryBytes += bytes;
+        }
+
+        Group pop() throws IOException {
+            if (!memory.isEmpty()) {
+                Group group = memory.removeLast();
+                memoryBytes -= group.bytes;
+                return group;
+            }
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(length, spilledBytes - 4);
+            int payloadLength = length.getInt(0);
+            ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+            readFully(payload, spilledBytes - 4 - payloadLength);
+            payload.flip();
+            spilledBytes -= 4 + payloadLength;
+            spilledGroups--;
+            return Group.fromBytes(payload);
+        }
+
+        void clear() {
+            memory.clear();
+            memoryBytes = 0;
+            dropSpilled();
+        }
+
+        // Writes the oldest groups to disk once memory is over budget, down to three quarters of it.
+        // keepNewest leaves the newest group in memory so typing can keep coalescing into it.
+        void trim(long maxBytes, boolean keepNewest) {
+            if (memoryBytes <= maxBytes) {
+                return;
+            }
+            while (memoryBytes > maxBytes * 3 / 4 && memory.size() > (keepNewest ? 1 : 0)) {
+                Group oldest = memory.removeFirst();
+                memoryBytes -= oldest.bytes;
+                if (!oldest.canSpill()) {
+                    // Everything older sits beneath it and can no longer be reached
+                    dropSpilled();
+                    continue;
+                }
+                try {
+                    byte[] payload = oldest.toBytes();
+                    ByteBuffer record = ByteBuffer.allocate(payload.length + 4);
+                    record.put(payload).putInt(payload.length).flip();
+                    FileChannel out = openChannel();
+                    long position = spilledBytes;
+                    while (record.hasRemaining()) {
+                        position += out.write(record, position);
+                    }
+                    spilledBytes = position;
+                    spilledGroups++;
+                } catch (IOException e) {
+                    // Without the disk the oldest history is simply forgotten
+                    e.printStackTrace();
+                    dropSpilled();
+                }
+            }
+        }
+
+        private void dropSpilled() {
+            spilledBytes = 0;
+            spilledGroups = 0;
+        }
+
+        private FileChannel openChannel() throws IOException {
+            if (channel == null) {
+                spillFile = Files.createTempFile("studystash-" + name, ".bin").toFile();
+                spillFile.deleteOnExit();
+                channel = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            return channel;
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Undo history file is truncated");
+                }
+                position += read;
+            }
+        }
+
+        void close() {
+            dropSpilled();
+            try {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                    Files.deleteIfExists(spillFile.toPath());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
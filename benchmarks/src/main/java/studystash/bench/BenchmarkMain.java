@@ -0,0 +1,53 @@
+package studystash.bench;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Entry point of benchmarks.jar. Takes the usual JMH options, but always reports allocation rates through the GC
+// profiler unless other profilers are given, writes jmh-result.json, and ends with MB/s per benchmark and note size.
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListProfilers()
+                || commandLine.shouldListResultFormats() || commandLine.shouldListWithParams()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (commandLine.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.result("jmh-result.json");
+        }
+        printThroughput(new Runner(options.build()).run());
+    }
+
+    private static void printThroughput(Collection<RunResult> results) {
+        System.out.println();
+        System.out.println("Throughput by note size:");
+        for (RunResult result : results) {
+            BenchmarkParams params = result.getParams();
+            String size = params.getParam("size");
+            if (params.getMode() != Mode.Throughput || size == null) {
+                continue;
+            }
+            double opsPerSecond = result.getPrimaryResult().getScore() * TimeUnit.SECONDS.toNanos(1) / params.getTimeUnit().toNanos(1);
+            double megabytesPerSecond = opsPerSecond * GeneratedNote.parseSize(size) / (1024.0 * 1024.0);
+            System.out.printf("%-50s %8s %12.1f MB/s%n", params.getBenchmark(), size, megabytesPerSecond);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package studystash.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import studystash.NoteEngine;
+
+// Replace in All Notes over a corpus of notes copied from one generated note, with a ForkJoinPool of each size.
+// preview is the dry run; replaceAll rewrites every note, flipping needle to NEEDLE and back on alternate calls.
+// The size param is the whole corpus, so the MB/s summary reads as corpus throughput.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class BulkReplaceBenchmark {
+    private static final String UPPER_NEEDLE = GeneratedNote.NEEDLE.toUpperCase();
+
+    @Param({"16MB", "256MB"})
+    public String size;
+
+    @Param({"200"})
+    public int notes;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private final List<File> files = new ArrayList<>();
+    private File dataDirectory;
+    private NoteEngine engine;
+    private ForkJoinPool pool;
+    private boolean upper;
+
+    @Setup
+    public void setUp() throws IOException {
+        long bytes = GeneratedNote.parseSize(size) / notes;
+        File note = GeneratedNote.get(bytes / 1024 + "KB");
+        dataDirectory = Files.createTempDirectory("bulk-replace").toFile();
+        for (int i = 0; i < notes; i++) {
+            File copy = new File(dataDirectory, "note-" + i + ".txt");
+            Files.copy(note.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            files.add(copy);
+        }
+        engine = new NoteEngine(dataDirectory, Charset.defaultCharset());
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdownNow();
+        for (File file : files) {
+            file.delete();
+        }
+        dataDirectory.delete();
+    }
+
+    @Benchmark
+    public List<NoteEngine.ReplaceResult> preview() throws InterruptedException {
+        return engine.replaceInNotes(files, GeneratedNote.NEEDLE, true, false, false, UPPER_NEEDLE, true, pool, null);
+    }
+
+    @Benchmark
+    public List<NoteEngine.ReplaceResult> replaceAll() throws InterruptedException {
+        String from = upper ? UPPER_NEEDLE : GeneratedNote.NEEDLE;
+        String to = upper ? GeneratedNote.NEEDLE : UPPER_NEEDLE;
+        upper = !upper;
+        return engine.replaceInNotes(files, from, true, false, false, to, false, pool, null);
+    }
+}
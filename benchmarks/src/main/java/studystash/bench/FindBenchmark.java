@@ -0,0 +1,62 @@
+package studystash.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import studystash.FindEngine;
+
+// Counting every match of a literal and of a regex across the whole note, as Find highlights do on a full scroll
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class FindBenchmark {
+    @Param({"1KB", "1MB", "16MB", "500MB"})
+    public String size;
+
+    private Document document;
+    private final FindEngine literal = new FindEngine();
+    private final FindEngine regex = new FindEngine();
+
+    @Setup
+    public void setUp() throws Exception {
+        document = Notes.load(GeneratedNote.get(size));
+        literal.setQuery(GeneratedNote.NEEDLE, false, false, false);
+        regex.setQuery("\\bneed\\w+", true, false, true);
+    }
+
+    @Benchmark
+    public int findLiteral() throws BadLocationException {
+        return countMatches(literal);
+    }
+
+    @Benchmark
+    public int findRegex() throws BadLocationException {
+        return countMatches(regex);
+    }
+
+    private int countMatches(FindEngine engine) throws BadLocationException {
+        int[] count = new int[1];
+        engine.findAll(document, 0, document.getLength(), (start, end) -> {
+            count[0]++;
+            return true;
+        });
+        return count[0];
+    }
+}
@@ -0,0 +1,84 @@
+package studystash.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Random;
+
+// Deterministic note text for the benchmarks: seeded words, a few non-ASCII ones, a line break every dozen words and
+// NEEDLE once every NEEDLE_SPACING words. Generated files are cached in the temp directory across forks and runs.
+final class GeneratedNote {
+    static final String NEEDLE = "needle";
+    private static final int NEEDLE_SPACING = 500;
+    private static final String[] WORDS = {
+        "lecture", "notes", "exam", "chapter", "summary", "theorem", "proof", "lemma", "definition", "example",
+        "matrix", "vector", "integral", "derivative", "function", "the", "a", "of", "and", "to", "in", "is",
+        "Übung", "résumé", "naïve", "café", "Δx", "→", "≤", "π"
+    };
+
+    private GeneratedNote() {
+    }
+
+    // Sizes are written like the @Param values: 1KB, 16MB, 500MB
+    static long parseSize(String size) {
+        String text = size.trim().toUpperCase(Locale.ROOT);
+        long unit = 1;
+        if (text.endsWith("KB")) {
+            unit = 1024;
+        } else if (text.endsWith("MB")) {
+            unit = 1024 * 1024;
+        } else if (text.endsWith("GB")) {
+            unit = 1024 * 1024 * 1024;
+        }
+        if (unit != 1) {
+            text = text.substring(0, text.length() - 2);
+        }
+        return Long.parseLong(text.trim()) * unit;
+    }
+
+    // Returns a UTF-8 note of exactly the given size in bytes, generating it on first use
+    static File get(String size) throws IOException {
+        long bytes = parseSize(size);
+        File dir = new File(System.getProperty("java.io.tmpdir"), "studystash-bench");
+        File file = new File(dir, "note-" + bytes + ".txt");
+        if (file.length() == bytes) {
+            return file;
+        }
+        Files.createDirectories(dir.toPath());
+        File partial = File.createTempFile("note-", ".part", dir);
+        try {
+            write(partial, bytes);
+            Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            partial.delete();
+        }
+        return file;
+    }
+
+    private static void write(File file, long bytes) throws IOException {
+        Random random = new Random(bytes);
+        long written = 0;
+        int words = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            while (true) {
+                String word = ++words % NEEDLE_SPACING == 0 ? NEEDLE : WORDS[random.nextInt(WORDS.length)];
+                String separator = words % 12 == 0 ? "\n" : " ";
+                long length = word.getBytes(StandardCharsets.UTF_8).length + 1;
+                if (written + length > bytes) {
+                    break;
+                }
+                writer.write(word);
+                writer.write(separator);
+                written += length;
+            }
+            // Pad with ASCII so every size is exact
+            for (; written < bytes; written++) {
+                writer.write(written == bytes - 1 ? '\n' : 'x');
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package studystash.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import studystash.MarkdownLexer;
+import studystash.SyntaxHighlighter;
+
+// Syntax highlighting of a Markdown note with headings, emphasis, lists and fenced Java and Python blocks.
+// lexAll lexes every line, which is what opening the note costs, and reads as MB/s in the summary. keystroke types
+// one character into a fenced block halfway down and waits until SyntaxHighlighter has the line's tokens on the EDT,
+// which is how long a typed character stays uncoloured.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+public class HighlightBenchmark {
+    private static final String[] BLOCKS = {
+        "# Lecture notes\n\n",
+        "Some *emphasis*, some **strong** words, `inline code` and a [link](https://example.com).\n",
+        "- a list item with snake_case_names\n1. a numbered one\n",
+        "> a quoted line\n\n---\n",
+        "```java\npublic class Matrix {\n    /* the entries,\n       row by row */\n    private final double[] values = new double[16];\n    String name = \"m\";\n}\n```\n",
+        "```python\ndef integral(f, a, b):\n    \"\"\"Trapezoid rule,\n    good enough for notes\"\"\"\n    return (b - a) * (f(a) + f(b)) / 2  # estimate\n```\n",
+        "Plain prose about the theorem, the proof and the lemma that follows from it.\n"
+    };
+
+    @Param({"1MB", "10MB"})
+    public String size;
+
+    private final MarkdownLexer lexer = new MarkdownLexer();
+    private final Segment line = new Segment();
+    private PlainDocument document;
+    private SyntaxHighlighter highlighter;
+    private int typingOffset;
+
+    @Setup
+    public void setUp() throws Exception {
+        long chars = GeneratedNote.parseSize(size);
+        StringBuilder text = new StringBuilder((int) chars + 512);
+        Random random = new Random(chars);
+        while (text.length() < chars) {
+            text.append(BLOCKS[random.nextInt(BLOCKS.length)]);
+        }
+        document = new PlainDocument();
+        document.insertString(0, text.toString(), null);
+        typingOffset = text.indexOf("String name", text.length() / 2);
+        SwingUtilities.invokeAndWait(() -> highlighter = SyntaxHighlighter.install(document));
+        awaitHighlighted();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        SwingUtilities.invokeAndWait(() -> SyntaxHighlighter.uninstall(document));
+    }
+
+    private void awaitHighlighted() throws Exception {
+        boolean[] idle = new boolean[1];
+        do {
+            Thread.onSpinWait();
+            SwingUtilities.invokeAndWait(() -> idle[0] = highlighter.isIdle());
+        } while (!idle[0]);
+    }
+
+    @Benchmark
+    public int lexAll() throws BadLocationException {
+        Element root = document.getDefaultRootElement();
+        int state = 0;
+        int tokens = 0;
+        for (int i = 0; i < root.getElementCount(); i++) {
+            Element element = root.getElement(i);
+            int end = Math.min(element.getEndOffset(), document.getLength() + 1) - 1;
+            document.getText(element.getStartOffset(), end - element.getStartOffset(), line);
+            state = lexer.lexLine(line, state);
+            tokens += lexer.getTokens().length;
+        }
+        return tokens;
+    }
+
+    // Types a character and takes it out again, so the note stays the same from call to call
+    @Benchmark
+    public int keystroke() throws Exception {
+        document.insertString(typingOffset, "x", null);
+        awaitHighlighted();
+        document.remove(typingOffset, 1);
+        awaitHighlighted();
+        return document.getLength();
+    }
+}
@@ -0,0 +1,51 @@
+package studystash.bench;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+
+import studystash.ChunkedFileLoader;
+import studystash.PieceTableDocument;
+import studystash.StudyStash3;
+import studystash.TextFormat;
+
+// Opens a note the way StudyStash3.loadTab does, but blocks until the document is complete. Workers run on the
+// calling thread; their EDT halves still go through the (headless) event queue, as they do in the editor.
+final class Notes {
+    private static final int INDEX_SLICE = 4 * 1024 * 1024;
+
+    private Notes() {
+    }
+
+    static Document load(File file) throws Exception {
+        if (file.length() >= StudyStash3.MAPPED_FILE_THRESHOLD) {
+            return map(file);
+        }
+        PlainDocument document = new PlainDocument();
+        CountDownLatch loaded = new CountDownLatch(1);
+        // done() is queued behind the last process() batch, so once it has run every chunk is in the document
+        ChunkedFileLoader loader = new ChunkedFileLoader(file, document, null, Charset.defaultCharset()) {
+            @Override
+            protected void done() {
+                loaded.countDown();
+            }
+        };
+        loader.run();
+        loader.get();
+        loaded.await();
+        return document;
+    }
+
+    static PieceTableDocument map(File file) throws Exception {
+        PieceTableDocument document = new PieceTableDocument(file, TextFormat.detect(file, Charset.defaultCharset()));
+        while (!document.isIndexed()) {
+            document.indexMore(INDEX_SLICE);
+        }
+        SwingUtilities.invokeAndWait(document::commitIndexed);
+        return document;
+    }
+}
@@ -0,0 +1,54 @@
+package studystash.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import studystash.PieceTableContent;
+
+// Many small edits scattered over a freshly mapped note, straight on its PieceTableContent: each one replaces a word at
+// a random offset, so the piece count grows by two with every edit. The score is the time for all of them; it should
+// grow with edits log edits, not edits squared. Nothing is read back, which would mostly time block decoding.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class PieceTableBenchmark {
+    @Param({"16MB"})
+    public String size;
+
+    @Param({"10000", "80000"})
+    public int edits;
+
+    private PieceTableContent content;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws Exception {
+        content = Notes.map(GeneratedNote.get(size)).getPieceTable();
+    }
+
+    @Benchmark
+    public int scatteredEdits() throws Exception {
+        Random random = new Random(edits);
+        for (int i = 0; i < edits; i++) {
+            int offset = random.nextInt(content.length() - 8);
+            content.remove(offset, 4);
+            content.insertString(offset, "edit");
+        }
+        return content.length();
+    }
+}
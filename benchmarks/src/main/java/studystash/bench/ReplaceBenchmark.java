@@ -0,0 +1,62 @@
+package studystash.bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.Document;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import studystash.FindEngine;
+import studystash.ReplaceAllTask;
+
+// Replace All on a loaded note. Each call flips every needle to NEEDLE or back, so the document and the number of
+// matches stay the same from one invocation to the next.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class ReplaceBenchmark {
+    private static final String UPPER_NEEDLE = GeneratedNote.NEEDLE.toUpperCase();
+
+    @Param({"1KB", "1MB", "16MB", "500MB"})
+    public String size;
+
+    private Document document;
+    private boolean upper;
+
+    @Setup
+    public void setUp() throws Exception {
+        document = Notes.load(GeneratedNote.get(size));
+    }
+
+    @Benchmark
+    public int replaceAll() throws Exception {
+        FindEngine engine = new FindEngine();
+        engine.setQuery(upper ? UPPER_NEEDLE : GeneratedNote.NEEDLE, true, false, false);
+        CountDownLatch finished = new CountDownLatch(1);
+        ReplaceAllTask task = new ReplaceAllTask(document, engine, upper ? GeneratedNote.NEEDLE : UPPER_NEEDLE) {
+            @Override
+            protected void done() {
+                finished.countDown();
+            }
+        };
+        task.run();
+        int replaced = task.get();
+        finished.await();
+        upper = !upper;
+        return replaced;
+    }
+}
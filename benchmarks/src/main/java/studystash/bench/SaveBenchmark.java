@@ -0,0 +1,53 @@
+package studystash.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.Document;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import studystash.DocumentSaver;
+import studystash.TextFormat;
+
+// Saving a loaded note, including the fsync and atomic rename DocumentSaver does on every save
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class SaveBenchmark {
+    @Param({"1KB", "1MB", "16MB", "500MB"})
+    public String size;
+
+    private Document document;
+    private File target;
+
+    @Setup
+    public void setUp() throws Exception {
+        document = Notes.load(GeneratedNote.get(size));
+        target = File.createTempFile("saved-", ".txt");
+    }
+
+    @TearDown
+    public void tearDown() {
+        target.delete();
+    }
+
+    @Benchmark
+    public long save() throws Exception {
+        return new DocumentSaver(document, target, TextFormat.UTF_8).call();
+    }
+}
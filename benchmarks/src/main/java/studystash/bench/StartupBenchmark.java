@@ -0,0 +1,145 @@
+package studystash.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import studystash.NoteEngine;
+import studystash.StudyStash3;
+
+// Cold start of the editor, each call a fresh JVM running the app jar until it quits on its own once the window has
+// painted and the catalog is loaded. The score is launch to exit; the firstPaint and notesLoaded counters are the
+// times the app itself printed, from JVM start. cds picks the class data sharing archive: off, the JDK's default
+// one, or the app archive mvn -Pcds package writes. The working directory is seeded with a catalog of notes so
+// the deferred load has real work. Build the app first; other builds can be compared through
+// -Dstudystash.app.jar and -Dstudystash.cds.archive. The window needs a display, so run it under xvfb-run on a server.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+    private static final Pattern TIMES = Pattern.compile("first paint ([0-9.]+) ms, notes loaded ([0-9.]+) ms");
+
+    @Param({"off", "default", "app"})
+    public String cds;
+
+    @Param({"0", "2000"})
+    public int notes;
+
+    private final List<String> command = new ArrayList<>();
+    private File workingDirectory;
+
+    // Filled in by each launch; JMH reports them next to the score
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class StartupTimes {
+        public double firstPaintMillis;
+        public double notesLoadedMillis;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            firstPaintMillis = 0;
+            notesLoadedMillis = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        File jar = new File(System.getProperty("studystash.app.jar", "app/target/studystash-app-1.0-SNAPSHOT.jar"));
+        File archive = new File(System.getProperty("studystash.cds.archive", "app/target/studystash.jsa"));
+        if (!jar.isFile()) {
+            throw new IllegalStateException("No app jar at " + jar.getAbsolutePath() + "; run mvn package first");
+        }
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        switch (cds) {
+            case "off":
+                command.add("-Xshare:off");
+                break;
+            case "default":
+                break;
+            case "app":
+                if (!archive.isFile()) {
+                    throw new IllegalStateException("No archive at " + archive.getAbsolutePath() + "; run mvn -Pcds package first");
+                }
+                command.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown cds setting " + cds);
+        }
+        command.add("-D" + StudyStash3.EXIT_AFTER_STARTUP_PROPERTY + "=true");
+        command.add("-jar");
+        command.add(jar.getAbsolutePath());
+
+        workingDirectory = Files.createTempDirectory("startup").toFile();
+        if (notes > 0) {
+            File noteDirectory = new File(workingDirectory, "notes");
+            noteDirectory.mkdir();
+            File note = GeneratedNote.get("16KB");
+            List<File> files = new ArrayList<>();
+            for (int i = 0; i < notes; i++) {
+                File copy = new File(noteDirectory, "note-" + i + ".txt");
+                Files.copy(note.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                files.add(copy);
+            }
+            NoteEngine engine = new NoteEngine(workingDirectory, Charset.defaultCharset());
+            engine.loadCatalog();
+            ForkJoinPool pool = new ForkJoinPool();
+            try {
+                engine.addNotes(files, pool);
+            } finally {
+                pool.shutdown();
+                engine.close();
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(workingDirectory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public int startup(StartupTimes times) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).directory(workingDirectory).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        int status = process.waitFor();
+        Matcher matcher = TIMES.matcher(output);
+        if (status != 0 || !matcher.find()) {
+            throw new IllegalStateException("StudyStash exited with " + status + ":" + System.lineSeparator() + output);
+        }
+        times.firstPaintMillis += Double.parseDouble(matcher.group(1));
+        times.notesLoadedMillis += Double.parseDouble(matcher.group(2));
+        return status;
+    }
+}
@@ -0,0 +1,225 @@
+package studystash;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.Callable;
+import java.util.function.IntConsumer;
+
+// Writes a document to disk without ever holding the whole text as a String. Segments are encoded straight into a
+// temp file next to the target, which is forced to disk and then renamed over the target, so a crash leaves either the old file or the new one.
+// The TextFormat decides the charset, the BOM written first and what each '\n' in the document becomes.
+// call() does the save on the calling thread and stops if that thread is interrupted, with an InterruptedIOException,
+// or a ClosedByInterruptException when the interrupt lands inside a channel write or force;
+// the editor runs it in a DocumentSaveWorker.
+public class DocumentSaver implements Callable<Long> {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Document document;
+    private final File file;
+    private final TextFormat format;
+    private volatile long bytesWritten;
+    private volatile long elapsedNanos;
+    private IntConsumer progressListener;
+
+    public DocumentSaver(Document document, File file, Charset charset) {
+        this(document, file, TextFormat.of(charset));
+    }
+
+    public DocumentSaver(Document document, File file, TextFormat format) {
+        this.document = document;
+        this.file = file;
+        this.format = format;
+    }
+
+    // Hears the percentage saved, on the saving thread
+    public void setProgressListener(IntConsumer progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public String getThroughputSummary() {
+        double megabytes = bytesWritten / (1024.0 * 1024.0);
+        double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        return String.format("Saved %s: %.1f MB in %d ms (%.1f MB/s)", file.getName(), megabytes, elapsedNanos / 1_000_000, megabytes / seconds);
+    }
+
+    @Override
+    public Long call() throws IOException {
+        long start = System.nanoTime();
+        Metrics.Sample sample = Metrics.start(Metrics.Operation.NOTE_SAVE);
+        try {
+            save();
+        } catch (InterruptedIOException | ClosedByInterruptException e) {
+            // Cancelled, not failed, whether the interrupt was seen between chunks or closed the channel in a write or force
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            sample.fail(e);
+            throw e;
+        }
+        sample.stop(bytesWritten);
+        elapsedNanos = System.nanoTime() - start;
+        return bytesWritten;
+    }
+
+    private void save() throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path directory = target.getParent();
+        Path temp = Files.createTempFile(directory, "." + target.getFileName(), ".tmp");
+        try {
+            copyPermissions(target, temp);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeDocument(channel);
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncDirectory(directory);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void writeDocument(FileChannel channel) throws IOException {
+        CharsetEncoder encoder = format.getCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE * 8);
+        bytes.put(format.getByteOrderMark());
+        String lineSeparator = format.getLineSeparator();
+        boolean translateLines = !"\n".equals(lineSeparator);
+        // Chars left over from one segment (half of a surrogate pair) are carried into the next one;
+        // the room is doubled for line breaks that grow into CRLF
+        CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE * 2 + 1);
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+
+        int length = document.getLength();
+        int offset = 0;
+        while (offset < length) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Save cancelled");
+            }
+            int count = Math.min(CHUNK_SIZE, length - offset);
+            int position = offset;
+            BadLocationException[] failure = new BadLocationException[1];
+            // Copy each segment out under the read lock; the shared array it points at may change once the lock is released
+            document.render(() -> {
+                try {
+                    document.getText(position, count, segment);
+                    if (translateLines) {
+                        putTranslated(segment, chars, lineSeparator);
+                    } else {
+                        chars.put(segment.array, segment.offset, segment.count);
+                    }
+                } catch (BadLocationException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw new IOException("Document changed while saving", failure[0]);
+            }
+            offset += segment.count;
+
+            chars.flip();
+            encode(encoder, chars, bytes, channel, false);
+            chars.compact();
+            if (progressListener != null) {
+                progressListener.accept((int) ((long) offset * 100 / length));
+            }
+        }
+        chars.flip();
+        encode(encoder, chars, bytes, channel, true);
+        while (encoder.flush(bytes).isOverflow()) {
+            drain(bytes, channel);
+        }
+        drain(bytes, channel);
+    }
+
+    private static void putTranslated(Segment segment, CharBuffer chars, String lineSeparator) {
+        int end = segment.offset + segment.count;
+        for (int i = segment.offset; i < end; i++) {
+            char c = segment.array[i];
+            if (c == '\n') {
+                chars.put(lineSeparator);
+            } else {
+                chars.put(c);
+            }
+        }
+    }
+
+    private void encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer bytes, FileChannel channel, boolean endOfInput) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow()) {
+                drain(bytes, channel);
+            } else {
+                break;
+            }
+        }
+        if (bytes.position() >= CHUNK_SIZE) {
+            drain(bytes, channel);
+        }
+    }
+
+    private void drain(ByteBuffer bytes, FileChannel channel) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            bytesWritten += channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    // createTempFile makes an owner-only file; give the new note the permissions the old one had
+    static void copyPermissions(Path from, Path to) {
+        try {
+            if (Files.exists(from)) {
+                Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+            } else {
+                Files.setPosixFilePermissions(to, PosixFilePermissions.fromString("rw-r--r--"));
+            }
+        } catch (UnsupportedOperationException | IOException e) {
+            // not a POSIX file system
+        }
+    }
+
+    // Makes the rename itself durable. Not every platform lets a directory be opened, so failures are ignored.
+    static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // best effort
+        }
+    }
+}
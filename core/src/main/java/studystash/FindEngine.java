@@ -0,0 +1,412 @@
+package studystash;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Searches a Document without copying it into a String. The text is read a window at a time, straight out of the
+// document's own array when a window is contiguous and through one reusable buffer otherwise, so repeated searches
+// allocate almost nothing. Plain text uses Boyer-Moore-Horspool; regular expressions run on the same windows.
+public class FindEngine {
+    private static final int WINDOW_SIZE = 64 * 1024;
+    // Find next/previous start with a small window and double it, so a nearby match does not cost a full window
+    private static final int FIRST_WINDOW_SIZE = 1024;
+    // How far past the end of its window a regex match may first run; a match that reaches the end of the loaded
+    // text is retried with twice the overlap, up to MAX_REGEX_OVERLAP
+    private static final int REGEX_OVERLAP = 4 * 1024;
+    private static final int MAX_REGEX_OVERLAP = 1024 * 1024;
+    private static final int STOPPED = -1;
+    private static final int NOT_CUT = -2;
+    private static final Pattern GROUP_NAME = Pattern.compile("\\(\\?<([a-zA-Z][a-zA-Z0-9]*)>");
+
+    private final Segment segment = new Segment();
+    private final Segment window = new Segment();
+    private char[] buffer = new char[0];
+    private int windowBase;
+
+    private String query = "";
+    private boolean matchCase;
+    private boolean wholeWord;
+    private char[] needle = new char[0];
+    private final int[] skip = new int[256];
+    private Matcher matcher;
+
+    // findAll reports non-overlapping matches, like String.replace; find next/previous may land on overlapping ones
+    private boolean nonOverlapping;
+    private int resumeAt;
+    // Set by findAllInPart: the document is only part of the text, and where a regex match may run past its end
+    private boolean partial;
+    private int cutAt;
+
+    private int matchStart = -1;
+    private int matchEnd = -1;
+    private final MatchConsumer keepFirst = (start, end) -> {
+        matchStart = start;
+        matchEnd = end;
+        return false;
+    };
+    private final MatchConsumer keepLast = (start, end) -> {
+        matchStart = start;
+        matchEnd = end;
+        return true;
+    };
+
+    public FindEngine() {
+        segment.setPartialReturn(true);
+    }
+
+    public interface MatchConsumer {
+        // Returns false to stop the scan
+        boolean accept(int start, int end);
+    }
+
+    // Throws PatternSyntaxException for a bad regular expression
+    public void setQuery(String query, boolean matchCase, boolean wholeWord, boolean regex) {
+        this.query = query;
+        this.matchCase = matchCase;
+        this.wholeWord = wholeWord;
+        if (regex) {
+            int flags = matchCase ? Pattern.MULTILINE : Pattern.MULTILINE | Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+            matcher = query.isEmpty() ? null : Pattern.compile(query, flags).matcher("");
+            needle = new char[0];
+        } else {
+            matcher = null;
+            needle = new char[query.length()];
+            for (int i = 0; i < needle.length; i++) {
+                needle[i] = fold(query.charAt(i));
+            }
+            // Shifts are kept per low byte of the char; a collision just takes the smaller, still safe, shift
+            Arrays.fill(skip, Math.max(1, needle.length));
+            for (int i = 0; i < needle.length - 1; i++) {
+                skip[needle[i] & 0xFF] = needle.length - 1 - i;
+            }
+        }
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public boolean isRegex() {
+        return matcher != null;
+    }
+
+    public boolean isEmpty() {
+        return needle.length == 0 && matcher == null;
+    }
+
+    // How many chars past the end of a range findAll usually reads: a match starting in the range plus the char after
+    // it. A longer regex match makes it read further, up to the end of the document; see findAllInPart().
+    public int getLookahead() {
+        return (matcher != null ? REGEX_OVERLAP : needle.length) + 1;
+    }
+
+    public int getMatchStart() {
+        return matchStart;
+    }
+
+    public int getMatchEnd() {
+        return matchEnd;
+    }
+
+    // Finds the first match starting at or after from. The match is available through getMatchStart/getMatchEnd.
+    public boolean findNext(Document document, int from) throws BadLocationException {
+        matchStart = matchEnd = -1;
+        nonOverlapping = false;
+        resumeAt = 0;
+        int length = document.getLength();
+        int size = FIRST_WINDOW_SIZE;
+        for (int start = Math.max(0, from); start < length && !isEmpty(); start += size, size = Math.min(WINDOW_SIZE, size * 2)) {
+            if (scan(document, start, Math.min(length, start + size), keepFirst)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Finds the last match starting before from
+    public boolean findPrevious(Document document, int from) throws BadLocationException {
+        matchStart = matchEnd = -1;
+        nonOverlapping = false;
+        resumeAt = 0;
+        int size = FIRST_WINDOW_SIZE;
+        for (int limit = Math.min(from, document.getLength()); limit > 0 && !isEmpty(); limit -= size, size = Math.min(WINDOW_SIZE, size * 2)) {
+            int start = Math.max(0, limit - size);
+            scan(document, start, limit, keepLast);
+            if (matchStart >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Reports every match starting in [from, to), e.g. the part of the document that is on screen
+    public void findAll(Document document, int from, int to, MatchConsumer consumer) throws BadLocationException {
+        partial = false;
+        scanAll(document, from, to, consumer);
+    }
+
+    // findAll over a document that is only the start of a longer text, such as one block of a note being streamed.
+    // A regex match that might run on past the end of the document is not reported: the scan stops there and the
+    // offset to search again from, once more text is at hand, is returned. Returns -1 when the whole range was searched.
+    public int findAllInPart(Document document, int from, int to, MatchConsumer consumer) throws BadLocationException {
+        partial = true;
+        try {
+            scanAll(document, from, to, consumer);
+        } finally {
+            partial = false;
+        }
+        return cutAt;
+    }
+
+    private void scanAll(Document document, int from, int to, MatchConsumer consumer) throws BadLocationException {
+        to = Math.min(to, document.getLength());
+        nonOverlapping = true;
+        resumeAt = 0;
+        cutAt = -1;
+        for (int start = Math.max(0, from); start < to && !isEmpty(); start += WINDOW_SIZE) {
+            if (scan(document, start, Math.min(to, start + WINDOW_SIZE), consumer)) {
+                return;
+            }
+        }
+    }
+
+    // Expands $n, ${name} and backslash escapes in a regex replacement against the match being reported.
+    // Only valid inside a MatchConsumer callback; plain text searches return the replacement unchanged.
+    public String expandReplacement(String replacement) {
+        if (matcher == null) {
+            return replacement;
+        }
+        StringBuilder result = new StringBuilder(replacement.length() + 16);
+        parseReplacement(replacement, result);
+        return result.toString();
+    }
+
+    // Throws IllegalArgumentException if expandReplacement would, because the replacement is malformed or names a
+    // group the pattern does not have; lets a bulk replace fail before it touches any note
+    public void checkReplacement(String replacement) {
+        if (matcher != null) {
+            parseReplacement(replacement, null);
+        }
+    }
+
+    // Appends the expansion to result, or with a null result only checks that every group it names exists
+    private void parseReplacement(String replacement, StringBuilder result) {
+        for (int i = 0; i < replacement.length(); i++) {
+            char c = replacement.charAt(i);
+            if (c == '\\' && i + 1 < replacement.length()) {
+                i++;
+                if (result != null) {
+                    result.append(replacement.charAt(i));
+                }
+            } else if (c == '$' && i + 1 < replacement.length() && replacement.charAt(i + 1) == '{') {
+                int close = replacement.indexOf('}', i + 2);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unclosed group name in replacement");
+                }
+                String name = replacement.substring(i + 2, close);
+                if (result != null) {
+                    appendGroup(result, matcher.group(name));
+                } else if (!groupNames().contains(name)) {
+                    throw new IllegalArgumentException("No group " + name + " in pattern");
+                }
+                i = close;
+            } else if (c == '$' && i + 1 < replacement.length() && Character.isDigit(replacement.charAt(i + 1))) {
+                // Like Matcher.appendReplacement, take as many digits as still name an existing group
+                int group = replacement.charAt(++i) - '0';
+                while (i + 1 < replacement.length() && Character.isDigit(replacement.charAt(i + 1))) {
+                    int next = group * 10 + replacement.charAt(i + 1) - '0';
+                    if (next > matcher.groupCount()) {
+                        break;
+                    }
+                    group = next;
+                    i++;
+                }
+                if (group > matcher.groupCount()) {
+                    throw new IllegalArgumentException("No group " + group + " in pattern");
+                }
+                if (result != null) {
+                    appendGroup(result, matcher.group(group));
+                }
+            } else if (result != null) {
+                result.append(c);
+            }
+        }
+    }
+
+    // The named groups of the pattern; Matcher only lists them from Java 20 on
+    private Set<String> groupNames() {
+        Set<String> names = new HashSet<>();
+        Matcher group = GROUP_NAME.matcher(matcher.pattern().pattern());
+        while (group.find()) {
+            names.add(group.group(1));
+        }
+        return names;
+    }
+
+    private static void appendGroup(StringBuilder result, String group) {
+        if (group != null) {
+            result.append(group);
+        }
+    }
+
+    // Scans matches starting in [start, limit); returns true when the consumer stopped the scan
+    private boolean scan(Document document, int start, int limit, MatchConsumer consumer) throws BadLocationException {
+        if (matcher == null) {
+            loadWindow(document, start, Math.min(document.getLength(), limit + needle.length - 1));
+            return scanLiteral(start, limit, consumer);
+        }
+        // A regex search that runs into the end of the window may have missed or cut short a match; the window is
+        // grown and the scan picks up again where that search began, after the matches already reported
+        int from = start;
+        for (int overlap = REGEX_OVERLAP; ; overlap *= 2) {
+            loadWindow(document, start, Math.min(document.getLength(), limit + overlap));
+            boolean documentEnd = windowBase + window.count == document.getLength();
+            int cut = scanRegex(from, limit, documentEnd && !partial, consumer);
+            if (cut == STOPPED) {
+                return true;
+            } else if (cut == NOT_CUT) {
+                return false;
+            } else if (documentEnd) {
+                // Only more of the text than the document holds can settle it
+                cutAt = cut;
+                return true;
+            } else if (overlap >= MAX_REGEX_OVERLAP) {
+                throw new MatchTooLongException("A match of " + query + " at " + cut + " may run on for more than "
+                        + MAX_REGEX_OVERLAP + " characters");
+            }
+            from = cut;
+        }
+    }
+
+    private boolean scanLiteral(int start, int limit, MatchConsumer consumer) {
+        char[] text = window.array;
+        int last = needle.length - 1;
+        int end = window.offset + window.count;
+        int i = window.offset + (Math.max(start, resumeAt) - windowBase) + last;
+        int stop = window.offset + (limit - windowBase) + last;
+        while (i < end && i < stop) {
+            int j = last;
+            int k = i;
+            while (j >= 0 && fold(text[k]) == needle[j]) {
+                j--;
+                k--;
+            }
+            if (j < 0) {
+                int matchOffset = windowBase + (k + 1 - window.offset);
+                if (isWholeWord(matchOffset, matchOffset + needle.length)) {
+                    if (!consumer.accept(matchOffset, matchOffset + needle.length)) {
+                        return true;
+                    }
+                    if (nonOverlapping) {
+                        resumeAt = matchOffset + needle.length;
+                        i += needle.length;
+                        continue;
+                    }
+                }
+                i++;
+            } else {
+                i += skip[fold(text[i]) & 0xFF];
+            }
+        }
+        return false;
+    }
+
+    // Returns STOPPED when the consumer stopped the scan, NOT_CUT when every match starting before limit was
+    // reported, or else the offset of a search that ran into the end of the window before the end of the text
+    private int scanRegex(int start, int limit, boolean wholeText, MatchConsumer consumer) {
+        matcher.reset(window);
+        int from = Math.max(start, resumeAt) - windowBase;
+        while (from <= window.count) {
+            boolean found = matcher.find(from);
+            // Past the end of the window the match could be longer, or one that failed here could succeed
+            if (matcher.hitEnd() && !wholeText && windowBase + from < limit) {
+                return windowBase + from;
+            }
+            if (!found) {
+                break;
+            }
+            int s = windowBase + matcher.start();
+            int e = windowBase + matcher.end();
+            if (s >= limit) {
+                break;
+            }
+            if (e > s && isWholeWord(s, e)) {
+                if (!consumer.accept(s, e)) {
+                    return STOPPED;
+                }
+                if (nonOverlapping) {
+                    resumeAt = e;
+                }
+            }
+            from = matcher.end() > matcher.start() ? matcher.end() : matcher.end() + 1;
+        }
+        return NOT_CUT;
+    }
+
+    // Loads [start, end) plus one char on each side for the whole-word check. A contiguous range is scanned where
+    // it lies; otherwise the pieces are copied into the reusable buffer.
+    private void loadWindow(Document document, int start, int end) throws BadLocationException {
+        int base = Math.max(0, start - 1);
+        int stop = Math.min(document.getLength(), end + 1);
+        int count = stop - base;
+        windowBase = base;
+        document.getText(base, count, segment);
+        if (segment.count == count) {
+            window.array = segment.array;
+            window.offset = segment.offset;
+            window.count = segment.count;
+            return;
+        }
+        if (buffer.length < count) {
+            buffer = new char[Math.max(count, WINDOW_SIZE + REGEX_OVERLAP + 2)];
+        }
+        int copied = 0;
+        while (copied < count) {
+            document.getText(base + copied, count - copied, segment);
+            System.arraycopy(segment.array, segment.offset, buffer, copied, segment.count);
+            copied += segment.count;
+        }
+        window.array = buffer;
+        window.offset = 0;
+        window.count = count;
+    }
+
+    private boolean isWholeWord(int start, int end) {
+        if (!wholeWord) {
+            return true;
+        }
+        return !(start > windowBase && isWordChar(charAt(start - 1)))
+                && !(end < windowBase + window.count && isWordChar(charAt(end)));
+    }
+
+    private char charAt(int offset) {
+        return window.array[window.offset + offset - windowBase];
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private char fold(char c) {
+        if (matchCase) {
+            return c;
+        }
+        if (c < 0x80) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    // A regex match longer than the engine will load at once; replacing it would only replace the part it could see
+    public static class MatchTooLongException extends IllegalStateException {
+        MatchTooLongException(String message) {
+            super(message);
+        }
+    }
+}
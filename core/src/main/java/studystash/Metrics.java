@@ -0,0 +1,290 @@
+package studystash;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency histograms for the operations a user waits on, shared by the editor, NoteEngine and the CLI. Recording is
+// lock-free and allocates nothing beyond the Sample, so it can stay on in the field. Once the flight recorder is up,
+// every timed Sample also becomes a studystash.Operation JFR event. Before that no event is created at all: the first
+// event class to load would start JFR's metadata repository, which takes a few hundred ms.
+public final class Metrics {
+    public enum Operation {
+        STARTUP("Startup to first paint"),
+        STARTUP_LOADED("Startup to notes loaded"),
+        NOTE_LOAD("Open note"),
+        NOTE_SAVE("Save note"),
+        FIND("Find in note"),
+        REPLACE("Replace in note"),
+        SEARCH("Search all notes"),
+        BULK_REPLACE("Replace in all notes, per note"),
+        HIGHLIGHT("Syntax highlight batch"),
+        CALENDAR_DECODE("Calendar image decode"),
+        CALENDAR_PAGE("Calendar PDF page"),
+        EDT_DISPATCH("Event dispatch"),
+        UI_FREEZE("UI freeze");
+
+        private final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final Histogram[] HISTOGRAMS = new Histogram[Operation.values().length];
+
+    static {
+        for (Operation operation : Operation.values()) {
+            HISTOGRAMS[operation.ordinal()] = new Histogram();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    // Starts timing one operation; stop() or fail() records it, and a Sample that is dropped (e.g. cancelled) is not
+    public static Sample start(Operation operation) {
+        return new Sample(operation);
+    }
+
+    // For durations measured elsewhere, such as startup from the JVM's own clock. No JFR event is written.
+    public static void record(Operation operation, long nanos, long bytes) {
+        get(operation).add(nanos, bytes);
+    }
+
+    public static Histogram get(Operation operation) {
+        return HISTOGRAMS[operation.ordinal()];
+    }
+
+    public static void reset() {
+        for (Histogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+    }
+
+    // A plain text table of every operation seen so far, the same numbers the Diagnostics panel shows
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        report.append("StudyStash metrics, ").append(LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")))
+                .append(", up ").append(ManagementFactory.getRuntimeMXBean().getUptime() / 1000).append(" s, Java ")
+                .append(System.getProperty("java.version")).append(", ")
+                .append(Runtime.getRuntime().availableProcessors()).append(" cores").append(System.lineSeparator());
+        report.append(String.format("%-32s %8s %6s %9s %9s %9s %9s %9s%n",
+                "operation", "count", "failed", "p50 ms", "p95 ms", "p99 ms", "max ms", "MB/s"));
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = get(operation);
+            if (histogram.getCount() == 0 && histogram.getFailures() == 0) {
+                continue;
+            }
+            report.append(String.format("%-32s %8d %6d %9.2f %9.2f %9.2f %9.2f %9s%n", operation.getLabel(),
+                    histogram.getCount(), histogram.getFailures(), millis(histogram.getPercentile(50)),
+                    millis(histogram.getPercentile(95)), millis(histogram.getPercentile(99)),
+                    millis(histogram.getMaxNanos()), histogram.getBytes() > 0 ? String.format("%.1f", histogram.getMegabytesPerSecond()) : "-"));
+            if (histogram.getLastError() != null) {
+                report.append("    last failure: ").append(histogram.getLastError()).append(System.lineSeparator());
+            }
+        }
+        return report.toString();
+    }
+
+    public static void writeReport(File file, String extra) throws IOException {
+        Files.writeString(file.toPath(), extra == null ? report() : report() + extra, StandardCharsets.UTF_8);
+    }
+
+    // True once a recording was started, from the command line, jcmd or Help > Diagnostics
+    public static boolean isFlightRecorderUp() {
+        return FlightRecorder.isInitialized();
+    }
+
+    public static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    // One timed operation in flight
+    public static final class Sample {
+        private final Operation operation;
+        private final long start = System.nanoTime();
+        private final OperationEvent event = isFlightRecorderUp() ? new OperationEvent() : null;
+
+        private Sample(Operation operation) {
+            this.operation = operation;
+            if (event != null) {
+                event.begin();
+            }
+        }
+
+        public void stop() {
+            stop(0);
+        }
+
+        public void stop(long bytes) {
+            get(operation).add(System.nanoTime() - start, bytes);
+            commit(bytes, false);
+        }
+
+        public void fail(Throwable error) {
+            get(operation).fail(error);
+            commit(0, true);
+        }
+
+        private void commit(long bytes, boolean failed) {
+            if (event == null) {
+                return;
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation.getLabel();
+                event.bytes = bytes;
+                event.failed = failed;
+                event.commit();
+            }
+        }
+    }
+
+    // Log-linear buckets: 8 per power of two, so a percentile is off by at most 12.5%, over the whole range of long
+    public static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private volatile String lastError;
+
+        void add(long nanos, long size) {
+            nanos = Math.max(nanos, 0);
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+            bytes.add(size);
+            maxNanos.accumulate(nanos);
+        }
+
+        void fail(Throwable error) {
+            failures.increment();
+            lastError = error == null ? "unknown" : error.toString();
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            totalNanos.reset();
+            bytes.reset();
+            failures.reset();
+            maxNanos.reset();
+            lastError = null;
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        // The highest value that falls into the bucket
+        private static long bucketLimit(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lower + (1L << shift) - 1;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public long getMeanNanos() {
+            long n = getCount();
+            return n == 0 ? 0 : totalNanos.sum() / n;
+        }
+
+        public double getMegabytesPerSecond() {
+            return getBytes() / (1024.0 * 1024.0) / (Math.max(totalNanos.sum(), 1) / 1e9);
+        }
+
+        public String getLastError() {
+            return lastError;
+        }
+
+        // Read while other threads keep adding, so it describes roughly this moment rather than one exact instant
+        public long getPercentile(double percentile) {
+            long total = 0;
+            long[] counts = new long[buckets.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketLimit(i), getMaxNanos());
+                }
+            }
+            return getMaxNanos();
+        }
+    }
+
+    @Name("studystash.Operation")
+    @Label("StudyStash Operation")
+    @Description("A note load, save, find, replace or calendar decode")
+    @Category("StudyStash")
+    @StackTrace(false)
+    public static class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Failed")
+        boolean failed;
+    }
+}
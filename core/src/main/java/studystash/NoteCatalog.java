@@ -0,0 +1,408 @@
+package studystash;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+// The list of saved notes with a little metadata per note, kept as an append-only log.
+// Every change appends one CRC-framed record instead of rewriting the file; load() replays the log into a map
+// keyed by path, and the log is compacted to one record per note once it holds mostly superseded records.
+// Changes take effect in memory at once; the records are written, and the log compacted, by a background writer,
+// so a caller on the EDT never waits on the disk. close() waits for everything to be written.
+public class NoteCatalog {
+    private static final int MAGIC = 0x53534E43;
+    private static final int VERSION = 1;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 1024;
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "note-catalog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File catalogFile;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private final CRC32 crc = new CRC32();
+    // Framed records not yet handed to the writer, and whether a write is already queued to take them
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private boolean writeQueued;
+    // Set when an append failed, so the next write rewrites the whole log from the entries instead
+    private boolean rewriteNeeded;
+    private int records;
+    // Only used on the writer thread, or by load() before anything is written
+    private FileChannel channel;
+    private long validLength;
+
+    public NoteCatalog(File catalogFile) {
+        this.catalogFile = catalogFile;
+    }
+
+    public synchronized boolean exists() {
+        return catalogFile.exists();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized boolean contains(String path) {
+        return entries.containsKey(path);
+    }
+
+    public synchronized Entry get(String path) {
+        return entries.get(path);
+    }
+
+    // Paths in the order the notes were first added
+    public synchronized List<String> getPaths() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    // Replays the log. A torn or corrupt record ends the replay; the bad tail is cut off before the next append.
+    public synchronized void load() {
+        entries.clear();
+        records = 0;
+        validLength = 0;
+        if (!catalogFile.exists()) {
+            return;
+        }
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(catalogFile.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+            return;
+        }
+        validLength = in.position();
+        while (in.remaining() >= 8) {
+            int length = in.getInt();
+            int checksum = in.getInt();
+            if (length <= 0 || length > in.remaining()) {
+                break;
+            }
+            crc.reset();
+            crc.update(bytes, in.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            apply(in.slice().limit(length));
+            in.position(in.position() + length);
+            records++;
+            validLength = in.position();
+        }
+    }
+
+    private void apply(ByteBuffer payload) {
+        byte type = payload.get();
+        int pathLength = payload.getShort() & 0xFFFF;
+        String path = new String(payload.array(), payload.arrayOffset() + payload.position(), pathLength, StandardCharsets.UTF_8);
+        payload.position(payload.position() + pathLength);
+        if (type == PUT) {
+            entries.put(path, new Entry(path, payload.getLong(), payload.getLong(), payload.getLong(), payload.getLong()));
+        } else if (type == REMOVE) {
+            entries.remove(path);
+        }
+    }
+
+    // Adds paths from the old saved_notes.ser list, skipping duplicates
+    public synchronized void importPaths(Collection<String> paths) {
+        for (String path : paths) {
+            if (!entries.containsKey(path)) {
+                File file = new File(path);
+                Entry entry = new Entry(path, file.length(), file.lastModified(), 0, 0);
+                entries.put(path, entry);
+                frame(PUT, path, entry);
+            }
+        }
+        flush();
+    }
+
+    // Records that the note was just opened or saved. The content hash is kept only if the file is unchanged.
+    public synchronized void recordOpened(File file) {
+        String path = file.getAbsolutePath();
+        Entry old = entries.get(path);
+        long size = file.length();
+        long modified = file.lastModified();
+        long hash = old != null && old.size == size && old.modified == modified ? old.contentHash : 0;
+        put(new Entry(path, size, modified, System.currentTimeMillis(), hash));
+    }
+
+    // Stores a hash computed off the EDT, as long as the file has not changed again in the meantime
+    public synchronized void updateHash(File file, long hash) {
+        Entry old = entries.get(file.getAbsolutePath());
+        if (old != null && old.size == file.length() && old.modified == file.lastModified() && old.contentHash != hash) {
+            put(new Entry(old.path, old.size, old.modified, old.lastOpened, hash));
+        }
+    }
+
+    // Picks up a change made to the note outside the app. Returns false when size and mtime are unchanged.
+    public synchronized boolean refreshMetadata(File file) {
+        Entry old = entries.get(file.getAbsolutePath());
+        if (old == null || (old.size == file.length() && old.modified == file.lastModified())) {
+            return false;
+        }
+        put(new Entry(old.path, file.length(), file.lastModified(), old.lastOpened, 0));
+        return true;
+    }
+
+    public synchronized void remove(String path) {
+        if (entries.remove(path) != null) {
+            frame(REMOVE, path, null);
+            flush();
+        }
+    }
+
+    private void put(Entry entry) {
+        entries.put(entry.path, entry);
+        frame(PUT, entry.path, entry);
+        flush();
+    }
+
+    private void frame(byte type, String path, Entry entry) {
+        try {
+            writeRecord(pending, crc, type, path, entry);
+            records++;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Queues a write of the framed records, unless one is queued already and will take them too
+    private void flush() {
+        if (!writeQueued && pending.size() > 0) {
+            writeQueued = true;
+            WRITER.execute(this::write);
+        }
+    }
+
+    // On the writer thread: appends what was framed since the last write in one go, or rewrites the log instead
+    // when it is worth compacting. The entries are copied together with the records, so a rewrite already holds
+    // everything those records say.
+    private void write() {
+        byte[] bytes;
+        List<Entry> snapshot = null;
+        synchronized (this) {
+            writeQueued = false;
+            bytes = pending.toByteArray();
+            pending.reset();
+            if (rewriteNeeded || records > MIN_RECORDS_BEFORE_COMPACTION && records > 2 * entries.size()) {
+                snapshot = new ArrayList<>(entries.values());
+                records = snapshot.size();
+                rewriteNeeded = false;
+            }
+        }
+        if (snapshot != null) {
+            rewrite(snapshot);
+            return;
+        }
+        try {
+            FileChannel out = openChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            validLength += bytes.length;
+        } catch (IOException e) {
+            e.printStackTrace();
+            synchronized (this) {
+                rewriteNeeded = true;
+            }
+        }
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null) {
+            boolean fresh = validLength == 0;
+            channel = FileChannel.open(catalogFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (fresh) {
+                channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                channel.write(header, 0);
+                validLength = 8;
+            } else {
+                // Drop whatever load() could not read, so new records follow the last good one
+                channel.truncate(validLength);
+            }
+            channel.position(validLength);
+        }
+        return channel;
+    }
+
+    private static void writeRecord(ByteArrayOutputStream out, CRC32 crc, byte type, String path, Entry entry) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(48 + path.length());
+        DataOutputStream data = new DataOutputStream(payload);
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        data.writeByte(type);
+        data.writeShort(pathBytes.length);
+        data.write(pathBytes);
+        if (entry != null) {
+            data.writeLong(entry.size);
+            data.writeLong(entry.modified);
+            data.writeLong(entry.lastOpened);
+            data.writeLong(entry.contentHash);
+        }
+        data.flush();
+        byte[] bytes = payload.toByteArray();
+        crc.reset();
+        crc.update(bytes);
+        DataOutputStream frame = new DataOutputStream(out);
+        frame.writeInt(bytes.length);
+        frame.writeInt((int) crc.getValue());
+        frame.write(bytes);
+        frame.flush();
+    }
+
+    // Rewrites the log with one PUT per live entry, in the background
+    public synchronized void compact() {
+        rewriteNeeded = true;
+        if (!writeQueued) {
+            writeQueued = true;
+            WRITER.execute(this::write);
+        }
+    }
+
+    // On the writer thread: writes the entries to a temp file and renames it over the log
+    private void rewrite(List<Entry> snapshot) {
+        Path target = catalogFile.toPath().toAbsolutePath();
+        CRC32 checksum = new CRC32();
+        try {
+            Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+            try {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+                try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    DataOutputStream header = new DataOutputStream(buffer);
+                    header.writeInt(MAGIC);
+                    header.writeInt(VERSION);
+                    header.flush();
+                    for (Entry entry : snapshot) {
+                        writeRecord(buffer, checksum, PUT, entry.path, entry);
+                        if (buffer.size() >= 60 * 1024) {
+                            out.write(ByteBuffer.wrap(buffer.toByteArray()));
+                            buffer.reset();
+                        }
+                    }
+                    out.write(ByteBuffer.wrap(buffer.toByteArray()));
+                    out.force(true);
+                    validLength = out.size();
+                }
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            synchronized (this) {
+                rewriteNeeded = true;
+            }
+        }
+    }
+
+    // Waits for every change to be written and the log forced to disk; compacts first if it is worth it
+    public void close() {
+        synchronized (this) {
+            if (records > entries.size() + MIN_RECORDS_BEFORE_COMPACTION / 4) {
+                rewriteNeeded = true;
+            }
+        }
+        try {
+            WRITER.submit(() -> {
+                write();
+                try {
+                    if (channel != null) {
+                        channel.force(false);
+                        channel.close();
+                        channel = null;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // CRC32C of the file's bytes, used to notice when a note's content really changed
+    public static long hashFile(File file) throws IOException {
+        CRC32C checksum = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                checksum.update(buffer);
+                buffer.clear();
+            }
+        }
+        // Zero means "not hashed yet"
+        return checksum.getValue() == 0 ? 1 : checksum.getValue();
+    }
+
+    public static class Entry {
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final long lastOpened;
+        private final long contentHash;
+
+        Entry(String path, long size, long modified, long lastOpened, long contentHash) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.lastOpened = lastOpened;
+            this.contentHash = contentHash;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        public long getLastOpened() {
+            return lastOpened;
+        }
+
+        public long getContentHash() {
+            return contentHash;
+        }
+    }
+}
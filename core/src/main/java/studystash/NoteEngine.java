@@ -0,0 +1,341 @@
+package studystash;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// The notes, their search index and the academic calendars, with no UI attached. Everything lives under one data
+// directory. The editor calls in from SwingWorkers; StudyStashCli calls in from a thread pool, so every method
+// may be used from any thread and the per-note operations may run in parallel with each other.
+public class NoteEngine {
+    private static final String SAVED_NOTES_FILE = "saved_notes.ser";
+    private static final String NOTES_CATALOG_FILE = "notes_catalog.log";
+    private static final String NOTES_INDEX_FILE = "notes_index.bin";
+    private static final String ACADEMIC_CALENDARS_DIR = "academic_calendars";
+    private static final int CONVERT_CHARS = 64 * 1024;
+
+    private final File dataDirectory;
+    private final Charset charset;
+    private final NoteCatalog catalog;
+    private final NoteIndex index;
+    private final File calendarDirectory;
+
+    public NoteEngine(File dataDirectory, Charset charset) {
+        this.dataDirectory = dataDirectory;
+        this.charset = charset;
+        catalog = new NoteCatalog(new File(dataDirectory, NOTES_CATALOG_FILE));
+        index = new NoteIndex(new File(dataDirectory, NOTES_INDEX_FILE));
+        calendarDirectory = new File(dataDirectory, ACADEMIC_CALENDARS_DIR);
+    }
+
+    public NoteCatalog getCatalog() {
+        return catalog;
+    }
+
+    public NoteIndex getIndex() {
+        return index;
+    }
+
+    public File getCalendarDirectory() {
+        return calendarDirectory;
+    }
+
+    // The charset of notes that carry no BOM and are not valid UTF-8
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public static boolean isCalendarImage(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png") || name.endsWith(".gif");
+    }
+
+    // Reads the catalog; on the first run the list older versions kept with Java serialization is imported once
+    @SuppressWarnings("unchecked")
+    public void loadCatalog() {
+        boolean firstRun = !catalog.exists();
+        catalog.load();
+        File legacyFile = new File(dataDirectory, SAVED_NOTES_FILE);
+        if (firstRun && legacyFile.exists()) {
+            try (ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(legacyFile))) {
+                Object obj = inputStream.readObject();
+                if (obj instanceof List) {
+                    catalog.importPaths((List<String>) obj);
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Loads the index and re-indexes the catalogued notes that changed since it was written
+    public void syncIndex() {
+        index.load();
+        index.sync(catalog.getPaths(), charset);
+        index.save();
+    }
+
+    // The catalog is written as notes are added; closing only flushes and, if worthwhile, compacts it
+    public void close() {
+        catalog.close();
+        index.save();
+    }
+
+    // Hashes a note that was just opened or saved and brings its search index entry up to date
+    public void refreshNote(File file) throws IOException {
+        catalog.updateHash(file, NoteCatalog.hashFile(file));
+        if (!index.isCurrent(file)) {
+            index.update(file, charset);
+            index.save();
+        }
+    }
+
+    public void removeNote(String path) {
+        catalog.remove(path);
+        index.remove(new File(path).getAbsolutePath());
+    }
+
+    public List<NoteIndex.Hit> search(String query, int limit) {
+        return index.search(query, limit);
+    }
+
+    // Adds the notes to the catalog and indexes them, one task per note on the given pool. Notes that fail are
+    // reported and skipped. Returns the number of notes added.
+    public int addNotes(Collection<File> files, ExecutorService pool) throws InterruptedException {
+        AtomicInteger added = new AtomicInteger();
+        forEach(files, pool, (file, position) -> {
+            catalog.recordOpened(file);
+            refreshNote(file);
+            added.incrementAndGet();
+        });
+        return added.get();
+    }
+
+    // Replaces every match in each note, or with dryRun only counts them, one task per note on the pool. Each note
+    // is streamed through its own StreamingReplacer and written atomically if it had matches. The listener, if any,
+    // hears about each note as it finishes, on the worker thread. Results come back in the order of files.
+    public List<ReplaceResult> replaceInNotes(List<File> files, String query, boolean matchCase, boolean wholeWord,
+                                              boolean regex, String replacement, boolean dryRun, ExecutorService pool,
+                                              Consumer<ReplaceResult> listener) throws InterruptedException {
+        ReplaceResult[] results = new ReplaceResult[files.size()];
+        ThreadLocal<StreamingReplacer> replacers = ThreadLocal.withInitial(() -> {
+            FindEngine engine = new FindEngine();
+            engine.setQuery(query, matchCase, wholeWord, regex);
+            return new StreamingReplacer(engine, replacement, charset);
+        });
+        forEach(files, pool, (file, i) -> {
+            Metrics.Sample sample = Metrics.start(Metrics.Operation.BULK_REPLACE);
+            try {
+                long bytes = file.length();
+                int matches = dryRun ? replacers.get().count(file) : replacers.get().replace(file);
+                if (matches > 0 && !dryRun) {
+                    noteChanged(file);
+                }
+                results[i] = new ReplaceResult(file, matches, null);
+                sample.stop(bytes);
+            } catch (IOException | RuntimeException e) {
+                // A replacement naming a group the pattern lacks only fails once a match is expanded
+                results[i] = new ReplaceResult(file, 0, e);
+                sample.fail(e);
+            }
+            if (listener != null) {
+                listener.accept(results[i]);
+            }
+        });
+        return Arrays.asList(results);
+    }
+
+    // Rewrites each note in the given charset, BOM and line endings; the text itself is left alone
+    public int convertNotes(Collection<File> files, TextFormat format, ExecutorService pool) throws InterruptedException {
+        AtomicInteger converted = new AtomicInteger();
+        forEach(files, pool, (file, position) -> {
+            convertNote(file, file, format);
+            converted.incrementAndGet();
+        });
+        return converted.get();
+    }
+
+    public void convertNote(File source, File target, TextFormat format) throws IOException {
+        TextFormat sourceFormat = TextFormat.detect(source, charset);
+        Metrics.Sample sample = Metrics.start(Metrics.Operation.NOTE_SAVE);
+        try {
+            transcode(source, sourceFormat, target, format);
+        } catch (InterruptedIOException | ClosedByInterruptException e) {
+            // Cancelled, not failed; an interrupt inside a channel read, write or force closes it instead
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            sample.fail(e);
+            throw e;
+        }
+        sample.stop(target.length());
+        noteChanged(target);
+    }
+
+    // Streams the note through a decoder and an encoder a block at a time, so it is never held in memory whole. The
+    // BOM is dropped and every CRLF, CR or LF becomes the target's line separator. As in DocumentSaver, the text goes
+    // to a temp file that is forced and renamed over the target, so source and target may be the same note.
+    private static void transcode(File source, TextFormat from, File target, TextFormat to) throws IOException {
+        Path path = target.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(path.getParent(), "." + path.getFileName(), ".tmp");
+        try {
+            DocumentSaver.copyPermissions(path, temp);
+            try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                in.position(from.getByteOrderMarkLength());
+                Reader reader = Channels.newReader(in, from.getCharset().newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE), CONVERT_CHARS);
+                out.write(ByteBuffer.wrap(to.getByteOrderMark()));
+                Writer writer = Channels.newWriter(out, to.getCharset().newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE), CONVERT_CHARS);
+                String lineSeparator = to.getLineSeparator();
+                char[] chars = new char[CONVERT_CHARS];
+                boolean skipLineFeed = false;
+                int n;
+                while ((n = reader.read(chars)) >= 0) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Conversion cancelled");
+                    }
+                    int start = 0;
+                    for (int i = 0; i < n; i++) {
+                        char c = chars[i];
+                        if (c == '\n' && skipLineFeed) {
+                            // The LF of a CRLF whose CR was already written as a separator
+                            skipLineFeed = false;
+                            start = i + 1;
+                            continue;
+                        }
+                        skipLineFeed = c == '\r';
+                        if (c == '\r' || c == '\n') {
+                            writer.write(chars, start, i - start);
+                            writer.write(lineSeparator);
+                            start = i + 1;
+                        }
+                    }
+                    writer.write(chars, start, n - start);
+                }
+                writer.flush();
+                out.force(true);
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            DocumentSaver.syncDirectory(path.getParent());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Keeps the catalog and the index current for notes rewritten here rather than in the editor
+    private void noteChanged(File file) throws IOException {
+        if (catalog.contains(file.getAbsolutePath())) {
+            catalog.refreshMetadata(file);
+            refreshNote(file);
+        }
+    }
+
+    // Copies an image into the calendar directory, or renders each page of a PDF into it. Returns the pages added.
+    public int importCalendar(File file) throws IOException, InterruptedException {
+        if (!PdfCalendarImporter.isPdf(file)) {
+            Files.createDirectories(calendarDirectory.toPath());
+            Files.copy(file.toPath(), new File(calendarDirectory, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return 1;
+        }
+        try {
+            return new PdfCalendarImporter(file, calendarDirectory).call();
+        } catch (IOException e) {
+            throw new IOException("Could not import " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private interface NoteTask<T> {
+        // position is the item's place in the collection
+        void run(T item, int position) throws Exception;
+    }
+
+    // Runs the task for every item on the pool and waits for all of them. A failing item is reported on stderr
+    // and does not stop the others; being interrupted cancels the ones still running.
+    private static <T> void forEach(Collection<T> items, ExecutorService pool, NoteTask<T> task) throws InterruptedException {
+        List<Future<?>> futures = new ArrayList<>(items.size());
+        int position = 0;
+        for (T item : items) {
+            int itemPosition = position++;
+            futures.add(pool.submit(() -> {
+                try {
+                    task.run(item, itemPosition);
+                } catch (Exception e) {
+                    System.err.println(item + ": " + e);
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    // What a bulk replace found in one note: the number of matches, or why the note could not be read or written
+    public static class ReplaceResult {
+        private final File file;
+        private final int matches;
+        private final Exception error;
+
+        ReplaceResult(File file, int matches, Exception error) {
+            this.file = file;
+            this.matches = matches;
+            this.error = error;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public int getMatches() {
+            return matches;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return error != null ? file.getPath() + "  -  " + error.getMessage() : matches + "  " + file.getPath();
+        }
+    }
+}
@@ -0,0 +1,519 @@
+package studystash;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+// Inverted index over the saved notes, ranked with BM25. Only the per-note term counts are stored on disk;
+// the postings are rebuilt from them on load. Notes are re-indexed one at a time when their size or mtime changes.
+// On disk the index is a log of CRC-framed records, like NoteCatalog's: save() appends one record per note changed
+// since the last save, and the whole file is only rewritten when compacting a log that is mostly superseded records.
+public class NoteIndex {
+    private static final int MAGIC = 0x53534E49;
+    // Versions 1 and 2 decoded every note in the platform charset, so UTF-16 and BOM-marked notes were indexed as
+    // garbage; such files are ignored, and sync() indexes the notes again
+    private static final int VERSION = 3;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 256;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int SNIPPET_RADIUS = 60;
+    private static final int MAX_SNIPPET_SCAN_LINES = 100_000;
+
+    private final File indexFile;
+    private final Map<String, IndexedNote> notes = new HashMap<>();
+    private final Map<String, Map<String, Integer>> postings = new HashMap<>();
+    private long totalTerms;
+    // Notes changed since the last save, by path, in the order they changed; null for a removed note
+    private final Map<String, IndexedNote> unsaved = new LinkedHashMap<>();
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    // End of the last good record, where the next one is appended; 0 when the file must be written from scratch
+    private long validLength;
+    private int records;
+
+    public NoteIndex(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    public synchronized int size() {
+        return notes.size();
+    }
+
+    public synchronized Set<String> getIndexedPaths() {
+        return new HashSet<>(notes.keySet());
+    }
+
+    public synchronized boolean isCurrent(File file) {
+        IndexedNote note = notes.get(file.getAbsolutePath());
+        return note != null && note.size == file.length() && note.modified == file.lastModified();
+    }
+
+    // Tokenizes the file outside the lock, so searches keep working while a big note is indexed. The note is read
+    // in the format TextFormat detects, with fallback for notes that give no hint, as the editor would open it.
+    public void update(File file, Charset fallback) throws IOException {
+        Map<String, Integer> terms = new HashMap<>();
+        int count = 0;
+        long size = file.length();
+        long modified = file.lastModified();
+        try (Reader reader = TextFormat.detect(file, fallback).newReader(file)) {
+            char[] buffer = new char[8192];
+            StringBuilder term = new StringBuilder();
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    char c = buffer[i];
+                    if (Character.isLetterOrDigit(c)) {
+                        if (term.length() < MAX_TERM_LENGTH) {
+                            term.append(Character.toLowerCase(c));
+                        }
+                    } else if (term.length() > 0) {
+                        count += addTerm(terms, term);
+                    }
+                }
+            }
+            if (term.length() > 0) {
+                count += addTerm(terms, term);
+            }
+        }
+        synchronized (this) {
+            removeNote(file.getAbsolutePath());
+            IndexedNote note = new IndexedNote(file.getAbsolutePath(), size, modified, count, terms);
+            notes.put(note.path, note);
+            addPostings(note);
+            unsaved.put(note.path, note);
+        }
+    }
+
+    private static int addTerm(Map<String, Integer> terms, StringBuilder term) {
+        int added = 0;
+        if (term.length() > 1) {
+            terms.merge(term.toString(), 1, Integer::sum);
+            added = 1;
+        }
+        term.setLength(0);
+        return added;
+    }
+
+    public synchronized void remove(String path) {
+        if (removeNote(path)) {
+            unsaved.put(path, null);
+        }
+    }
+
+    private boolean removeNote(String path) {
+        IndexedNote old = notes.remove(path);
+        if (old == null) {
+            return false;
+        }
+        for (String term : old.terms.keySet()) {
+            Map<String, Integer> posting = postings.get(term);
+            if (posting != null) {
+                posting.remove(path);
+                if (posting.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+        totalTerms -= old.termCount;
+        return true;
+    }
+
+    private void addPostings(IndexedNote note) {
+        for (Map.Entry<String, Integer> entry : note.terms.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), k -> new HashMap<>()).put(note.path, entry.getValue());
+        }
+        totalTerms += note.termCount;
+    }
+
+    public synchronized List<Hit> search(String query, int limit) {
+        List<String> terms = tokenize(query);
+        Map<String, Double> scores = new HashMap<>();
+        int noteCount = notes.size();
+        double averageLength = noteCount == 0 ? 1 : Math.max(1.0, (double) totalTerms / noteCount);
+        for (String term : new HashSet<>(terms)) {
+            Map<String, Integer> posting = postings.get(term);
+            if (posting == null) {
+                continue;
+            }
+            double idf = Math.log(1 + (noteCount - posting.size() + 0.5) / (posting.size() + 0.5));
+            for (Map.Entry<String, Integer> entry : posting.entrySet()) {
+                int tf = entry.getValue();
+                int length = notes.get(entry.getKey()).termCount;
+                double score = idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / averageLength));
+                scores.merge(entry.getKey(), score, Double::sum);
+            }
+        }
+
+        PriorityQueue<Hit> top = new PriorityQueue<>((a, b) -> Double.compare(a.score, b.score));
+        for (Map.Entry<String, Double> entry : scores.entrySet()) {
+            top.add(new Hit(entry.getKey(), entry.getValue(), terms));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        List<Hit> hits = new ArrayList<>(top);
+        hits.sort((a, b) -> Double.compare(b.score, a.score));
+        return hits;
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (term.length() < MAX_TERM_LENGTH) {
+                    term.append(Character.toLowerCase(c));
+                }
+            } else if (term.length() > 0) {
+                if (term.length() > 1) {
+                    terms.add(term.toString());
+                }
+                term.setLength(0);
+            }
+        }
+        return terms;
+    }
+
+    // Replays the log. A torn or corrupt record ends the replay; the bad tail is cut off before the next append.
+    public synchronized void load() {
+        notes.clear();
+        postings.clear();
+        totalTerms = 0;
+        unsaved.clear();
+        records = 0;
+        validLength = 0;
+        if (!indexFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile.toPath())))) {
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            validLength = 8;
+            long fileLength = indexFile.length();
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > fileLength - validLength) {
+                    break;
+                }
+                int checksum = in.readInt();
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(payload)));
+                records++;
+                validLength += 8 + length;
+            }
+        } catch (EOFException e) {
+            // torn final record, keep what was read before it
+        } catch (IOException e) {
+            // A damaged index is simply rebuilt from the notes
+            e.printStackTrace();
+            notes.clear();
+            postings.clear();
+            totalTerms = 0;
+            validLength = 0;
+        }
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        if (type == PUT) {
+            IndexedNote note = readNote(in);
+            removeNote(note.path);
+            notes.put(note.path, note);
+            addPostings(note);
+        } else if (type == REMOVE) {
+            removeNote(in.readUTF());
+        }
+    }
+
+    private static IndexedNote readNote(DataInputStream in) throws IOException {
+        String path = in.readUTF();
+        long size = in.readLong();
+        long modified = in.readLong();
+        int termCount = in.readInt();
+        int distinct = in.readInt();
+        Map<String, Integer> terms = new HashMap<>(distinct * 4 / 3 + 1);
+        for (int j = 0; j < distinct; j++) {
+            terms.put(in.readUTF(), in.readInt());
+        }
+        return new IndexedNote(path, size, modified, termCount, terms);
+    }
+
+    private static void writeNote(DataOutputStream out, IndexedNote note) throws IOException {
+        out.writeUTF(note.path);
+        out.writeLong(note.size);
+        out.writeLong(note.modified);
+        out.writeInt(note.termCount);
+        out.writeInt(note.terms.size());
+        for (Map.Entry<String, Integer> entry : note.terms.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    // Appends a record for each note changed since the last save, so saving costs what changed, not the whole index
+    public synchronized void save() {
+        if (unsaved.isEmpty() && (validLength > 0 || notes.isEmpty())) {
+            return;
+        }
+        if (validLength == 0 || records + unsaved.size() > MIN_RECORDS_BEFORE_COMPACTION && records + unsaved.size() > 2 * notes.size()) {
+            compact();
+            return;
+        }
+        try {
+            FileChannel out = openChannel();
+            ByteArrayOutputStream batch = new ByteArrayOutputStream(64 * 1024);
+            for (Map.Entry<String, IndexedNote> change : unsaved.entrySet()) {
+                writeRecord(batch, change.getKey(), change.getValue());
+                if (batch.size() >= 60 * 1024) {
+                    write(out, batch);
+                }
+            }
+            write(out, batch);
+            records += unsaved.size();
+            unsaved.clear();
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeChannel();
+            // Whatever made it out is cut off again on the next load; rewrite the whole log next time
+            validLength = 0;
+        }
+    }
+
+    private void write(FileChannel out, ByteArrayOutputStream batch) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(batch.toByteArray());
+        while (bytes.hasRemaining()) {
+            out.write(bytes);
+        }
+        validLength += batch.size();
+        batch.reset();
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            // Drop whatever load() could not read, so new records follow the last good one
+            channel.truncate(validLength);
+            channel.position(validLength);
+        }
+        return channel;
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+
+    // Each record is framed as [length][crc32][payload]; a null note records its removal
+    private void writeRecord(ByteArrayOutputStream out, String path, IndexedNote note) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(payload);
+        if (note != null) {
+            data.writeByte(PUT);
+            writeNote(data, note);
+        } else {
+            data.writeByte(REMOVE);
+            data.writeUTF(path);
+        }
+        data.flush();
+        byte[] bytes = payload.toByteArray();
+        crc.reset();
+        crc.update(bytes);
+        DataOutputStream frame = new DataOutputStream(out);
+        frame.writeInt(bytes.length);
+        frame.writeInt((int) crc.getValue());
+        frame.write(bytes);
+        frame.flush();
+    }
+
+    // Rewrites the log with one PUT per indexed note, through a temp file and a rename
+    private void compact() {
+        Path target = indexFile.toPath().toAbsolutePath();
+        try {
+            Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+            try {
+                long written;
+                try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    ByteArrayOutputStream batch = new ByteArrayOutputStream(64 * 1024);
+                    DataOutputStream header = new DataOutputStream(batch);
+                    header.writeInt(MAGIC);
+                    header.writeInt(VERSION);
+                    header.flush();
+                    for (IndexedNote note : notes.values()) {
+                        writeRecord(batch, note.path, note);
+                        if (batch.size() >= 60 * 1024) {
+                            out.write(ByteBuffer.wrap(batch.toByteArray()));
+                            batch.reset();
+                        }
+                    }
+                    out.write(ByteBuffer.wrap(batch.toByteArray()));
+                    out.force(true);
+                    written = out.size();
+                }
+                closeChannel();
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                validLength = written;
+                records = notes.size();
+                unsaved.clear();
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Brings the index in line with the given notes: stale or new ones are re-indexed, vanished ones dropped
+    public void sync(Collection<String> paths, Charset fallback) {
+        Set<String> wanted = new HashSet<>();
+        for (String path : paths) {
+            File file = new File(path);
+            wanted.add(file.getAbsolutePath());
+            if (file.isFile() && !isCurrent(file)) {
+                try {
+                    update(file, fallback);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        for (String path : getIndexedPaths()) {
+            if (!wanted.contains(path) || !new File(path).isFile()) {
+                remove(path);
+            }
+        }
+    }
+
+    private static class IndexedNote {
+        final String path;
+        final long size;
+        final long modified;
+        final int termCount;
+        final Map<String, Integer> terms;
+
+        IndexedNote(String path, long size, long modified, int termCount, Map<String, Integer> terms) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.termCount = termCount;
+            this.terms = terms;
+        }
+    }
+
+    public static class Hit {
+        private final String path;
+        private final double score;
+        private final List<String> terms;
+        private volatile String snippet = "";
+
+        Hit(String path, double score, List<String> terms) {
+            this.path = path;
+            this.score = score;
+            this.terms = terms;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public String getSnippet() {
+            return snippet;
+        }
+
+        // Reads the note up to the first line mentioning a query term. Meant for a background thread.
+        public void loadSnippet(Charset fallback) {
+            File file = new File(path);
+            try (BufferedReader reader = new BufferedReader(TextFormat.detect(file, fallback).newReader(file))) {
+                String line;
+                String first = null;
+                int lines = 0;
+                while ((line = reader.readLine()) != null && lines++ < MAX_SNIPPET_SCAN_LINES) {
+                    if (first == null && !line.isBlank()) {
+                        first = line;
+                    }
+                    String lower = lowerCase(line);
+                    for (String term : terms) {
+                        int index = lower.indexOf(term);
+                        if (index >= 0) {
+                            int from = Math.max(0, index - SNIPPET_RADIUS);
+                            int to = Math.min(line.length(), index + term.length() + SNIPPET_RADIUS);
+                            from = Math.min(from, to);
+                            snippet = (from > 0 ? "..." : "") + line.substring(from, to).trim() + (to < line.length() ? "..." : "");
+                            return;
+                        }
+                    }
+                }
+                snippet = first == null ? "" : first.substring(0, Math.min(first.length(), 2 * SNIPPET_RADIUS)).trim();
+            } catch (IOException e) {
+                snippet = "(unreadable)";
+            }
+        }
+
+        // Lowercases char by char, as update() does, so offsets into the result are offsets into line; String's
+        // toLowerCase may change the length, e.g. for a dotted capital I
+        private static String lowerCase(String line) {
+            char[] chars = line.toCharArray();
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = Character.toLowerCase(chars[i]);
+            }
+            return new String(chars);
+        }
+
+        @Override
+        public String toString() {
+            return new File(path).getName() + "  -  " + snippet;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package studystash;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+// Turns a PDF calendar into one progressive JPEG per page in the calendar directory.
+// Pages are rendered in parallel, one worker per core, and are queued in page order so page 1 is usually on disk
+// first and the viewer can show it while the rest are still rendering. Each page is written to a temp file and
+// renamed, so the viewer never picks up half a page. call() imports on the calling thread and returns the page count;
+// interrupting that thread stops the pages still being rendered.
+public class PdfCalendarImporter implements Callable<Integer> {
+    private static final int DPI = 150;
+
+    // The JDK cannot rasterize PDF, so the rendering itself is behind this interface. render() is called from
+    // several threads at once.
+    public interface PageRenderer {
+        int getPageCount(File pdf) throws IOException, InterruptedException;
+
+        BufferedImage render(File pdf, int page, int dpi) throws IOException, InterruptedException;
+
+        // Called once the import of pdf is over, to let go of whatever was opened for it
+        default void release(File pdf) {
+        }
+    }
+
+    private final File pdf;
+    private final File outputDirectory;
+    private final PageRenderer renderer;
+    private volatile int pageCount;
+    private volatile int pagesDone;
+    private volatile long elapsedNanos;
+    private IntConsumer pageListener;
+
+    public PdfCalendarImporter(File pdf, File outputDirectory) {
+        this(pdf, outputDirectory, new PdfBoxRenderer());
+    }
+
+    public PdfCalendarImporter(File pdf, File outputDirectory, PageRenderer renderer) {
+        this.pdf = pdf;
+        this.outputDirectory = outputDirectory;
+        this.renderer = renderer;
+    }
+
+    // Hears each page number once the page is on disk, on the importing thread
+    public void setPageListener(IntConsumer pageListener) {
+        this.pageListener = pageListener;
+    }
+
+    public static boolean isPdf(File file) {
+        return file.getName().toLowerCase().endsWith(".pdf");
+    }
+
+    public File getPdf() {
+        return pdf;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public int getPagesDone() {
+        return pagesDone;
+    }
+
+    public double getPagesPerSecond() {
+        return pagesDone / (Math.max(elapsedNanos, 1) / 1e9);
+    }
+
+    public String getThroughputSummary() {
+        return String.format("Imported %s: %d pages in %d ms (%.1f pages/s)", pdf.getName(), pagesDone, elapsedNanos / 1_000_000, getPagesPerSecond());
+    }
+
+    // Where a page ends up; the zero padding keeps the viewer's directory listing in page order
+    public File getPageFile(int page) {
+        String base = pdf.getName().replaceFirst("(?i)\\.pdf$", "");
+        return new File(outputDirectory, String.format("%s-page-%03d.jpg", base, page));
+    }
+
+    @Override
+    public Integer call() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Files.createDirectories(outputDirectory.toPath());
+        pageCount = renderer.getPageCount(pdf);
+        int threads = Math.max(1, Math.min(pageCount, Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "pdf-page-renderer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Integer> pages = new ExecutorCompletionService<>(pool);
+        List<Future<Integer>> futures = new ArrayList<>();
+        try {
+            for (int page = 1; page <= pageCount; page++) {
+                int number = page;
+                futures.add(pages.submit(() -> {
+                    Metrics.Sample sample = Metrics.start(Metrics.Operation.CALENDAR_PAGE);
+                    File target = getPageFile(number);
+                    try {
+                        BufferedImage image = renderer.render(pdf, number, DPI);
+                        if (image == null) {
+                            throw new IOException("Could not render page " + number + " of " + pdf.getName());
+                        }
+                        // A render does not stop when interrupted; leave no page behind a cancelled or failed import
+                        if (Thread.currentThread().isInterrupted()) {
+                            throw new InterruptedException();
+                        }
+                        writePage(image, target);
+                    } catch (IOException e) {
+                        sample.fail(e);
+                        throw e;
+                    }
+                    sample.stop(target.length());
+                    return number;
+                }));
+            }
+            for (int i = 0; i < pageCount; i++) {
+                int page = pages.take().get();
+                pagesDone++;
+                elapsedNanos = System.nanoTime() - start;
+                if (pageListener != null) {
+                    pageListener.accept(page);
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IOException("Could not render " + pdf.getName(), cause);
+        } finally {
+            // On failure or cancel, stop the pages still queued or rendering
+            for (Future<Integer> future : futures) {
+                future.cancel(true);
+            }
+            pool.shutdownNow();
+            awaitTermination(pool);
+            renderer.release(pdf);
+            elapsedNanos = System.nanoTime() - start;
+        }
+        return pagesDone;
+    }
+
+    // Waits for the pages still rendering, so none of them hands a document back after release(). A cancelled import
+    // has its own thread interrupted, so the wait goes on through interrupts and sets the flag again afterwards.
+    private static void awaitTermination(ExecutorService pool) {
+        boolean interrupted = Thread.interrupted();
+        while (true) {
+            try {
+                if (pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writePage(BufferedImage image, File target) throws IOException {
+        if (image.getColorModel().hasAlpha()) {
+            // JPEG has no alpha channel; flatten onto white
+            BufferedImage opaque = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            java.awt.Graphics2D g = opaque.createGraphics();
+            g.drawImage(image, 0, 0, java.awt.Color.WHITE, null);
+            g.dispose();
+            image = opaque;
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        Path temp = Files.createTempFile(outputDirectory.toPath(), ".page", ".tmp");
+        try {
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(temp.toFile())) {
+                writer.setOutput(output);
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+            Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Renders with PDFBox, in-process. A PDDocument must not be used by two threads at once, so each page takes an
+    // open copy of the PDF that no other thread is using, opening another only when all are busy; at most one per
+    // rendering thread is ever opened, and release() closes them.
+    public static class PdfBoxRenderer implements PageRenderer {
+        private final Queue<PDDocument> idle = new ConcurrentLinkedQueue<>();
+
+        public int getPageCount(File pdf) throws IOException {
+            PDDocument document = open(pdf);
+            try {
+                return document.getNumberOfPages();
+            } finally {
+                idle.add(document);
+            }
+        }
+
+        public BufferedImage render(File pdf, int page, int dpi) throws IOException, InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            PDDocument document = idle.poll();
+            if (document == null) {
+                document = open(pdf);
+            }
+            try {
+                return new PDFRenderer(document).renderImageWithDPI(page - 1, dpi, ImageType.RGB);
+            } finally {
+                idle.add(document);
+            }
+        }
+
+        @Override
+        public void release(File pdf) {
+            PDDocument document;
+            while ((document = idle.poll()) != null) {
+                try {
+                    document.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private static PDDocument open(File pdf) throws IOException {
+            try {
+                return Loader.loadPDF(pdf);
+            } catch (IOException e) {
+                throw new IOException("Could not read " + pdf.getName() + " (is it a PDF?)", e);
+            }
+        }
+    }
+}
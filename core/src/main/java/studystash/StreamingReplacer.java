@@ -0,0 +1,265 @@
+package studystash;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Replace All on a note on disk without ever holding the whole note in memory. The file is decoded a block at a time
+// with its line breaks turned into '\n', as the editor sees them, and FindEngine searches each block through a
+// read-only Document over the block's chars. Consecutive blocks overlap by the engine's lookahead, so a match is
+// found even when it straddles two blocks; a regex search that runs into the end of a block is done again on the
+// next block, which starts where that search began, and a note where one block is not enough fails. The text with
+// the replacements is encoded straight into a temp file that is forced to disk and renamed over the note, as
+// DocumentSaver does; a note without matches is never rewritten. The charset, BOM and line separator are kept.
+// Not thread-safe: use one replacer, and one FindEngine, per thread.
+public class StreamingReplacer {
+    private static final int BLOCK_CHARS = 1024 * 1024;
+    private static final int READ_CHARS = 64 * 1024;
+
+    private final FindEngine engine;
+    private final String replacement;
+    private final Charset fallback;
+    private final BlockContent content = new BlockContent();
+    private final PlainDocument block = new PlainDocument(content);
+    private final char[] raw = new char[READ_CHARS];
+    // [char before the block][block][lookahead], reused from note to note
+    private final char[] text;
+
+    // Per note
+    private Writer out;
+    private String lineSeparator;
+    private boolean skipLineFeed;
+    private int written;
+    private int matches;
+
+    // The engine must already hold the query
+    public StreamingReplacer(FindEngine engine, String replacement, Charset fallback) {
+        this.engine = engine;
+        this.replacement = replacement;
+        this.fallback = fallback;
+        text = new char[1 + BLOCK_CHARS + engine.getLookahead()];
+        content.text = text;
+    }
+
+    // Counts the matches in the note without writing anything
+    public int count(File file) throws IOException {
+        return process(file, false);
+    }
+
+    // Replaces every match and returns how many there were
+    public int replace(File file) throws IOException {
+        return process(file, true);
+    }
+
+    private int process(File file, boolean write) throws IOException {
+        TextFormat format = TextFormat.detect(file, fallback);
+        matches = 0;
+        skipLineFeed = false;
+        lineSeparator = format.getLineSeparator();
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = null;
+        FileChannel channel = null;
+        try (FileChannel in = FileChannel.open(target, StandardOpenOption.READ)) {
+            in.position(format.getByteOrderMarkLength());
+            Reader reader = Channels.newReader(in, format.getCharset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE), READ_CHARS);
+            if (write) {
+                temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+                DocumentSaver.copyPermissions(target, temp);
+                channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                channel.write(ByteBuffer.wrap(format.getByteOrderMark()));
+                out = Channels.newWriter(channel, format.getCharset().newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE), READ_CHARS);
+            }
+            try {
+                scan(reader);
+                if (out != null) {
+                    out.flush();
+                    channel.force(true);
+                }
+            } finally {
+                if (out != null) {
+                    // Closes the channel too
+                    out.close();
+                    out = null;
+                }
+            }
+            if (write && matches > 0) {
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                DocumentSaver.syncDirectory(target.getParent());
+            }
+        } catch (BadLocationException e) {
+            throw new IOException("Could not search " + file.getName(), e);
+        } finally {
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return matches;
+    }
+
+    // The char kept before each block only serves whole-word checks and anchors
+    private void scan(Reader reader) throws IOException, BadLocationException {
+        int lookahead = engine.getLookahead();
+        int length = 0;
+        int from = 0;
+        while (true) {
+            boolean end = false;
+            while (length < text.length) {
+                int n = reader.read(raw, 0, Math.min(raw.length, text.length - length));
+                if (n < 0) {
+                    end = true;
+                    break;
+                }
+                length = normalize(n, text, length);
+            }
+            int scanTo = end ? length : length - lookahead;
+            content.length = length;
+            written = from;
+            FindEngine.MatchConsumer consumer = (start, stop) -> {
+                matches++;
+                if (out != null) {
+                    try {
+                        writeText(text, written, start);
+                        writeText(engine.expandReplacement(replacement));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                written = stop;
+                return true;
+            };
+            int cutAt = -1;
+            try {
+                if (end) {
+                    engine.findAll(block, from, scanTo, consumer);
+                } else {
+                    cutAt = engine.findAllInPart(block, from, scanTo, consumer);
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (FindEngine.MatchTooLongException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            if (cutAt == from) {
+                throw new IOException("A match of " + engine.getQuery() + " may run on for more than "
+                        + (length - from) + " characters");
+            }
+            // A match may run into the lookahead; the next block starts after it, or where a search ran out of text
+            int next = cutAt >= 0 ? cutAt : Math.max(scanTo, written);
+            if (out != null) {
+                writeText(text, written, next);
+            }
+            if (end) {
+                return;
+            }
+            System.arraycopy(text, next - 1, text, 0, length - next + 1);
+            length -= next - 1;
+            from = 1;
+        }
+    }
+
+    // Copies n freshly read chars into text with CRLF and CR turned into '\n'; returns the new length
+    private int normalize(int n, char[] text, int length) {
+        for (int i = 0; i < n; i++) {
+            char c = raw[i];
+            if (c == '\n' && skipLineFeed) {
+                skipLineFeed = false;
+                continue;
+            }
+            skipLineFeed = c == '\r';
+            text[length++] = skipLineFeed ? '\n' : c;
+        }
+        return length;
+    }
+
+    private void writeText(char[] text, int start, int end) throws IOException {
+        if ("\n".equals(lineSeparator)) {
+            out.write(text, start, end - start);
+            return;
+        }
+        for (int i = start; i < end; i++) {
+            if (text[i] == '\n') {
+                out.write(text, start, i - start);
+                out.write(lineSeparator);
+                start = i + 1;
+            }
+        }
+        out.write(text, start, end - start);
+    }
+
+    private void writeText(String text) throws IOException {
+        char[] chars = text.toCharArray();
+        writeText(chars, 0, chars.length);
+    }
+
+    // Read-only view of the current block. AbstractDocument expects the content to end with an implied '\n'.
+    private static class BlockContent implements AbstractDocument.Content {
+        char[] text = new char[0];
+        int length;
+
+        public Position createPosition(int offset) {
+            return () -> offset;
+        }
+
+        public int length() {
+            return length + 1;
+        }
+
+        public UndoableEdit insertString(int where, String str) {
+            throw new UnsupportedOperationException("Read-only");
+        }
+
+        public UndoableEdit remove(int where, int nitems) {
+            throw new UnsupportedOperationException("Read-only");
+        }
+
+        public String getString(int where, int len) throws BadLocationException {
+            Segment segment = new Segment();
+            getChars(where, len, segment);
+            return segment.toString();
+        }
+
+        public void getChars(int where, int len, Segment txt) throws BadLocationException {
+            if (where < 0 || len < 0 || where + len > length + 1) {
+                throw new BadLocationException("Outside the block", where);
+            }
+            if (where + len <= length) {
+                txt.array = text;
+                txt.offset = where;
+                txt.count = len;
+                return;
+            }
+            char[] copy = new char[len];
+            System.arraycopy(text, where, copy, 0, len - 1);
+            copy[len - 1] = '\n';
+            txt.array = copy;
+            txt.offset = 0;
+            txt.count = len;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package studystash;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+// Command line front end to NoteEngine for servers with no display: bulk index, search, replace and convert notes
+// and import calendars against the same data directory the editor uses. Per-note work runs on a ForkJoinPool.
+public class StudyStashCli {
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "usage: studystash [--data DIR] [--threads N] [--charset NAME] [--metrics FILE] COMMAND ...",
+            "  index PATH...                       add notes to the catalog and the search index",
+            "  search [--limit N] QUERY...         ranked search over the indexed notes",
+            "  replace [--match-case] [--whole-word] [--regex] [--dry-run] FIND REPLACEMENT PATH...",
+            "                                      replace in every note, keeping its encoding;",
+            "                                      --dry-run only lists the number of matches per note",
+            "  convert [--encoding NAME] [--bom] [--line-endings lf|crlf|cr] PATH...",
+            "                                      rewrite notes in another encoding",
+            "  calendar FILE...                    import PDF or image calendars",
+            "A directory PATH stands for every " + String.join(", ", noteExtensions()) + " file below it.",
+            "--charset is the encoding of notes that have no BOM and are not UTF-8 (default: the platform's).",
+            "--metrics writes latency percentiles for every note read, written and replaced to FILE on exit.");
+
+    private File dataDirectory = new File(".");
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Charset charset = Charset.defaultCharset();
+    private File metricsFile;
+
+    public static void main(String[] args) {
+        int status;
+        try {
+            status = new StudyStashCli().run(new ArrayList<>(List.of(args)));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            status = 2;
+        } catch (Exception e) {
+            e.printStackTrace();
+            status = 1;
+        }
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    private static List<String> noteExtensions() {
+        return List.of(".txt", ".md");
+    }
+
+    private int run(List<String> args) throws Exception {
+        while (!args.isEmpty() && args.get(0).startsWith("--")) {
+            String option = args.remove(0);
+            switch (option) {
+                case "--data":
+                    dataDirectory = new File(value(args, option));
+                    break;
+                case "--threads":
+                    threads = Math.max(1, Integer.parseInt(value(args, option)));
+                    break;
+                case "--charset":
+                    charset = Charset.forName(value(args, option));
+                    break;
+                case "--metrics":
+                    metricsFile = new File(value(args, option));
+                    break;
+                case "--help":
+                    System.out.println(USAGE);
+                    return 0;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+        if (args.isEmpty()) {
+            throw new IllegalArgumentException("No command given");
+        }
+        String command = args.remove(0);
+        NoteEngine engine = new NoteEngine(dataDirectory, charset);
+        engine.loadCatalog();
+        engine.getIndex().load();
+        ExecutorService pool = new ForkJoinPool(threads);
+        try {
+            switch (command) {
+                case "index":
+                    return index(engine, args, pool);
+                case "search":
+                    return search(engine, args);
+                case "replace":
+                    return replace(engine, args, pool);
+                case "convert":
+                    return convert(engine, args, pool);
+                case "calendar":
+                    return importCalendars(engine, args);
+                default:
+                    throw new IllegalArgumentException("Unknown command: " + command);
+            }
+        } finally {
+            pool.shutdownNow();
+            engine.close();
+            writeMetrics();
+        }
+    }
+
+    private void writeMetrics() {
+        if (metricsFile == null) {
+            return;
+        }
+        try {
+            Metrics.writeReport(metricsFile, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private int index(NoteEngine engine, List<String> args, ExecutorService pool) throws InterruptedException {
+        List<File> notes = expandPaths(args);
+        long start = System.nanoTime();
+        int added = engine.addNotes(notes, pool);
+        report("Indexed %d of %d notes", added, notes.size(), start);
+        return added == notes.size() ? 0 : 1;
+    }
+
+    private int search(NoteEngine engine, List<String> args) {
+        int limit = 20;
+        if (!args.isEmpty() && args.get(0).equals("--limit")) {
+            args.remove(0);
+            limit = Integer.parseInt(value(args, "--limit"));
+        }
+        if (args.isEmpty()) {
+            throw new IllegalArgumentException("search needs a query");
+        }
+        long start = System.nanoTime();
+        List<NoteIndex.Hit> hits = engine.search(String.join(" ", args), limit);
+        for (NoteIndex.Hit hit : hits) {
+            hit.loadSnippet(charset);
+            System.out.printf("%8.3f  %s%n          %s%n", hit.getScore(), hit.getPath(), hit.getSnippet());
+        }
+        report("%d of %d notes matched", hits.size(), engine.getIndex().size(), start);
+        return hits.isEmpty() ? 1 : 0;
+    }
+
+    private int replace(NoteEngine engine, List<String> args, ExecutorService pool) throws InterruptedException {
+        boolean matchCase = false;
+        boolean wholeWord = false;
+        boolean regex = false;
+        boolean dryRun = false;
+        while (!args.isEmpty() && args.get(0).startsWith("--")) {
+            String option = args.remove(0);
+            if (option.equals("--match-case")) {
+                matchCase = true;
+            } else if (option.equals("--whole-word")) {
+                wholeWord = true;
+            } else if (option.equals("--regex")) {
+                regex = true;
+            } else if (option.equals("--dry-run")) {
+                dryRun = true;
+            } else {
+                throw new IllegalArgumentException("Unknown replace option: " + option);
+            }
+        }
+        if (args.size() < 3) {
+            throw new IllegalArgumentException("replace needs FIND, REPLACEMENT and at least one PATH");
+        }
+        String query = args.remove(0);
+        String replacement = args.remove(0);
+        // A bad regex or replacement is reported once here rather than once per note
+        FindEngine check = new FindEngine();
+        check.setQuery(query, matchCase, wholeWord, regex);
+        check.checkReplacement(replacement);
+        List<File> notes = expandPaths(args);
+        long start = System.nanoTime();
+        long total = 0;
+        int failed = 0;
+        for (NoteEngine.ReplaceResult result : engine.replaceInNotes(notes, query, matchCase, wholeWord, regex, replacement, dryRun, pool, null)) {
+            if (result.getError() != null) {
+                System.err.println(result);
+                failed++;
+            } else if (dryRun && result.getMatches() > 0) {
+                System.out.println(result);
+            }
+            total += result.getMatches();
+        }
+        report((dryRun ? "Found" : "Replaced") + " %d matches in %d notes", total, notes.size(), start);
+        return failed == 0 ? 0 : 1;
+    }
+
+    private int convert(NoteEngine engine, List<String> args, ExecutorService pool) throws InterruptedException {
+        TextFormat format = TextFormat.UTF_8;
+        boolean byteOrderMark = false;
+        while (!args.isEmpty() && args.get(0).startsWith("--")) {
+            String option = args.remove(0);
+            if (option.equals("--encoding")) {
+                format = format.withCharset(Charset.forName(value(args, option)));
+            } else if (option.equals("--bom")) {
+                byteOrderMark = true;
+            } else if (option.equals("--line-endings")) {
+                format = format.withLineSeparator(lineSeparator(value(args, option)));
+            } else {
+                throw new IllegalArgumentException("Unknown convert option: " + option);
+            }
+        }
+        if (byteOrderMark) {
+            format = format.withByteOrderMark();
+        }
+        List<File> notes = expandPaths(args);
+        long start = System.nanoTime();
+        int converted = engine.convertNotes(notes, format, pool);
+        report("Converted %d of %d notes to " + format.describe(), converted, notes.size(), start);
+        return converted == notes.size() ? 0 : 1;
+    }
+
+    // Calendars are imported one at a time; a PDF already renders its pages on every core
+    private int importCalendars(NoteEngine engine, List<String> args) throws InterruptedException {
+        if (args.isEmpty()) {
+            throw new IllegalArgumentException("calendar needs at least one FILE");
+        }
+        int failed = 0;
+        long start = System.nanoTime();
+        for (String arg : args) {
+            try {
+                int pages = engine.importCalendar(new File(arg));
+                System.out.println(arg + ": " + pages + (pages == 1 ? " page" : " pages"));
+            } catch (IOException e) {
+                System.err.println(arg + ": " + e.getMessage());
+                failed++;
+            }
+        }
+        report("Imported %d of %d calendars", args.size() - failed, args.size(), start);
+        return failed == 0 ? 0 : 1;
+    }
+
+    private static String lineSeparator(String name) {
+        switch (name.toLowerCase()) {
+            case "lf":
+                return "\n";
+            case "crlf":
+                return "\r\n";
+            case "cr":
+                return "\r";
+            default:
+                throw new IllegalArgumentException("Line endings must be lf, crlf or cr, not " + name);
+        }
+    }
+
+    // Files as given, directories walked for notes; duplicates are dropped so no note is written twice at once
+    private static List<File> expandPaths(List<String> paths) {
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("No notes given");
+        }
+        Set<File> notes = new LinkedHashSet<>();
+        for (String path : paths) {
+            File file = new File(path).getAbsoluteFile();
+            if (!file.isDirectory()) {
+                notes.add(file);
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(file.toPath())) {
+                walk.filter(Files::isRegularFile)
+                        .filter(p -> noteExtensions().stream().anyMatch(p.getFileName().toString().toLowerCase()::endsWith))
+                        .forEach(p -> notes.add(p.toFile()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return new ArrayList<>(notes);
+    }
+
+    private static String value(List<String> args, String option) {
+        if (args.isEmpty()) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args.remove(0);
+    }
+
+    private static void report(String format, long done, long total, long startNanos) {
+        long millis = (System.nanoTime() - startNanos) / 1_000_000;
+        System.err.println(String.format(format, done, total) + " in " + millis + " ms");
+    }
+}
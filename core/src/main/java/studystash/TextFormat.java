@@ -0,0 +1,216 @@
+package studystash;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+// How a note's text is laid out on disk: its charset, byte order mark and line separator.
+// Documents always hold '\n' line breaks and never the BOM; the loaders strip both and the saver puts them back, so a
+// note is written the way it was read. detect() sniffs all three from the first block of the file.
+public class TextFormat {
+    public static final int SNIFF_BYTES = 64 * 1024;
+    // What new notes and swap files use
+    public static final TextFormat UTF_8 = new TextFormat(StandardCharsets.UTF_8, new byte[0], "\n");
+
+    private static final byte[] UTF_8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] UTF_16BE_BOM = {(byte) 0xFE, (byte) 0xFF};
+    private static final byte[] UTF_16LE_BOM = {(byte) 0xFF, (byte) 0xFE};
+    private static final byte[] UTF_32BE_BOM = {0, 0, (byte) 0xFE, (byte) 0xFF};
+    private static final byte[] UTF_32LE_BOM = {(byte) 0xFF, (byte) 0xFE, 0, 0};
+
+    private final Charset charset;
+    private final byte[] byteOrderMark;
+    private final String lineSeparator;
+
+    public TextFormat(Charset charset, byte[] byteOrderMark, String lineSeparator) {
+        this.charset = charset;
+        this.byteOrderMark = byteOrderMark;
+        this.lineSeparator = lineSeparator;
+    }
+
+    // Plain text in charset with '\n' line breaks and no BOM
+    public static TextFormat of(Charset charset) {
+        return new TextFormat(charset, new byte[0], "\n");
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    // Bytes written before the text; empty when the file had no BOM
+    public byte[] getByteOrderMark() {
+        return byteOrderMark.clone();
+    }
+
+    public int getByteOrderMarkLength() {
+        return byteOrderMark.length;
+    }
+
+    public String getLineSeparator() {
+        return lineSeparator;
+    }
+
+    public TextFormat withCharset(Charset charset) {
+        return new TextFormat(charset, new byte[0], lineSeparator);
+    }
+
+    // Adds the Unicode BOM as the charset encodes it; only meaningful for the UTF charsets
+    public TextFormat withByteOrderMark() {
+        return new TextFormat(charset, "\uFEFF".getBytes(charset), lineSeparator);
+    }
+
+    public TextFormat withLineSeparator(String lineSeparator) {
+        return new TextFormat(charset, byteOrderMark, lineSeparator);
+    }
+
+    // Reads the file's text in this format, starting past the BOM; bytes that do not decode become U+FFFD.
+    // Line breaks are left as they are. Closing the reader closes the file.
+    public Reader newReader(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            channel.position(byteOrderMark.length);
+            return Channels.newReader(channel, charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE), 8192);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Short label for the status bar, e.g. "UTF-16LE BOM CRLF"
+    public String describe() {
+        String lines = "\r\n".equals(lineSeparator) ? "CRLF" : "\r".equals(lineSeparator) ? "CR" : "LF";
+        return charset.name() + (byteOrderMark.length > 0 ? " BOM " : " ") + lines;
+    }
+
+    public static TextFormat detect(File file, Charset fallback) throws IOException {
+        ByteBuffer sample = ByteBuffer.allocate(SNIFF_BYTES);
+        long size;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            size = channel.size();
+            while (sample.hasRemaining() && channel.read(sample) != -1) {
+                // fill the sample or reach the end of the file
+            }
+        }
+        sample.flip();
+        return detect(sample, sample.limit() == size, fallback);
+    }
+
+    // Sniffs the format from the first bytes of a file. complete tells whether sample is the whole file.
+    // Without a BOM, text that is valid UTF-8 and not plain ASCII is taken as UTF-8, a regular pattern of zero bytes
+    // as BOM-less UTF-16, and anything else as fallback. The first line break found decides the separator.
+    public static TextFormat detect(ByteBuffer sample, boolean complete, Charset fallback) {
+        Charset charset;
+        byte[] bom;
+        if (startsWith(sample, UTF_32LE_BOM) && Charset.isSupported("UTF-32LE")) {
+            charset = Charset.forName("UTF-32LE");
+            bom = UTF_32LE_BOM;
+        } else if (startsWith(sample, UTF_32BE_BOM) && Charset.isSupported("UTF-32BE")) {
+            charset = Charset.forName("UTF-32BE");
+            bom = UTF_32BE_BOM;
+        } else if (startsWith(sample, UTF_8_BOM)) {
+            charset = StandardCharsets.UTF_8;
+            bom = UTF_8_BOM;
+        } else if (startsWith(sample, UTF_16BE_BOM)) {
+            charset = StandardCharsets.UTF_16BE;
+            bom = UTF_16BE_BOM;
+        } else if (startsWith(sample, UTF_16LE_BOM)) {
+            charset = StandardCharsets.UTF_16LE;
+            bom = UTF_16LE_BOM;
+        } else {
+            charset = guessCharset(sample, complete, fallback);
+            bom = new byte[0];
+        }
+        ByteBuffer text = sample.duplicate();
+        text.position(text.position() + bom.length);
+        return new TextFormat(charset, bom, findLineSeparator(text, charset));
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, byte[] prefix) {
+        if (buffer.remaining() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(buffer.position() + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Charset guessCharset(ByteBuffer sample, boolean complete, Charset fallback) {
+        int start = sample.position();
+        int length = sample.remaining();
+        int evenZeros = 0;
+        int oddZeros = 0;
+        boolean ascii = true;
+        for (int i = 0; i < length; i++) {
+            byte b = sample.get(start + i);
+            if (b == 0) {
+                if ((i & 1) == 0) {
+                    evenZeros++;
+                } else {
+                    oddZeros++;
+                }
+            } else if (b < 0) {
+                ascii = false;
+            }
+        }
+        // Mostly-Latin UTF-16 has a zero in the high byte of nearly every unit, and text files have no other zeros
+        int units = length / 2;
+        if (units > 0 && evenZeros > units * 3 / 10 && oddZeros <= units / 20) {
+            return StandardCharsets.UTF_16BE;
+        }
+        if (units > 0 && oddZeros > units * 3 / 10 && evenZeros <= units / 20) {
+            return StandardCharsets.UTF_16LE;
+        }
+        if (ascii) {
+            return fallback;
+        }
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        ByteBuffer in = sample.duplicate();
+        CharBuffer out = CharBuffer.allocate(length);
+        // endOfInput is false for a partial sample, so a character cut off at the end of it is not an error
+        if (decoder.decode(in, out, complete).isError()) {
+            return fallback;
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static String findLineSeparator(ByteBuffer text, Charset charset) {
+        CharBuffer chars;
+        try {
+            chars = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(text);
+        } catch (CharacterCodingException e) {
+            // Cannot happen with REPLACE actions
+            return "\n";
+        }
+        while (chars.hasRemaining()) {
+            char c = chars.get();
+            if (c == '\n') {
+                return "\n";
+            }
+            if (c == '\r') {
+                // A CR at the very end of the sample may be half of a CRLF; CRLF is the likelier reading
+                return !chars.hasRemaining() || chars.get() == '\n' ? "\r\n" : "\r";
+            }
+        }
+        return "\n";
+    }
+}